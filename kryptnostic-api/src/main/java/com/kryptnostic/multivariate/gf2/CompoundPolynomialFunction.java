@@ -25,6 +25,12 @@ public interface CompoundPolynomialFunction extends PolynomialFunction {
 
     CompoundPolynomialFunction copy();
 
+    /**
+     * @return An equivalent compound function in which adjacent affine stages have been merged with each other and,
+     *         where it is cheaper to evaluate, with neighbouring stages.
+     */
+    CompoundPolynomialFunction optimize();
+
     /**
      * @return The number of polynomial functions in this compoud polynomial function.
      */
@@ -0,0 +1,11 @@
+package com.kryptnostic.multivariate.gf2;
+
+/**
+ * Receives values produced by a streaming operation, such as {@link PolynomialFunction#applyAll(java.util.Iterator,
+ * Consumer)}.
+ * 
+ * @param <T> The type of value received.
+ */
+public interface Consumer<T> {
+    void accept( T value );
+}
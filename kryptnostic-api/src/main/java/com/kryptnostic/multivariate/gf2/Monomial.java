@@ -79,9 +79,19 @@ public class Monomial extends BitVector {
         Preconditions.checkArgument(
                 size() == input.size(),
                 "Number of terms in input doesn't not much number of terms in Monomial." );
-        BitVector check = copy();
-        check.and( input );
-        return check.equals( this );
+        long[] inputBits = input.elements();
+        int words = Math.min( bits.length, inputBits.length );
+        for ( int i = 0; i < words; ++i ) {
+            if ( ( inputBits[ i ] & bits[ i ] ) != bits[ i ] ) {
+                return false;
+            }
+        }
+        for ( int i = words; i < bits.length; ++i ) {
+            if ( bits[ i ] != 0L ) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Monomial partialEval( BitVector input ) {
@@ -1,5 +1,8 @@
 package com.kryptnostic.multivariate.gf2;
 
+import java.util.Iterator;
+import java.util.List;
+
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.google.common.base.Function;
 
@@ -14,6 +17,38 @@ import cern.colt.bitvector.BitVector;
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "@class")
 public interface PolynomialFunction extends Function<BitVector,BitVector> {
     public abstract BitVector apply( BitVector lhs , BitVector rhs );
+    
+    /**
+     * Evaluates the function on input, writing the result into a caller owned buffer so that it can be reused across
+     * evaluations.
+     * @param input Vector of length {@link #getInputLength()}.
+     * @param output Vector of length {@link #getOutputLength()}, whose contents will be overwritten with the result.
+     */
+    public abstract void applyInto( BitVector input , BitVector output );
+    
+    /**
+     * Evaluates the function on the words of an input vector, writing the words of the result into output.  
+     * Only the first {@code ceil( getOutputLength() / 64 )} words of output are written.
+     * @param input Words of the input vector.
+     * @param output Buffer of at least {@code ceil( getOutputLength() / 64 )} words to receive the result.
+     */
+    public abstract void applyInto( long[] input , long[] output );
+    
+    /**
+     * Evaluates the function on each input, splitting the inputs across cores. Each input is evaluated by a single 
+     * thread, so no results need to be merged between threads.
+     * @param inputs Vectors of length {@link #getInputLength()}.
+     * @return The outputs of the function, in the same order as the inputs.
+     */
+    public abstract List<BitVector> applyAll( List<BitVector> inputs );
+    
+    /**
+     * Evaluates the function on each input produced by an iterator, passing the outputs to consumer in the same 
+     * order as the inputs. Inputs are read and evaluated in batches, so the iterator may be much larger than memory.
+     * @param inputs Vectors of length {@link #getInputLength()}.
+     * @param consumer Receives the output of each input.
+     */
+    public abstract void applyAll( Iterator<BitVector> inputs , Consumer<BitVector> consumer );
     public abstract int getInputLength();
     public abstract int getOutputLength();
 }
@@ -10,6 +10,34 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
     include = JsonTypeInfo.As.PROPERTY,
     property = "@class" )
 public interface SimplePolynomialFunction extends PolynomialFunction {
+    /**
+     * Evaluates the function on a batch of inputs. Implementations are expected to be substantially faster than
+     * calling {@link #apply(BitVector)} once per input.
+     * 
+     * @param inputs The inputs to evaluate the function on.
+     * @return The outputs of the function, in the same order as the inputs.
+     */
+    @Timed
+    BitVector[] apply( BitVector[] inputs );
+
+    /**
+     * Evaluates only the outputs selected by a mask, which is cheaper than a full evaluation when few outputs are
+     * needed.
+     * 
+     * @param input The input to evaluate the function on.
+     * @param outputMask A vector of the same length as the output with the bits of the requested outputs set.
+     * @return The output of the function with every output that isn't selected by outputMask cleared.
+     */
+    @Timed
+    BitVector applyMasked( BitVector input, BitVector outputMask );
+
+    /**
+     * @param outputs Indices of the outputs to keep.
+     * @return A function whose i-th output is output {@code outputs[ i ]} of this function, without the monomials that
+     *         don't contribute to any of those outputs.
+     */
+    SimplePolynomialFunction project( int[] outputs );
+
     @Timed
     SimplePolynomialFunction xor( SimplePolynomialFunction input );
 
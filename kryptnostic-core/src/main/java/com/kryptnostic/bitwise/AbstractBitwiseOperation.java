@@ -1,6 +1,12 @@
 package com.kryptnostic.bitwise;
 
+import java.util.Iterator;
+import java.util.List;
+
 import com.google.common.base.Preconditions;
+import com.kryptnostic.multivariate.evaluation.BatchEvaluation;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.gf2.Consumer;
 import com.kryptnostic.multivariate.gf2.PolynomialFunction;
 
 import cern.colt.bitvector.BitVector;
@@ -31,8 +37,38 @@ public abstract class AbstractBitwiseOperation implements PolynomialFunction {
         return evaluate( lhs , rhs );
     }
     
+    @Override
+    public void applyInto( BitVector input, BitVector output ) {
+        Preconditions.checkArgument( 
+                input.elements().length == ( length << 1 ) ,
+                "Input has invalid length.");
+        Preconditions.checkArgument( 
+                output.elements().length >= length ,
+                "Output has invalid length.");
+        applyInto( input.elements() , output.elements() );
+    }
+
+    @Override
+    public void applyInto( long[] input, long[] output ) {
+        for( int i = 0 ; i < length ; ++i ) {
+            output[ i ] = evaluate( input[ i ] , input[ i + length ] );
+        }
+    }
+    
     public abstract BitVector evaluate( BitVector lhs, BitVector rhs );
     
+    public abstract long evaluate( long lhs, long rhs );
+    
+    @Override
+    public List<BitVector> applyAll( List<BitVector> inputs ) {
+        return BatchEvaluation.applyAll( this , inputs , PolynomialExecutionContext.getDefault() );
+    }
+
+    @Override
+    public void applyAll( Iterator<BitVector> inputs , Consumer<BitVector> consumer ) {
+        BatchEvaluation.applyAll( this , inputs , consumer , PolynomialExecutionContext.getDefault() );
+    }
+
     @Override
     public int getInputLength() {
         return length << 1;
@@ -203,6 +203,45 @@ public final class BitVectors {
         return total;
     }
 
+    /**
+     * @param length A length in bits.
+     * @return The number of longs needed to store a vector of the given length.
+     */
+    public static int wordsFor( int length ) {
+        return ( length + 63 ) >>> 6;
+    }
+
+    /**
+     * Copies the first {@code length} bits of source into destination, starting at bit {@code offset}. Bits of
+     * destination below offset are preserved, but the remainder of the last word written is not, so consecutive ranges
+     * must be copied in increasing order of offset.
+     * 
+     * @param source Words to copy from.
+     * @param length Number of bits to copy.
+     * @param destination Words to copy into, must be long enough to hold {@code offset + length} bits.
+     * @param offset Bit index in destination at which to start writing.
+     */
+    public static void copyBits( long[] source, int length, long[] destination, int offset ) {
+        int words = wordsFor( length );
+        int base = offset >>> 6;
+        int shift = offset & 63;
+        int leftover = length & 63;
+        for ( int i = 0; i < words; ++i ) {
+            long word = source[ i ];
+            if ( leftover != 0 && i == words - 1 ) {
+                word &= ( 1L << leftover ) - 1;
+            }
+            if ( shift == 0 ) {
+                destination[ base + i ] = word;
+            } else {
+                destination[ base + i ] = ( destination[ base + i ] & ( ( 1L << shift ) - 1 ) ) | ( word << shift );
+                if ( base + i + 1 < destination.length ) {
+                    destination[ base + i + 1 ] = word >>> ( 64 - shift );
+                }
+            }
+        }
+    }
+
     /**
      * @param from , the index in the backing long array to start from
      * @param to , the last index in the backing long array to copy
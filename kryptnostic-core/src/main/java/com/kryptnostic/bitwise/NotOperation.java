@@ -2,6 +2,8 @@ package com.kryptnostic.bitwise;
 
 import cern.colt.bitvector.BitVector;
 
+import com.google.common.base.Preconditions;
+
 public class NotOperation extends AbstractBitwiseOperation {
 
     public NotOperation(int length) {
@@ -20,10 +22,36 @@ public class NotOperation extends AbstractBitwiseOperation {
         throw new UnsupportedOperationException( "Binary operation is not supported on NOT. ");
     }
     
+    @Override
+    public void applyInto(BitVector input, BitVector output) {
+        Preconditions.checkArgument( input.size() == output.size() , "Output must be the same length as input." );
+        long[] inputElements = input.elements();
+        long[] outputElements = output.elements();
+        for( int i = 0 ; i < inputElements.length ; ++i ) {
+            outputElements[ i ] = ~inputElements[ i ];
+        }
+        int leftover = input.size() & 63;
+        if( leftover != 0 ) {
+            outputElements[ inputElements.length - 1 ] &= ( 1L << leftover ) - 1;
+        }
+    }
+    
+    @Override
+    public void applyInto(long[] input, long[] output) {
+        for( int i = 0 ; i < getOutputLength() ; ++i ) {
+            output[ i ] = ~input[ i ];
+        }
+    }
+    
     @Override
     public BitVector evaluate(BitVector lhs, BitVector rhs) {
         //Unreachable, since apply( lhs , rhs ) always throws.
         return null;
     }
+    
+    @Override
+    public long evaluate(long lhs, long rhs) {
+        throw new UnsupportedOperationException( "Binary operation is not supported on NOT. ");
+    }
 
 }
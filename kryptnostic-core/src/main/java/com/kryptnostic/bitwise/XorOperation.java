@@ -15,4 +15,9 @@ public class XorOperation extends AbstractBitwiseOperation {
         return result;
     }
 
+    @Override
+    public long evaluate(long lhs, long rhs) {
+        return lhs ^ rhs;
+    }
+
 }
@@ -3,6 +3,7 @@ package com.kryptnostic.crypto;
 import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -13,10 +14,13 @@ import cern.colt.bitvector.BitVector;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.kryptnostic.bitwise.BitVectors;
 import com.kryptnostic.linear.EnhancedBitMatrix;
 import com.kryptnostic.linear.EnhancedBitMatrix.NonSquareMatrixException;
 import com.kryptnostic.linear.EnhancedBitMatrix.SingularMatrixException;
+import com.kryptnostic.multivariate.composition.ComposeCache;
+import com.kryptnostic.multivariate.composition.IncrementalComposer;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
 import com.kryptnostic.multivariate.util.ParameterizedPolynomialFunctions;
 import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
@@ -67,6 +71,7 @@ public class PrivateKey {
     private final SimplePolynomialFunction[] complexityChain;
     private final BitVector                  mixingConstant;
     private final int                        longsPerBlock;
+    private SimplePolynomialFunction         binaryDecryptor;
 
     public PrivateKey( int cipherTextBlockLength, int plainTextBlockLength ) {
         this( cipherTextBlockLength, plainTextBlockLength, DEFAULT_CHAIN_LENGTH );
@@ -203,7 +208,7 @@ public class PrivateKey {
     public SimplePolynomialFunction encrypt( SimplePolynomialFunction input, SimplePolynomialFunction g ) {
         Pair<SimplePolynomialFunction, SimplePolynomialFunction[]> pipeline = SimplePolynomialFunctions
                 .buildNonlinearPipeline(
-                        g.xor( SimplePolynomialFunctions.constant( E1.rows(), mixingConstant ) ),
+                        g.xor( SimplePolynomialFunctions.constant( g.getInputLength(), mixingConstant ) ),
                         complexityChain );
 
         SimplePolynomialFunction E = E1.multiply( input.xor( A.multiply( g ) ) ).xor(
@@ -218,8 +223,92 @@ public class PrivateKey {
         return encrypt( f.compose( decryptor ), SimplePolynomialFunctions.randomManyToOneLinearCombination( E1.cols() ) );
     }
 
+    /**
+     * Computes the homomorphic version of f, reusing the composition of f with the decryptor if an equal composition
+     * is held by the cache.
+     */
+    public SimplePolynomialFunction computeHomomorphicFunction( SimplePolynomialFunction f, ComposeCache cache ) {
+        return encrypt(
+                cache.compose( f, decryptor ),
+                SimplePolynomialFunctions.randomManyToOneLinearCombination( E1.cols() ) );
+    }
+
+    /**
+     * @return A composer bound to the decryptor, for computing many homomorphic functions that share monomials.
+     */
+    public IncrementalComposer newHomomorphicComposer() {
+        return new IncrementalComposer( decryptor );
+    }
+
+    /**
+     * @return A composer bound to the concatenated decryptors, for computing many binary homomorphic functions that
+     *         share monomials.
+     */
+    public IncrementalComposer newBinaryHomomorphicComposer() {
+        return new IncrementalComposer( getBinaryDecryptor() );
+    }
+
+    /**
+     * Computes the homomorphic version of f, reusing the expansions of the monomials f shares with functions previously
+     * composed by the composer.
+     * 
+     * @param composer A composer from {@link #newHomomorphicComposer()}.
+     */
+    public SimplePolynomialFunction computeHomomorphicFunction( SimplePolynomialFunction f, IncrementalComposer composer ) {
+        Preconditions.checkArgument( composer.getInner() == decryptor, "Composer must be bound to the decryptor." );
+        return encrypt(
+                composer.compose( f ),
+                SimplePolynomialFunctions.randomManyToOneLinearCombination( E1.cols() ) );
+    }
+
     public SimplePolynomialFunction computeBinaryHomomorphicFunction( SimplePolynomialFunction f ) {
-        return encryptBinary( f.compose( SimplePolynomialFunctions.concatenateInputsAndOutputs( decryptor, decryptor ) ) );
+        return encryptBinaryComposition( f.compose( getBinaryDecryptor() ) );
+    }
+
+    /**
+     * Computes the binary homomorphic version of f, reusing the composition of f with the concatenated decryptors if an
+     * equal composition is held by the cache.
+     */
+    public SimplePolynomialFunction computeBinaryHomomorphicFunction( SimplePolynomialFunction f, ComposeCache cache ) {
+        return encryptBinaryComposition( cache.compose( f, getBinaryDecryptor() ) );
+    }
+
+    /**
+     * Computes the binary homomorphic version of f, reusing the expansions of the monomials f shares with functions
+     * previously composed by the composer.
+     * 
+     * @param composer A composer from {@link #newBinaryHomomorphicComposer()}.
+     */
+    public SimplePolynomialFunction computeBinaryHomomorphicFunction(
+            SimplePolynomialFunction f,
+            IncrementalComposer composer ) {
+        Preconditions.checkArgument(
+                composer.getInner() == getBinaryDecryptor(),
+                "Composer must be bound to the concatenated decryptors." );
+        return encryptBinaryComposition( composer.compose( f ) );
+    }
+
+    /**
+     * Encrypts the composition of a binary function with the concatenated decryptors, mixing in a random linear
+     * combination of both ciphertexts.
+     * 
+     * @param composed A function of a pair of concatenated ciphertexts whose output is a plaintext.
+     */
+    public SimplePolynomialFunction encryptBinaryComposition( SimplePolynomialFunction composed ) {
+        return encrypt( composed, SimplePolynomialFunctions.unsafeRandomManyToOneLinearCombination(
+                composed.getInputLength(),
+                E1.cols() ) );
+    }
+
+    /**
+     * @return The decryptor applied to each half of a pair of concatenated ciphertexts, built once per key so that
+     *         binary homomorphic composers can be checked against it.
+     */
+    private synchronized SimplePolynomialFunction getBinaryDecryptor() {
+        if ( binaryDecryptor == null ) {
+            binaryDecryptor = SimplePolynomialFunctions.concatenateInputsAndOutputs( decryptor, decryptor );
+        }
+        return binaryDecryptor;
     }
 
     public EnhancedBitMatrix getD() {
@@ -276,9 +365,11 @@ public class PrivateKey {
     byte[] decrypt( byte[] ciphertext ) {
         ByteBuffer buffer = ByteBuffer.wrap( ciphertext );
         ByteBuffer decryptedBytes = ByteBuffer.allocate( ciphertext.length >>> 1 );
+        List<BitVector> blocks = Lists.newArrayList();
         while ( buffer.hasRemaining() ) {
-            BitVector X = fromBuffer( buffer, longsPerBlock );
-            BitVector plaintextVector = decryptor.apply( X );
+            blocks.add( fromBuffer( buffer, longsPerBlock ) );
+        }
+        for ( BitVector plaintextVector : decryptor.applyAll( blocks ) ) {
             toBuffer( decryptedBytes, plaintextVector );
         }
         return decryptedBytes.array();
@@ -352,11 +443,14 @@ public class PrivateKey {
 
     public byte[] decryptFromEnvelope( Ciphertext ciphertext ) {
         /*
-         * Decrypt using the message length to discard unneeded bytes.
+         * Decrypt using the message length to discard unneeded bytes. Only the first word of the decrypted length block
+         * is used, so the remaining outputs are skipped.
          */
-        return Arrays.copyOf(
-                decrypt( ciphertext.getContents() ),
-                (int) decryptor.apply( new BitVector( ciphertext.getLength(), longsPerBlock << 6 ) ).elements()[ 0 ] );
+        BitVector lengthMask = new BitVector( decryptor.getOutputLength() );
+        lengthMask.replaceFromToWith( 0, 63, true );
+        return Arrays.copyOf( decrypt( ciphertext.getContents() ), (int) decryptor.applyMasked(
+                new BitVector( ciphertext.getLength(), longsPerBlock << 6 ),
+                lengthMask ).elements()[ 0 ] );
     }
 
     protected static void toBuffer( ByteBuffer output, BitVector plaintextVector ) {
@@ -96,8 +96,13 @@ public class PublicKey {
         ByteBuffer buffer = ByteBuffer.wrap( plaintext );
         ByteBuffer outBuf = ByteBuffer.allocate( plaintext.length << 1 );
 
+        /*
+         * 2) Encrypt all blocks in a single batch, split across cores
+         */
         int blockLen = longsPerBlock << 1;
-        while ( buffer.remaining() > 0 ) {
+        int blockBytes = longsPerBlock << 3;
+        BitVector[] blocks = new BitVector[ ( plaintext.length + blockBytes - 1 ) / blockBytes ];
+        for ( int block = 0; block < blocks.length; ++block ) {
             long[] lpt = new long[ blockLen ];
 
             for ( int i = 0; i < longsPerBlock; ++i ) {
@@ -108,8 +113,11 @@ public class PublicKey {
                 lpt[ i ] = 0L;// r.nextLong();
             }
 
-            long[] ciphertext = encrypt( lpt );
-            for ( long lct : ciphertext ) {
+            blocks[ block ] = new BitVector( lpt, encrypter.getInputLength() );
+        }
+
+        for ( BitVector result : encrypter.applyAll( Arrays.asList( blocks ) ) ) {
+            for ( long lct : result.elements() ) {
                 outBuf.putLong( lct );
             }
         }
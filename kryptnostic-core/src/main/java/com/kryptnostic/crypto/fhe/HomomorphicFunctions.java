@@ -63,7 +63,6 @@ public class HomomorphicFunctions {
         return SimplePolynomialFunctions.concatenate(xor, carry);
     }
 
-    // TODO: Fix this to support parameterized functions
     public static SimplePolynomialFunction DirectHomomorphicAnd(PrivateKey privateKey) {
         /*
          * Doing a direct homomorphic and with parameterized functions requires making sure the pipelines are preserved
@@ -74,7 +73,6 @@ public class HomomorphicFunctions {
         Monomial[] lhsMonomials = new Monomial[monomials.length];
         Monomial[] rhsMonomials = new Monomial[monomials.length];
         int input = decryptor.getInputLength();
-        int pipeline = input + decryptor.getPipelineOutputLength();
 
         int lhsInput = input;
         int rhsInput = lhsInput << 1;
@@ -85,9 +83,9 @@ public class HomomorphicFunctions {
          * [ decryptor inputLength ] ===> [ newSize ] [ input monomials | pipeline monomials ] ===> [ lhsInput| rhsInput
          * | lhsPipeline | rhsPipeline ]
          */
-        int[] srcRanges = new int[] { 0, input, input, pipeline };
-        int[][] lhsDstRanges = new int[][] { { 0, lhsInput }, { rhsInput, lhsPipeline } };
-        int[][] rhsDstRanges = new int[][] { { lhsInput, rhsInput }, { lhsPipeline, rhsPipeline } };
+        int[] srcRanges = new int[] { 0, input };
+        int[][] lhsDstRanges = new int[][] { { 0, lhsInput - 1 }, { rhsInput, lhsPipeline - 1 } };
+        int[][] rhsDstRanges = new int[][] { { lhsInput, rhsInput - 1 }, { lhsPipeline, rhsPipeline - 1 } };
 
         List<CompoundPolynomialFunction> newLhsPipeline = Lists.newArrayListWithCapacity(decryptor.getPipelines()
                 .size());
@@ -95,10 +93,10 @@ public class HomomorphicFunctions {
                 .size());
 
         for (CompoundPolynomialFunction f : decryptor.getPipelines()) {
-            newLhsPipeline.add(ParameterizedPolynomialFunctions.extendAndMap(rhsInput, new int[] { 0, input },
-                    new int[][] { { 0, lhsInput } }, f));
-            newRhsPipeline.add(ParameterizedPolynomialFunctions.extendAndMap(rhsInput, new int[] { 0, input },
-                    new int[][] { { lhsInput, rhsInput } }, f));
+            newLhsPipeline.add(ParameterizedPolynomialFunctions.extendAndMap(rhsInput, new int[] { 0 },
+                    new int[][] { { 0, lhsInput - 1 } }, f));
+            newRhsPipeline.add(ParameterizedPolynomialFunctions.extendAndMap(rhsInput, new int[] { 0 },
+                    new int[][] { { lhsInput, rhsInput - 1 } }, f));
         }
 
         for (int i = 0; i < monomials.length; ++i) {
@@ -118,7 +116,7 @@ public class HomomorphicFunctions {
         SimplePolynomialFunction XY = X.and(Y);
         logger.info("Computed product of decryption functons");
 
-        return privateKey.encryptBinary(new ParameterizedPolynomialFunctionGF2(rhsInput, decryptor.getOutputLength(),
+        return privateKey.encryptBinaryComposition(new ParameterizedPolynomialFunctionGF2(rhsInput, decryptor.getOutputLength(),
                 XY.getMonomials(), XY.getContributions(), ImmutableList.copyOf( Iterables.concat(newLhsPipeline, newRhsPipeline))));
     }
 
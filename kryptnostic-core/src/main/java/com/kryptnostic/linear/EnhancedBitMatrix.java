@@ -29,6 +29,7 @@ import com.google.common.collect.Sets;
 import com.kryptnostic.bitwise.BitVectors;
 import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.AffinePolynomialFunction;
 import com.kryptnostic.multivariate.polynomial.ParameterizedPolynomialFunctionGF2;
 import com.kryptnostic.multivariate.util.FunctionUtils;
 import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
@@ -427,6 +428,13 @@ public class EnhancedBitMatrix implements Serializable {
     }
 
     public SimplePolynomialFunction multiply( SimplePolynomialFunction f ) {
+        if ( AffinePolynomialFunction.isAffine( f ) ) {
+            AffinePolynomialFunction affine = AffinePolynomialFunction.fromFunction( f );
+            return AffinePolynomialFunction.fromRows(
+                    affine.getRows().multiply( transpose() ),
+                    multiply( affine.getConstant() ) );
+        }
+
         Monomial[] monomials = f.getMonomials();
         BitVector[] contributions = f.getContributions();
         Map<Monomial, BitVector> results = Maps.newHashMap();
@@ -0,0 +1,406 @@
+package com.kryptnostic.multivariate.composition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.colt.bitvector.BitVector;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.PolynomialFunction;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.ParameterizedPolynomialFunctionGF2;
+
+/**
+ * Caches the results of {@code compose}, {@code and} and {@code xor} keyed by a fingerprint of the contents of both
+ * operands, so that repeating an operation on equal functions is a lookup even when the functions are different
+ * instances, such as operators rebuilt for every request.
+ *
+ * Results are held in memory up to a maximum weight, estimated from the size of their monomials and contributions, and
+ * evicted least recently used first. If a directory is configured evicted results are serialized to it and read back
+ * on a later miss. Fingerprints of functions that aren't parameterized are remembered for as long as the function is
+ * reachable, since those functions never change. Parameterized functions are fingerprinted on every call, including
+ * their pipelines.
+ * 
+ * Composing a parameterized function updates the head of each of its pipelines, so parameterized operands are copied
+ * before they are composed and parameterized results are handed out as copies with pipelines of their own. Changes
+ * made by a caller never reach the cached result or the operands.
+ * 
+ * Results written to the directory use Java serialization and are deserialized on a later miss with the same key.
+ * They may be derived from a private key, such as compositions with its decryptor, and anyone able to write to the
+ * directory can plant a file that is deserialized by this process. Files are created readable and writable by their
+ * owner only where the file system supports it, but the directory itself must also only be accessible to the user
+ * running the process.
+ */
+public class ComposeCache {
+    private static final Logger                             logger     = LoggerFactory.getLogger( ComposeCache.class );
+    private static final HashFunction                       hashing    = Hashing.murmur3_128();
+    private static final String                             EXTENSION  = ".spf";
+    private static final Set<PosixFilePermission>           OWNER_ONLY = PosixFilePermissions.fromString( "rw-------" );
+
+    private final Cache<HashCode, SimplePolynomialFunction> results;
+    private final Cache<SimplePolynomialFunction, HashCode> fingerprints;
+    private final File                                      directory;
+    private final Meter                                     hits;
+    private final Meter                                     misses;
+    private final Meter                                     evictions;
+    private final Meter                                     diskHits;
+
+    private enum Operation {
+        COMPOSE, AND, XOR
+    }
+
+    private ComposeCache( Builder builder ) {
+        this.directory = builder.directory;
+        MetricRegistry metrics = builder.metrics == null ? new MetricRegistry() : builder.metrics;
+        this.hits = metrics.meter( MetricRegistry.name( builder.name, "hits" ) );
+        this.misses = metrics.meter( MetricRegistry.name( builder.name, "misses" ) );
+        this.evictions = metrics.meter( MetricRegistry.name( builder.name, "evictions" ) );
+        this.diskHits = metrics.meter( MetricRegistry.name( builder.name, "disk-hits" ) );
+        this.results = CacheBuilder.newBuilder().maximumWeight( builder.maximumWeight )
+                .weigher( new Weigher<HashCode, SimplePolynomialFunction>() {
+                    @Override
+                    public int weigh( HashCode key, SimplePolynomialFunction value ) {
+                        return weightOf( value );
+                    }
+                } ).removalListener( new RemovalListener<HashCode, SimplePolynomialFunction>() {
+                    @Override
+                    public void onRemoval( RemovalNotification<HashCode, SimplePolynomialFunction> notification ) {
+                        if ( notification.wasEvicted() ) {
+                            evictions.mark();
+                            spill( notification.getKey(), notification.getValue() );
+                        }
+                    }
+                } ).build();
+        this.fingerprints = CacheBuilder.newBuilder().weakKeys().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return outer composed with inner, computed by {@link SimplePolynomialFunction#compose(SimplePolynomialFunction)}
+     *         unless an equal composition is cached.
+     */
+    public SimplePolynomialFunction compose( final SimplePolynomialFunction outer, final SimplePolynomialFunction inner ) {
+        return get( Operation.COMPOSE, outer, inner, new Callable<SimplePolynomialFunction>() {
+            @Override
+            public SimplePolynomialFunction call() {
+                return outer.compose( inner );
+            }
+        } );
+    }
+
+    /**
+     * @return The product of lhs and rhs, computed by {@link SimplePolynomialFunction#and(SimplePolynomialFunction)}
+     *         unless an equal product is cached.
+     */
+    public SimplePolynomialFunction and( final SimplePolynomialFunction lhs, final SimplePolynomialFunction rhs ) {
+        return get( Operation.AND, lhs, rhs, new Callable<SimplePolynomialFunction>() {
+            @Override
+            public SimplePolynomialFunction call() {
+                return lhs.and( rhs );
+            }
+        } );
+    }
+
+    /**
+     * @return The sum of lhs and rhs, computed by {@link SimplePolynomialFunction#xor(SimplePolynomialFunction)} unless
+     *         an equal sum is cached.
+     */
+    public SimplePolynomialFunction xor( final SimplePolynomialFunction lhs, final SimplePolynomialFunction rhs ) {
+        return get( Operation.XOR, lhs, rhs, new Callable<SimplePolynomialFunction>() {
+            @Override
+            public SimplePolynomialFunction call() {
+                return lhs.xor( rhs );
+            }
+        } );
+    }
+
+    /**
+     * @return The number of operations answered from memory.
+     */
+    public long getHitCount() {
+        return hits.getCount();
+    }
+
+    /**
+     * @return The number of operations that had to be computed.
+     */
+    public long getMissCount() {
+        return misses.getCount();
+    }
+
+    /**
+     * @return The number of results evicted from memory.
+     */
+    public long getEvictionCount() {
+        return evictions.getCount();
+    }
+
+    /**
+     * @return The number of operations answered from the directory.
+     */
+    public long getDiskHitCount() {
+        return diskHits.getCount();
+    }
+
+    /**
+     * Drops every result held in memory. Results already written to the directory are kept.
+     */
+    public void invalidateAll() {
+        results.invalidateAll();
+    }
+
+    /**
+     * @return A fingerprint of the contents of f, equal for functions with the same monomials, contributions and
+     *         pipelines in the same order.
+     */
+    public HashCode fingerprint( SimplePolynomialFunction f ) {
+        if ( f.isParameterized() ) {
+            return computeFingerprint( f );
+        }
+        HashCode fingerprint = fingerprints.getIfPresent( f );
+        if ( fingerprint == null ) {
+            fingerprint = computeFingerprint( f );
+            fingerprints.put( f, fingerprint );
+        }
+        return fingerprint;
+    }
+
+    private SimplePolynomialFunction get(
+            Operation operation,
+            SimplePolynomialFunction lhs,
+            SimplePolynomialFunction rhs,
+            final Callable<SimplePolynomialFunction> compute ) {
+        final HashCode key = hashing.newHasher().putInt( operation.ordinal() ).putBytes( fingerprint( lhs ).asBytes() )
+                .putBytes( fingerprint( rhs ).asBytes() ).hash();
+        SimplePolynomialFunction result = results.getIfPresent( key );
+        if ( result != null ) {
+            hits.mark();
+            return copyOf( result );
+        }
+        try {
+            result = results.get( key, new Callable<SimplePolynomialFunction>() {
+                @Override
+                public SimplePolynomialFunction call() throws Exception {
+                    Optional<SimplePolynomialFunction> spilled = load( key );
+                    if ( spilled.isPresent() ) {
+                        diskHits.mark();
+                        return spilled.get();
+                    }
+                    misses.mark();
+                    // The result may share pipelines with a parameterized operand.
+                    return copyOf( compute.call() );
+                }
+            } );
+        } catch ( ExecutionException | UncheckedExecutionException e ) {
+            throw Throwables.propagate( e.getCause() );
+        }
+        return copyOf( result );
+    }
+
+    /**
+     * @return f if it isn't parameterized, otherwise a function with the same monomials and contributions and a copy of
+     *         each of its pipelines, which callers can change in place without changing f.
+     */
+    private static SimplePolynomialFunction copyOf( SimplePolynomialFunction f ) {
+        if ( !f.isParameterized() ) {
+            return f;
+        }
+        List<CompoundPolynomialFunction> pipelines = ( (ParameterizedPolynomialFunctionGF2) f ).getPipelines();
+        List<CompoundPolynomialFunction> copies = Lists.newArrayListWithCapacity( pipelines.size() );
+        for ( CompoundPolynomialFunction pipeline : pipelines ) {
+            copies.add( pipeline.copy() );
+        }
+        return new ParameterizedPolynomialFunctionGF2(
+                f.getInputLength(),
+                f.getOutputLength(),
+                f.getMonomials(),
+                f.getContributions(),
+                copies );
+    }
+
+    private HashCode computeFingerprint( SimplePolynomialFunction f ) {
+        Hasher hasher = hashing.newHasher().putInt( f.getInputLength() ).putInt( f.getOutputLength() );
+        Monomial[] monomials = f.getMonomials();
+        BitVector[] contributions = f.getContributions();
+        hasher.putInt( monomials.length );
+        for ( int i = 0; i < monomials.length; ++i ) {
+            putWords( hasher, monomials[ i ] );
+            putWords( hasher, contributions[ i ] );
+        }
+        if ( f.isParameterized() ) {
+            List<CompoundPolynomialFunction> pipelines = ( (ParameterizedPolynomialFunctionGF2) f ).getPipelines();
+            hasher.putInt( pipelines.size() );
+            for ( CompoundPolynomialFunction pipeline : pipelines ) {
+                hasher.putInt( pipeline.count() );
+                for ( PolynomialFunction stage : pipeline.getFunctions() ) {
+                    Preconditions.checkState(
+                            stage instanceof SimplePolynomialFunction,
+                            "Pipeline stages must be simple polynomial functions." );
+                    hasher.putBytes( fingerprint( (SimplePolynomialFunction) stage ).asBytes() );
+                }
+            }
+        }
+        return hasher.hash();
+    }
+
+    private static void putWords( Hasher hasher, BitVector v ) {
+        long[] words = v.elements();
+        hasher.putInt( v.size() );
+        for ( int i = 0; i < BitVectors.wordsFor( v.size() ); ++i ) {
+            hasher.putLong( words[ i ] );
+        }
+    }
+
+    /**
+     * @return An estimate of the bytes used by f, capped at the largest weight the cache accepts.
+     */
+    private static int weightOf( SimplePolynomialFunction f ) {
+        Monomial[] monomials = f.getMonomials();
+        if ( monomials.length == 0 ) {
+            return 1;
+        }
+        long words = BitVectors.wordsFor( monomials[ 0 ].size() ) + BitVectors.wordsFor( f.getOutputLength() );
+        // Each monomial and contribution is an object with an array of its own.
+        long bytes = monomials.length * ( ( words << 3 ) + 96L );
+        return (int) Math.min( bytes, Integer.MAX_VALUE );
+    }
+
+    private void spill( HashCode key, SimplePolynomialFunction value ) {
+        if ( directory == null ) {
+            return;
+        }
+        File file = new File( directory, key.toString() + EXTENSION );
+        if ( file.exists() ) {
+            return;
+        }
+        File partial = new File( directory, key.toString() + EXTENSION + ".tmp" );
+        try ( ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( Files.newOutputStream(
+                createOwnerOnly( partial.toPath() ),
+                StandardOpenOption.WRITE ) ) ) ) {
+            out.writeObject( value );
+        } catch ( IOException e ) {
+            logger.warn( "Unable to write evicted result {} to {}.", key, directory, e );
+            partial.delete();
+            return;
+        }
+        if ( !partial.renameTo( file ) ) {
+            partial.delete();
+        }
+    }
+
+    /**
+     * Creates an empty file readable and writable only by its owner, failing if the file already exists.
+     */
+    private static Path createOwnerOnly( Path path ) throws IOException {
+        try {
+            return Files.createFile( path, PosixFilePermissions.asFileAttribute( OWNER_ONLY ) );
+        } catch ( UnsupportedOperationException e ) {
+            // Not a POSIX file system, the directory's own access control applies.
+            return Files.createFile( path );
+        }
+    }
+
+    private Optional<SimplePolynomialFunction> load( HashCode key ) {
+        if ( directory == null ) {
+            return Optional.absent();
+        }
+        File file = new File( directory, key.toString() + EXTENSION );
+        if ( !file.exists() ) {
+            return Optional.absent();
+        }
+        try ( ObjectInputStream in = new ObjectInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+            return Optional.of( (SimplePolynomialFunction) in.readObject() );
+        } catch ( IOException | ClassNotFoundException e ) {
+            logger.warn( "Unable to read cached result {} from {}, recomputing it.", key, directory, e );
+            return Optional.absent();
+        }
+    }
+
+    public static class Builder {
+        private String         name          = "compose-cache";
+        private long           maximumWeight = 1L << 28;
+        private MetricRegistry metrics       = null;
+        private File           directory     = null;
+
+        private Builder() {}
+
+        /**
+         * @param name Prefix for metric names.
+         */
+        public Builder name( String name ) {
+            this.name = Preconditions.checkNotNull( name, "Name cannot be null." );
+            return this;
+        }
+
+        /**
+         * @param maximumWeight Estimated number of bytes of results to keep in memory, defaults to 256 MB.
+         */
+        public Builder maximumWeight( long maximumWeight ) {
+            Preconditions.checkArgument( maximumWeight > 0, "Maximum weight must be positive." );
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * @param metrics Registry for hit, miss, eviction and disk hit meters. Meters aren't registered by default.
+         */
+        public Builder metrics( MetricRegistry metrics ) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param directory Directory that evicted results are written to and read back from, which must only be
+         *            accessible to the user running the process. Results are only kept in memory by default.
+         */
+        public Builder directory( File directory ) {
+            Preconditions.checkArgument(
+                    directory == null || directory.isDirectory(),
+                    "Cache directory must be an existing directory." );
+            this.directory = directory;
+            return this;
+        }
+
+        public ComposeCache build() {
+            return new ComposeCache( this );
+        }
+    }
+}
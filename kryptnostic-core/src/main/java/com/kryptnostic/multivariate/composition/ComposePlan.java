@@ -0,0 +1,103 @@
+package com.kryptnostic.multivariate.composition;
+
+import com.google.common.base.Objects;
+
+/**
+ * The strategy picked by {@link ComposePlanner} for a composition, along with the estimates it was picked on. Estimates
+ * are upper bounds that assume no cancellation, so they are most useful for telling cheap compositions from ones that
+ * can't be materialized.
+ */
+public class ComposePlan {
+    /**
+     * Ways of computing a composition.
+     */
+    public enum Strategy {
+        /**
+         * Relabels the variables of the outer function, for inner functions that are permutations.
+         */
+        RELABEL,
+        /**
+         * Expands a quadratic outer function over the products of an affine inner function.
+         */
+        QUADRATIC_AFFINE,
+        /**
+         * Expands each outer monomial as a product of inner rows, sharing common factors for higher orders.
+         */
+        EXPAND,
+        /**
+         * Expands the outer function with a {@link RecursiveLinearizingComposer}.
+         */
+        RECURSIVE_LINEARIZING,
+        /**
+         * Expands the outer function with a {@link SpillingComposer}, which keeps the products in partition files
+         * until they are merged.
+         */
+        SPILLING,
+        /**
+         * Keeps the functions as a chain that is evaluated one after the other, without materializing the composition.
+         */
+        LAZY
+    }
+
+    private final Strategy strategy;
+    private final Strategy materializedStrategy;
+    private final long     estimatedMonomials;
+    private final long     estimatedBytes;
+    private final long     estimatedWork;
+
+    public ComposePlan(
+            Strategy strategy,
+            Strategy materializedStrategy,
+            long estimatedMonomials,
+            long estimatedBytes,
+            long estimatedWork ) {
+        this.strategy = strategy;
+        this.materializedStrategy = materializedStrategy;
+        this.estimatedMonomials = estimatedMonomials;
+        this.estimatedBytes = estimatedBytes;
+        this.estimatedWork = estimatedWork;
+    }
+
+    /**
+     * @return The strategy to use, which is {@link Strategy#LAZY} when materializing would exceed the memory budget.
+     */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return The strategy to use when the composition has to be materialized, which is never {@link Strategy#LAZY}.
+     */
+    public Strategy getMaterializedStrategy() {
+        return materializedStrategy;
+    }
+
+    /**
+     * @return The estimated number of monomials in the composition.
+     */
+    public long getEstimatedMonomials() {
+        return estimatedMonomials;
+    }
+
+    /**
+     * @return The estimated peak number of bytes used to materialize the composition.
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * @return The estimated number of monomial products needed to materialize the composition, which the running time
+     *         is roughly proportional to.
+     */
+    public long getEstimatedWork() {
+        return estimatedWork;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper( this ).add( "strategy", strategy )
+                .add( "materializedStrategy", materializedStrategy ).add( "estimatedMonomials", estimatedMonomials )
+                .add( "estimatedBytes", estimatedBytes ).add( "estimatedWork", estimatedWork ).toString();
+    }
+}
@@ -0,0 +1,196 @@
+package com.kryptnostic.multivariate.composition;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.composition.ComposePlan.Strategy;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.PolynomialFunction;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.PermutationFunction;
+import com.kryptnostic.multivariate.util.CompoundPolynomialFunctions;
+
+/**
+ * Picks how to compose two functions from their shapes: the number and orders of their monomials, how many inner
+ * monomials make up each inner output and whether either side is parameterized.
+ *
+ * Each output of the inner function is a sum of r monomials on average, so an outer monomial of order k expands to at
+ * most r<sup>k</sup> monomials, and to no more than there are monomials of order up to k times the inner order. Summed
+ * over the outer monomials this bounds the size of the composition and the number of monomial products needed to
+ * compute it, from which the memory used by each strategy is estimated. Compositions whose intermediate results
+ * wouldn't fit in the memory budget are spilled to disk if the execution context has a spill directory, and those that
+ * wouldn't fit even then are planned as lazy chains.
+ */
+public class ComposePlanner {
+    /**
+     * Number of outer monomials from which compositions that aren't parameterized use a
+     * {@link RecursiveLinearizingComposer}. Smaller functions are expanded monomial by monomial, which has less setup.
+     */
+    public static final int             LINEARIZING_COMPOSE_MINIMUM = 1 << 10;
+
+    /**
+     * Approximate bytes used by each monomial and contribution of a function beyond their words.
+     */
+    private static final long           MONOMIAL_OVERHEAD           = 96L;
+
+    /**
+     * Approximate bytes used by the slots of a {@link MonomialInternTable} for each monomial beyond its words.
+     */
+    private static final long           INTERNED_OVERHEAD           = 16L;
+
+    private static final ComposePlanner defaultPlanner              = new ComposePlanner(
+                                                                            Runtime.getRuntime().maxMemory() >>> 1 );
+
+    private final long                  memoryBudget;
+
+    /**
+     * @param memoryBudget Bytes a composition may use before it is spilled to disk or planned as a lazy chain.
+     */
+    public ComposePlanner( long memoryBudget ) {
+        Preconditions.checkArgument( memoryBudget > 0, "Memory budget must be positive." );
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return A planner whose memory budget is half of the maximum heap size.
+     */
+    public static ComposePlanner getDefault() {
+        return defaultPlanner;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return The plan for composing outer with inner on the default execution context.
+     */
+    public ComposePlan plan( SimplePolynomialFunction outer, SimplePolynomialFunction inner ) {
+        return plan( outer, inner, PolynomialExecutionContext.getDefault() );
+    }
+
+    /**
+     * @return The plan for composing outer with inner on the given execution context, which is only spilled to disk if
+     *         the context has a spill directory.
+     */
+    public ComposePlan plan(
+            SimplePolynomialFunction outer,
+            SimplePolynomialFunction inner,
+            PolynomialExecutionContext context ) {
+        Preconditions.checkArgument(
+                outer.getInputLength() == inner.getOutputLength(),
+                "Input length of outer function must match output length of inner function it is being composed with" );
+        Monomial[] outerMonomials = outer.getMonomials();
+        Monomial[] innerMonomials = inner.getMonomials();
+        int variables = innerMonomials.length == 0 ? inner.getInputLength() : innerMonomials[ 0 ].size();
+        int innerOrder = Math.max( inner.getMaximumMonomialOrder(), 1 );
+        int outerOrder = outer.getMaximumMonomialOrder();
+
+        int[] orderCounts = new int[ outerOrder + 1 ];
+        for ( Monomial m : outerMonomials ) {
+            ++orderCounts[ m.cardinality() ];
+        }
+        long innerTerms = 0;
+        for ( BitVector contribution : inner.getContributions() ) {
+            innerTerms += contribution.cardinality();
+        }
+        double rowWeight = inner.getOutputLength() == 0 ? 0D : (double) innerTerms / inner.getOutputLength();
+
+        double monomials = 0D;
+        double work = 0D;
+        double prefixes = 0D;
+        for ( int k = 0; k <= outerOrder; ++k ) {
+            if ( orderCounts[ k ] != 0 ) {
+                double terms = Math.min( Math.pow( rowWeight, k ), basisSize( variables, k * innerOrder ) );
+                monomials += orderCounts[ k ] * terms;
+                for ( int j = 2; j <= k; ++j ) {
+                    work += orderCounts[ k ] * Math.min( Math.pow( rowWeight, j ), basisSize( variables, j * innerOrder ) );
+                }
+                for ( int j = 1; j < k; ++j ) {
+                    prefixes += orderCounts[ k ]
+                            * Math.min( Math.pow( rowWeight, j ), basisSize( variables, j * innerOrder ) );
+                }
+            }
+        }
+        monomials = Math.max( Math.min( monomials, basisSize( variables, outerOrder * innerOrder ) ), 1D );
+        // Products along the paths of the tree of outer monomials, which are interned along with the inner monomials.
+        prefixes = Math.min( prefixes, basisSize( variables, Math.max( outerOrder - 1, 0 ) * innerOrder ) )
+                + innerMonomials.length;
+
+        long monomialWords = Math.max( BitVectors.wordsFor( variables ), 1 );
+        long outputWords = BitVectors.wordsFor( outer.getOutputLength() );
+        double resultBytes = monomials * ( ( ( monomialWords + outputWords ) << 3 ) + ( MONOMIAL_OVERHEAD << 1 ) );
+
+        Strategy materialized;
+        double bytes;
+        if ( inner instanceof PermutationFunction && !outer.isParameterized() ) {
+            materialized = Strategy.RELABEL;
+            bytes = outerMonomials.length * ( ( ( monomialWords + outputWords ) << 3 ) + ( MONOMIAL_OVERHEAD << 1 ) );
+            work = outerMonomials.length;
+        } else if ( inner.getMaximumMonomialOrder() == 1 && outerOrder == 2 ) {
+            materialized = Strategy.QUADRATIC_AFFINE;
+            bytes = QuadraticAccumulator.size( innerMonomials.length ) * ( outputWords << 3 ) + resultBytes;
+        } else if ( !outer.isParameterized() && outerMonomials.length >= LINEARIZING_COMPOSE_MINIMUM ) {
+            materialized = Strategy.RECURSIVE_LINEARIZING;
+            /*
+             * The table of monomials and the accumulator shared by every task, which both hold a record per monomial,
+             * plus the scratch columns and touched list over the inner monomials of each running task.
+             */
+            long scratchBytes = innerMonomials.length * ( ( outputWords << 3 ) + 4L );
+            bytes = monomials * ( ( monomialWords + outputWords ) << 3 )
+                    + (double) scratchBytes * context.getParallelism() + resultBytes;
+        } else {
+            materialized = Strategy.EXPAND;
+            // A set of result monomials per outer monomial and per output, each transposed once.
+            bytes = ( outerMonomials.length + 2D * outer.getOutputLength() ) * monomials / 8D + resultBytes;
+        }
+
+        if ( bytes > memoryBudget && context.getSpillDirectory() != null && !outer.isParameterized()
+                && materialized != Strategy.RELABEL ) {
+            /*
+             * Only the composition, the records of one partition, the buffered records of the running tasks and the
+             * interned products along the paths of the tree are held in memory.
+             */
+            materialized = Strategy.SPILLING;
+            double recordBytes = monomials * ( ( monomialWords + outputWords ) << 3 );
+            bytes = resultBytes + Math.min( recordBytes, SpillingComposer.PARTITION_BYTES )
+                    + Math.min( recordBytes, SpillingComposer.BUFFER_BYTES )
+                    + prefixes * ( ( monomialWords << 3 ) + INTERNED_OVERHEAD );
+        }
+
+        Strategy strategy = bytes > memoryBudget ? Strategy.LAZY : materialized;
+        return new ComposePlan( strategy, materialized, saturate( monomials ), saturate( bytes ), saturate( work ) );
+    }
+
+    /**
+     * Composes outer with inner, materializing the composition unless it is planned as a lazy chain.
+     *
+     * @return Either the composition as a {@link SimplePolynomialFunction} or a chain that applies inner and then
+     *         outer.
+     */
+    public PolynomialFunction compose( SimplePolynomialFunction outer, SimplePolynomialFunction inner ) {
+        if ( plan( outer, inner ).getStrategy() == Strategy.LAZY ) {
+            return CompoundPolynomialFunctions.fromFunctions( inner, outer );
+        }
+        return outer.compose( inner );
+    }
+
+    /**
+     * @return The number of monomials of order at most maximumOrder in the given number of variables.
+     */
+    private static double basisSize( int variables, int maximumOrder ) {
+        double size = 1D;
+        double binomial = 1D;
+        for ( int i = 1; i <= Math.min( maximumOrder, variables ); ++i ) {
+            binomial = binomial * ( variables - i + 1 ) / i;
+            size += binomial;
+        }
+        return size;
+    }
+
+    private static long saturate( double value ) {
+        return value >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) value;
+    }
+}
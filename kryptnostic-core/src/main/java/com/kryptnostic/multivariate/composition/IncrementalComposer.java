@@ -0,0 +1,257 @@
+package com.kryptnostic.multivariate.composition;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.ParameterizedPolynomialFunctionGF2;
+
+/**
+ * Composes any number of outer functions with a fixed inner function, such as a decryptor. Composition is linear in the
+ * outer function, so each outer monomial is expanded in terms of the inner monomials once and the composition of an
+ * outer function is the sum of the expansions of its monomials, weighted by their contributions. Expansions are built
+ * from the expansion of the monomial without its highest variable, so outer functions that share monomials or their
+ * prefixes share the products that make them up.
+ *
+ * A {@link Composition} keeps a composed result that is updated as monomials are added to or removed from its outer
+ * function, or as it is moved to a different outer function, by only expanding the monomials that changed.
+ *
+ * Expansions are cached for every distinct outer monomial and prefix ever composed, and each holds a bit per monomial
+ * of the table, which itself grows with every new product. A long lived composer should be cleared with
+ * {@link #clear()} once the outer functions it composes stop sharing monomials with earlier ones.
+ */
+public class IncrementalComposer {
+    private final SimplePolynomialFunction inner;
+    private final MonomialInternTable      table;
+    private final BitVector[]              innerRows;
+    private final int                      constantIndex;
+    private final Map<Monomial, BitVector> expansions;
+
+    public IncrementalComposer( SimplePolynomialFunction inner ) {
+        this.inner = inner;
+        this.table = new MonomialInternTable(
+                RecursiveLinearizingComposer.monomialSize( inner ),
+                inner.getMonomials().length << 2 );
+        this.innerRows = RecursiveLinearizingComposer.innerRows( inner, table );
+        this.constantIndex = table.intern( Monomial.constantMonomial( table.getMonomialSize() ) );
+        this.expansions = Maps.newHashMap();
+    }
+
+    public SimplePolynomialFunction getInner() {
+        return inner;
+    }
+
+    /**
+     * @return The number of outer monomials and prefixes whose expansions are cached.
+     */
+    public synchronized int getExpansionCount() {
+        return expansions.size();
+    }
+
+    /**
+     * Drops every cached expansion, which are recomputed as they are needed again. The table of products is kept, since
+     * the compositions of this composer refer to monomials by their index in it.
+     */
+    public synchronized void clear() {
+        expansions.clear();
+    }
+
+    /**
+     * @return The composition of outer with the inner function.
+     */
+    public SimplePolynomialFunction compose( SimplePolynomialFunction outer ) {
+        return newComposition( outer ).toFunction();
+    }
+
+    /**
+     * @return A composition of outer with the inner function that can be updated as outer changes.
+     */
+    public Composition newComposition( SimplePolynomialFunction outer ) {
+        Composition composition = new Composition( outer.getOutputLength() );
+        composition.update( outer );
+        return composition;
+    }
+
+    /**
+     * @return The inner monomials, by index in the table, that the outer monomial m expands to.
+     */
+    synchronized BitVector expansionOf( Monomial m ) {
+        BitVector expansion = expansions.get( m );
+        if ( expansion != null ) {
+            return expansion;
+        }
+
+        int highest = highestVariable( m );
+        if ( highest < 0 ) {
+            expansion = new BitVector( table.size() );
+            expansion.set( constantIndex );
+        } else {
+            Monomial prefix = m.clone();
+            prefix.clear( highest );
+            if ( prefix.isZero() ) {
+                expansion = innerRows[ highest ];
+            } else {
+                expansion = table.product( expansionOf( prefix ), innerRows[ highest ] );
+            }
+        }
+        expansions.put( m.clone(), expansion );
+        return expansion;
+    }
+
+    private int highestVariable( Monomial m ) {
+        Preconditions.checkArgument(
+                m.size() == innerRows.length,
+                "Outer monomial size must equal inner output length." );
+        long[] words = m.elements();
+        for ( int i = BitVectors.wordsFor( m.size() ) - 1; i >= 0; --i ) {
+            if ( words[ i ] != 0L ) {
+                return ( i << 6 ) + 63 - Long.numberOfLeadingZeros( words[ i ] );
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The composition of an outer function with the inner function of the composer, kept as the sum of the
+     * contributions of each inner monomial. Compositions aren't safe for use by more than one thread at a time, though
+     * several compositions may share a composer.
+     */
+    public class Composition {
+        private final int                      outputLength;
+        private final int                      outputWords;
+        private final Map<Monomial, BitVector> terms;
+        private long[]                         accumulated;
+
+        private Composition( int outputLength ) {
+            this.outputLength = outputLength;
+            this.outputWords = BitVectors.wordsFor( outputLength );
+            this.terms = Maps.newHashMap();
+            this.accumulated = new long[ Math.max( table.size(), 64 ) * outputWords ];
+        }
+
+        /**
+         * Adds contribution to the outer monomial m. Since contributions are added over GF(2), adding the contribution
+         * a monomial already has removes it.
+         */
+        public void add( Monomial m, BitVector contribution ) {
+            Preconditions.checkArgument(
+                    contribution.size() == outputLength,
+                    "Contribution length must equal output length of composition." );
+            BitVector current = terms.get( m );
+            if ( current == null ) {
+                terms.put( m.clone(), contribution.copy() );
+            } else {
+                current.xor( contribution );
+                if ( current.cardinality() == 0 ) {
+                    terms.remove( m );
+                }
+            }
+            accumulate( expansionOf( m ), contribution.elements() );
+        }
+
+        /**
+         * Removes the outer monomial m, along with its contribution.
+         */
+        public void remove( Monomial m ) {
+            BitVector current = terms.get( m );
+            if ( current != null ) {
+                add( m, current.copy() );
+            }
+        }
+
+        /**
+         * Moves this composition to outer, only expanding the monomials whose contributions differ from the current
+         * outer function.
+         */
+        public void update( SimplePolynomialFunction outer ) {
+            Preconditions.checkArgument( !outer.isParameterized(), "Outer function cannot be parameterized." );
+            Preconditions.checkArgument(
+                    outer.getOutputLength() == outputLength,
+                    "Output length of outer function must equal output length of composition." );
+            Map<Monomial, BitVector> delta = Maps.newHashMap();
+            for ( Entry<Monomial, BitVector> term : terms.entrySet() ) {
+                delta.put( term.getKey(), term.getValue().copy() );
+            }
+            Monomial[] monomials = outer.getMonomials();
+            BitVector[] contributions = outer.getContributions();
+            for ( int i = 0; i < monomials.length; ++i ) {
+                BitVector difference = delta.get( monomials[ i ] );
+                if ( difference == null ) {
+                    delta.put( monomials[ i ], contributions[ i ].copy() );
+                } else {
+                    difference.xor( contributions[ i ] );
+                }
+            }
+            for ( Entry<Monomial, BitVector> term : delta.entrySet() ) {
+                if ( term.getValue().cardinality() != 0 ) {
+                    add( term.getKey(), term.getValue() );
+                }
+            }
+        }
+
+        /**
+         * @return The composed function, which keeps the pipelines of the inner function if it is parameterized.
+         */
+        public SimplePolynomialFunction toFunction() {
+            List<Monomial> monomials = Lists.newArrayList();
+            List<BitVector> contributions = Lists.newArrayList();
+            int count = Math.min( table.size(), accumulated.length / outputWords );
+            for ( int index = 0; index < count; ++index ) {
+                int offset = index * outputWords;
+                boolean zero = true;
+                for ( int i = 0; i < outputWords && zero; ++i ) {
+                    zero = accumulated[ offset + i ] == 0L;
+                }
+                if ( !zero ) {
+                    monomials.add( table.get( index ) );
+                    contributions.add( new BitVector(
+                            Arrays.copyOfRange( accumulated, offset, offset + outputWords ),
+                            outputLength ) );
+                }
+            }
+
+            if ( inner.isParameterized() ) {
+                return new ParameterizedPolynomialFunctionGF2(
+                        inner.getInputLength(),
+                        outputLength,
+                        monomials.toArray( new Monomial[ 0 ] ),
+                        contributions.toArray( new BitVector[ 0 ] ),
+                        ( (ParameterizedPolynomialFunctionGF2) inner ).getPipelines() );
+            }
+            return new BasePolynomialFunction(
+                    inner.getInputLength(),
+                    outputLength,
+                    monomials.toArray( new Monomial[ 0 ] ),
+                    contributions.toArray( new BitVector[ 0 ] ) );
+        }
+
+        private void accumulate( BitVector expansion, long[] contribution ) {
+            long[] words = expansion.elements();
+            for ( int w = 0; w < BitVectors.wordsFor( expansion.size() ); ++w ) {
+                long word = words[ w ];
+                while ( word != 0L ) {
+                    int offset = ( ( w << 6 ) + Long.numberOfTrailingZeros( word ) ) * outputWords;
+                    if ( offset + outputWords > accumulated.length ) {
+                        accumulated = Arrays.copyOf(
+                                accumulated,
+                                Math.max( accumulated.length << 1, offset + outputWords ) );
+                    }
+                    for ( int i = 0; i < outputWords; ++i ) {
+                        accumulated[ offset + i ] ^= contribution[ i ];
+                    }
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+}
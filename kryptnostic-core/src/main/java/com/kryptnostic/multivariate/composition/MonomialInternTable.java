@@ -0,0 +1,328 @@
+package com.kryptnostic.multivariate.composition;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Assigns dense int indices to monomials of a fixed size, for use by threads expanding monomials concurrently during
+ * compose. Monomials are stored as packed words in an append-only store made of fixed size chunks, and looked up
+ * through an open addressing table of indices keyed by a hash of those words, so lookups take no locks and never box
+ * indices.
+ *
+ * A thread inserting a monomial claims an empty slot with a CAS, appends the monomial to the store and then publishes
+ * its index in the slot. Threads that reach a claimed slot wait for the index to be published, which only takes a few
+ * stores. When the table fills up it is grown by the thread whose insert crossed the threshold, which marks every empty
+ * slot of the old table as moved so that other inserts wait for the new table instead of racing with the copy. Indices
+ * never change, since they refer to the store and not to the table.
+ *
+ * The directory of chunks starts out sized for the expected number of monomials and is doubled under a lock when an
+ * append needs a chunk past its end. Chunks are only created under the same lock, so a chunk is never lost to a
+ * directory that is being copied. Monomials of size 0 take no words, so the table holds at most the one empty monomial.
+ */
+public class MonomialInternTable {
+    private static final int                      CHUNK_BITS = 12;
+    private static final int                      CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int                      CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int                      MAX_CHUNKS = 1 << 16;
+
+    private static final int                      EMPTY      = 0;
+    private static final int                      CLAIMED    = -1;
+    private static final int                      MOVED      = -2;
+
+    private final int                             monomialSize;
+    private final int                             words;
+    private final Object                          chunkLock  = new Object();
+    private final AtomicInteger                   size;
+    private volatile AtomicReferenceArray<long[]> chunks;
+    private volatile Table                        table;
+
+    /**
+     * @param monomialSize The size of the monomials being interned.
+     * @param expectedSize The number of monomials the table is sized for before it has to grow.
+     */
+    public MonomialInternTable( int monomialSize, int expectedSize ) {
+        Preconditions.checkArgument( monomialSize >= 0, "Monomial size cannot be negative." );
+        this.monomialSize = monomialSize;
+        this.words = BitVectors.wordsFor( monomialSize );
+        this.chunks = new AtomicReferenceArray<long[]>( Math.min(
+                Integer.highestOneBit( ( Math.max( expectedSize, 0 ) >>> CHUNK_BITS ) + 1 ) << 1,
+                MAX_CHUNKS ) );
+        this.size = new AtomicInteger();
+        this.table = new Table( Integer.highestOneBit( Math.min( Math.max( expectedSize, 8 ), 1 << 27 ) ) << 2 );
+    }
+
+    /**
+     * @return The number of monomials interned so far.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return The size of the monomials in the table.
+     */
+    public int getMonomialSize() {
+        return monomialSize;
+    }
+
+    /**
+     * @return The index of m, adding it to the table if it isn't there already.
+     */
+    public int intern( Monomial m ) {
+        Preconditions.checkArgument( m.size() == monomialSize, "Monomial must be the same size as the table." );
+        return intern( m.elements() );
+    }
+
+    /**
+     * @param key Packed words of a monomial, of which only the words covering the monomial size are read.
+     * @return The index of the monomial, adding it to the table if it isn't there already.
+     */
+    public int intern( long[] key ) {
+        return find( key, true );
+    }
+
+    /**
+     * @return The index of m, or -1 if it hasn't been interned.
+     */
+    public int indexOf( Monomial m ) {
+        Preconditions.checkArgument( m.size() == monomialSize, "Monomial must be the same size as the table." );
+        return find( m.elements(), false );
+    }
+
+    /**
+     * Ors the words of the monomial at an index into a buffer, which computes products of monomials.
+     */
+    public void orInto( int index, long[] destination ) {
+        long[] chunk = chunks.get( index >>> CHUNK_BITS );
+        int offset = ( index & CHUNK_MASK ) * words;
+        for ( int i = 0; i < words; ++i ) {
+            destination[ i ] |= chunk[ offset + i ];
+        }
+    }
+
+    /**
+     * @return A new monomial equal to the one at the index.
+     */
+    public Monomial get( int index ) {
+        Preconditions.checkElementIndex( index, size.get(), "Monomial index" );
+        long[] chunk = chunks.get( index >>> CHUNK_BITS );
+        int offset = ( index & CHUNK_MASK ) * words;
+        return new Monomial( Arrays.copyOfRange( chunk, offset, offset + words ), monomialSize );
+    }
+
+    /**
+     * @return The interned monomials, in order of their indices.
+     */
+    public List<Monomial> toList() {
+        int count = size.get();
+        List<Monomial> monomials = Lists.newArrayListWithCapacity( count );
+        for ( int i = 0; i < count; ++i ) {
+            monomials.add( get( i ) );
+        }
+        return monomials;
+    }
+
+    /**
+     * Multiplies two polynomials given as sets of monomials of this table, interning any new products. Monomials that
+     * come up an even number of times cancel.
+     *
+     * @param lhs Set of monomials of the left factor, by index.
+     * @param rhs Set of monomials of the right factor, by index.
+     * @return Set of monomials of the product, by index, sized to the table after the product.
+     */
+    public BitVector product( BitVector lhs, BitVector rhs ) {
+        long[] lhsMonomial = new long[ words ];
+        long[] key = new long[ words ];
+        long[] result = new long[ BitVectors.wordsFor( size() ) + 1 ];
+        long[] lhsWords = lhs.elements();
+        long[] rhsWords = rhs.elements();
+        int rhsWordCount = BitVectors.wordsFor( rhs.size() );
+        for ( int i = 0; i < BitVectors.wordsFor( lhs.size() ); ++i ) {
+            long lhsWord = lhsWords[ i ];
+            while ( lhsWord != 0L ) {
+                Arrays.fill( lhsMonomial, 0L );
+                orInto( ( i << 6 ) + Long.numberOfTrailingZeros( lhsWord ), lhsMonomial );
+                for ( int j = 0; j < rhsWordCount; ++j ) {
+                    long rhsWord = rhsWords[ j ];
+                    while ( rhsWord != 0L ) {
+                        System.arraycopy( lhsMonomial, 0, key, 0, words );
+                        orInto( ( j << 6 ) + Long.numberOfTrailingZeros( rhsWord ), key );
+                        int index = intern( key );
+                        if ( ( index >>> 6 ) >= result.length ) {
+                            result = Arrays.copyOf( result, Math.max( result.length << 1, ( index >>> 6 ) + 1 ) );
+                        }
+                        result[ index >>> 6 ] ^= 1L << index;
+                        rhsWord &= rhsWord - 1;
+                    }
+                }
+                lhsWord &= lhsWord - 1;
+            }
+        }
+        /*
+         * Every index in the result was interned before this point, so the current size of the table covers all of them.
+         */
+        int count = size();
+        if ( result.length < BitVectors.wordsFor( count ) ) {
+            result = Arrays.copyOf( result, BitVectors.wordsFor( count ) );
+        }
+        return new BitVector( result, count );
+    }
+
+    private int find( long[] key, boolean insert ) {
+        int hash = hash( key );
+        while ( true ) {
+            Table current = table;
+            int mask = current.slots.length() - 1;
+            int position = hash & mask;
+            boolean moved = false;
+            while ( !moved ) {
+                int slot = current.slots.get( position );
+                if ( slot == EMPTY ) {
+                    if ( !insert ) {
+                        return -1;
+                    }
+                    if ( current.slots.compareAndSet( position, EMPTY, CLAIMED ) ) {
+                        int index = append( key );
+                        current.slots.set( position, index + 1 );
+                        if ( index >= current.threshold && current.growing.compareAndSet( false, true ) ) {
+                            grow( current );
+                        }
+                        return index;
+                    }
+                } else if ( slot == CLAIMED ) {
+                    Thread.yield();
+                } else if ( slot == MOVED ) {
+                    while ( table == current ) {
+                        Thread.yield();
+                    }
+                    moved = true;
+                } else if ( matches( slot - 1, key ) ) {
+                    return slot - 1;
+                } else {
+                    position = ( position + 1 ) & mask;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the next index and writes the key into the store. The index only becomes visible to other threads once it
+     * is published in a slot, after the words have been written.
+     */
+    private int append( long[] key ) {
+        int index = size.getAndIncrement();
+        int chunkIndex = index >>> CHUNK_BITS;
+        AtomicReferenceArray<long[]> directory = chunks;
+        long[] chunk = chunkIndex < directory.length() ? directory.get( chunkIndex ) : null;
+        if ( chunk == null ) {
+            chunk = createChunk( chunkIndex );
+        }
+        System.arraycopy( key, 0, chunk, ( index & CHUNK_MASK ) * words, words );
+        return index;
+    }
+
+    /**
+     * @return The chunk at an index of the directory, doubling the directory until it covers the index and creating
+     *         the chunk if no other thread has.
+     */
+    private long[] createChunk( int chunkIndex ) {
+        Preconditions.checkState( chunkIndex < MAX_CHUNKS, "Monomial intern table is full." );
+        synchronized ( chunkLock ) {
+            AtomicReferenceArray<long[]> directory = chunks;
+            if ( chunkIndex >= directory.length() ) {
+                int length = directory.length();
+                while ( length <= chunkIndex ) {
+                    length <<= 1;
+                }
+                AtomicReferenceArray<long[]> grown = new AtomicReferenceArray<long[]>( Math.min( length, MAX_CHUNKS ) );
+                for ( int i = 0; i < directory.length(); ++i ) {
+                    grown.set( i, directory.get( i ) );
+                }
+                chunks = directory = grown;
+            }
+            long[] chunk = directory.get( chunkIndex );
+            if ( chunk == null ) {
+                chunk = new long[ CHUNK_SIZE * words ];
+                directory.set( chunkIndex, chunk );
+            }
+            return chunk;
+        }
+    }
+
+    private boolean matches( int index, long[] key ) {
+        long[] chunk = chunks.get( index >>> CHUNK_BITS );
+        int offset = ( index & CHUNK_MASK ) * words;
+        for ( int i = 0; i < words; ++i ) {
+            if ( chunk[ offset + i ] != key[ i ] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies every published index into a table twice the size. Empty slots of the old table are marked as moved so no
+     * new index can be published in it, and claimed slots are waited on until their index is published.
+     */
+    private void grow( Table old ) {
+        Table next = new Table( old.slots.length() << 1 );
+        int mask = next.slots.length() - 1;
+        for ( int i = 0; i < old.slots.length(); ++i ) {
+            int slot;
+            while ( ( slot = old.slots.get( i ) ) == CLAIMED
+                    || ( slot == EMPTY && !old.slots.compareAndSet( i, EMPTY, MOVED ) ) ) {
+                Thread.yield();
+            }
+            if ( slot > 0 ) {
+                int position = hashAt( slot - 1 ) & mask;
+                while ( next.slots.get( position ) != EMPTY ) {
+                    position = ( position + 1 ) & mask;
+                }
+                next.slots.set( position, slot );
+                old.slots.set( i, MOVED );
+            }
+        }
+        table = next;
+    }
+
+    private int hashAt( int index ) {
+        long[] chunk = chunks.get( index >>> CHUNK_BITS );
+        return hash( chunk, ( index & CHUNK_MASK ) * words );
+    }
+
+    private int hash( long[] key ) {
+        return hash( key, 0 );
+    }
+
+    private int hash( long[] key, int offset ) {
+        long h = 0x9E3779B97F4A7C15L;
+        for ( int i = 0; i < words; ++i ) {
+            h = ( h ^ key[ offset + i ] ) * 0xC2B2AE3D27D4EB4FL;
+            h ^= h >>> 29;
+        }
+        h ^= h >>> 32;
+        return (int) h;
+    }
+
+    private static class Table {
+        private final AtomicIntegerArray slots;
+        private final int                threshold;
+        private final AtomicBoolean      growing = new AtomicBoolean();
+
+        public Table( int capacity ) {
+            this.slots = new AtomicIntegerArray( capacity );
+            this.threshold = capacity >>> 1;
+        }
+    }
+}
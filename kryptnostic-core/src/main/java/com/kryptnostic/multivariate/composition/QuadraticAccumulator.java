@@ -0,0 +1,142 @@
+package com.kryptnostic.multivariate.composition;
+
+import java.util.Arrays;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.OptimizedPolynomialFunctionGF2;
+
+/**
+ * Accumulates the contributions of a function of order at most 2 in the basis {1, x<sub>i</sub>,
+ * x<sub>i</sub>x<sub>j</sub>}. Contributions are added into a dense array indexed by the position of each monomial in
+ * that basis, so accumulating a product costs a few word XORs instead of building and hashing a {@link Monomial}, and
+ * monomials are only built once when the function is produced.
+ *
+ * Variables are numbered 0 to variables - 1, and the index variables stands for the constant 1, so that products with
+ * the constant of an affine function can be added the same way as products of variables.
+ */
+public class QuadraticAccumulator {
+    private final int    variables;
+    private final int    outputLength;
+    private final int    words;
+    private final long[] accumulated;
+
+    /**
+     * @param variables The input length of the accumulated function.
+     * @param outputLength The length of the contributions.
+     */
+    public QuadraticAccumulator( int variables, int outputLength ) {
+        Preconditions.checkArgument( variables >= 0, "Number of variables cannot be negative." );
+        this.variables = variables;
+        this.outputLength = outputLength;
+        this.words = BitVectors.wordsFor( outputLength );
+        this.accumulated = new long[ size( variables ) * words ];
+    }
+
+    /**
+     * @return The number of monomials in the basis for the given number of variables.
+     */
+    public static int size( int variables ) {
+        return 1 + variables + ( ( variables * ( variables - 1 ) ) >>> 1 );
+    }
+
+    /**
+     * @return The position in the basis of the product of x<sub>j</sub> and x<sub>k</sub>, where the index variables
+     *         stands for the constant.
+     */
+    public int index( int j, int k ) {
+        int lo = Math.min( j, k );
+        int hi = Math.max( j, k );
+        if ( lo == variables ) {
+            return 0;
+        }
+        if ( lo == hi || hi == variables ) {
+            return 1 + lo;
+        }
+        return 1 + variables + ( ( hi * ( hi - 1 ) ) >>> 1 ) + lo;
+    }
+
+    /**
+     * Adds a contribution to the product of x<sub>j</sub> and x<sub>k</sub>.
+     *
+     * @param j Variable index, or the number of variables for the constant.
+     * @param k Variable index, or the number of variables for the constant.
+     * @param contribution Words of the contribution to add.
+     */
+    public void add( int j, int k, long[] contribution ) {
+        int offset = index( j, k ) * words;
+        for ( int i = 0; i < words; ++i ) {
+            accumulated[ offset + i ] ^= contribution[ i ];
+        }
+    }
+
+    /**
+     * Adds a contribution to the constant monomial.
+     */
+    public void addConstant( BitVector contribution ) {
+        add( variables, variables, contribution.elements() );
+    }
+
+    /**
+     * @return The accumulated function, with a monomial for each non-zero contribution.
+     */
+    public SimplePolynomialFunction toFunction() {
+        int count = 0;
+        int size = size( variables );
+        for ( int index = 0; index < size; ++index ) {
+            if ( !isZero( index ) ) {
+                ++count;
+            }
+        }
+
+        Monomial[] monomials = new Monomial[ Math.max( count, 1 ) ];
+        BitVector[] contributions = new BitVector[ monomials.length ];
+        if ( count == 0 ) {
+            monomials[ 0 ] = Monomial.constantMonomial( variables );
+            contributions[ 0 ] = new BitVector( outputLength );
+        }
+
+        int next = 0;
+        int index = 0;
+        if ( !isZero( index ) ) {
+            monomials[ next ] = Monomial.constantMonomial( variables );
+            contributions[ next++ ] = contribution( index );
+        }
+        for ( int i = 0; i < variables; ++i ) {
+            if ( !isZero( ++index ) ) {
+                monomials[ next ] = Monomial.linearMonomial( variables, i );
+                contributions[ next++ ] = contribution( index );
+            }
+        }
+        for ( int hi = 1; hi < variables; ++hi ) {
+            for ( int lo = 0; lo < hi; ++lo ) {
+                if ( !isZero( ++index ) ) {
+                    Monomial m = Monomial.linearMonomial( variables, lo );
+                    m.set( hi );
+                    monomials[ next ] = m;
+                    contributions[ next++ ] = contribution( index );
+                }
+            }
+        }
+        return new OptimizedPolynomialFunctionGF2( variables, outputLength, monomials, contributions );
+    }
+
+    private boolean isZero( int index ) {
+        int offset = index * words;
+        for ( int i = 0; i < words; ++i ) {
+            if ( accumulated[ offset + i ] != 0L ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private BitVector contribution( int index ) {
+        int offset = index * words;
+        return new BitVector( Arrays.copyOfRange( accumulated, offset, offset + words ), outputLength );
+    }
+}
@@ -2,76 +2,157 @@ package com.kryptnostic.multivariate.composition;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
 
 import cern.colt.bitvector.BitVector;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.kryptnostic.linear.EnhancedBitMatrix;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
 import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
-import com.kryptnostic.multivariate.polynomial.OptimizedPolynomialFunctionGF2;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.ParameterizedPolynomialFunctionGF2;
 
+/**
+ * Composes a fixed outer function with any inner function by recursively linearizing the outer function. The outer
+ * monomials are bucketed into a {@link RecursiveLinearizingComposerTree} once, and each compose expands the tree
+ * against the rows of the inner function, with heavy subtrees expanded as separate fork join tasks that all xor
+ * into one shared accumulator.
+ */
 public class RecursiveLinearizingComposer extends RecursiveLinearizingComposerTree {
-    private BitVector constantContribution;
-    
-    public RecursiveLinearizingComposer(SimplePolynomialFunction outer ) {
-        super( 0 , outer.getInputLength() , initializeTreeFromOuter( outer ) );
-        Monomial [] monomials = outer.getMonomials();
-        BitVector [] contributions = outer.getContributions();
-        
-        for (int i = 0; i < monomials.length; ++i) {
-            this.bucket( monomials[i].clone() , contributions[i].copy() );
+    protected final int outputLength;
+    private BitVector   constantContribution;
+
+    public RecursiveLinearizingComposer( SimplePolynomialFunction outer ) {
+        super( 0, outer.getInputLength() );
+        this.outputLength = outer.getOutputLength();
+        Monomial[] monomials = outer.getMonomials();
+        BitVector[] contributions = outer.getContributions();
+
+        for ( int i = 0; i < monomials.length; ++i ) {
+            bucket( monomials[ i ].clone(), contributions[ i ] );
         }
     }
-    
+
     @Override
-    public void bucket(Monomial m, BitVector contribution) {
-        if( m.isZero() ) {
-            constantContribution = contribution;
+    public void bucket( Monomial m, BitVector contribution ) {
+        if ( m.isZero() ) {
+            if ( constantContribution == null ) {
+                constantContribution = contribution.copy();
+            } else {
+                constantContribution.xor( contribution );
+            }
         } else {
-            super.bucket( m , contribution );
+            super.bucket( m, contribution );
         }
     }
 
     public SimplePolynomialFunction compose( SimplePolynomialFunction inner ) {
-        Preconditions.checkArgument(outerInputLength == inner.getOutputLength() , "Outer input length must equal inner output length" );
-        List<SimplePolynomialFunction> pieces = evaluate( null , Arrays.asList( inner.getMonomials() ), Lists.newArrayList( inner.getMonomials() ), rowContributions( inner ) , indices( inner.getMonomials() ) );
-        SimplePolynomialFunction result = null;
-        for( SimplePolynomialFunction piece : pieces ) {
-            if( result == null ) { 
-                result = piece;
-            } else {
-                result = piece.xor( result );
-            }
+        return compose( inner, PolynomialExecutionContext.getDefault() );
+    }
+
+    /**
+     * Composes the outer function with inner, running the expansion on the fork join pool of the context.
+     *
+     * @param inner The function whose output is the input of the outer function.
+     * @param context Context to run parallel work on.
+     * @return The composed function.
+     */
+    public SimplePolynomialFunction compose( SimplePolynomialFunction inner, PolynomialExecutionContext context ) {
+        Preconditions.checkArgument(
+                outerInputLength == inner.getOutputLength(),
+                "Outer input length must equal inner output length" );
+        int monomialSize = monomialSize( inner );
+        MonomialInternTable table = new MonomialInternTable( monomialSize, Math.max(
+                inner.getMonomials().length,
+                getWeight() ) << 2 );
+        Expansion expansion = new Expansion(
+                table,
+                innerRows( inner, table ),
+                table.size(),
+                outputLength );
+
+        Accumulator accumulator = (Accumulator) expand( expansion, context.getForkJoinPool() );
+        if ( constantContribution != null ) {
+            accumulator.add( Monomial.constantMonomial( monomialSize ).elements(), constantContribution.elements(), 0 );
         }
-        if( constantContribution!=null ) {
-            result = result.xor( getConstantFunction( inner.getInputLength() ) );
+
+        int count = table.size();
+        List<Monomial> monomials = Lists.newArrayList();
+        List<BitVector> contributions = Lists.newArrayList();
+        for ( int i = 0; i < count; ++i ) {
+            long[] contribution = accumulator.get( i );
+            if ( contribution != null ) {
+                monomials.add( table.get( i ) );
+                contributions.add( new BitVector( contribution, outputLength ) );
+            }
         }
-        return result;
+
+        return createFunction( inner, monomials, contributions );
     }
-    
-    public SimplePolynomialFunction getConstantFunction( int innerInputLength) {
-        return new OptimizedPolynomialFunctionGF2( innerInputLength, constantContribution.size() , new Monomial[] { Monomial.constantMonomial( innerInputLength ) } , new BitVector[] { constantContribution } );
+
+    /**
+     * @return The xor of the contributions of the constant outer monomials, or null if there are none.
+     */
+    protected BitVector getConstantContribution() {
+        return constantContribution;
     }
-    
-    private static ConcurrentMap<Monomial,Integer> indices( Monomial[] innerMonomials ) {
-        ConcurrentMap<Monomial, Integer> indices = Maps.newConcurrentMap();
-        
-        for (int i = 0; i < innerMonomials.length; ++i) {
-            indices.put( innerMonomials[i] , i );
-        }
-        
-        return indices;
+
+    /**
+     * @return The size of the monomials of inner, which for parameterized functions includes their pipeline outputs.
+     */
+    protected static int monomialSize( SimplePolynomialFunction inner ) {
+        Monomial[] innerMonomials = inner.getMonomials();
+        return innerMonomials.length == 0 ? inner.getInputLength() : innerMonomials[ 0 ].size();
     }
-    
-    private static List<BitVector> rowContributions( SimplePolynomialFunction inner ) {
-        return new EnhancedBitMatrix( Arrays.asList( inner.getContributions() ) ).transpose().getRows();
+
+    /**
+     * @return The composed function with the given monomials, which keeps the pipelines of inner if it is
+     *         parameterized.
+     */
+    protected SimplePolynomialFunction createFunction(
+            SimplePolynomialFunction inner,
+            List<Monomial> monomials,
+            List<BitVector> contributions ) {
+        if ( inner.isParameterized() ) {
+            return new ParameterizedPolynomialFunctionGF2(
+                    inner.getInputLength(),
+                    outputLength,
+                    monomials.toArray( new Monomial[ 0 ] ),
+                    contributions.toArray( new BitVector[ 0 ] ),
+                    ( (ParameterizedPolynomialFunctionGF2) inner ).getPipelines() );
+        }
+        return new BasePolynomialFunction(
+                inner.getInputLength(),
+                outputLength,
+                monomials.toArray( new Monomial[ 0 ] ),
+                contributions.toArray( new BitVector[ 0 ] ) );
     }
 
-    private static RecursiveLinearizingComposerTree[] initializeTreeFromOuter( SimplePolynomialFunction outer ) {
-        return new RecursiveLinearizingComposerTree[ outer.getInputLength() ];
+    /**
+     * Interns the inner monomials and returns the inner monomials making up each output of inner, by index in the
+     * table. Inner monomials that appear more than once share an index, so their contributions are added.
+     */
+    protected static BitVector[] innerRows( SimplePolynomialFunction inner, MonomialInternTable table ) {
+        Monomial[] innerMonomials = inner.getMonomials();
+        int[] positions = new int[ innerMonomials.length ];
+        for ( int i = 0; i < innerMonomials.length; ++i ) {
+            positions[ i ] = table.intern( innerMonomials[ i ] );
+        }
+        List<BitVector> columns = Lists.newArrayList( Arrays.asList( inner.getContributions() ) );
+        EnhancedBitMatrix.transpose( columns, inner.getOutputLength() );
+
+        BitVector[] rows = new BitVector[ inner.getOutputLength() ];
+        for ( int i = 0; i < rows.length; ++i ) {
+            rows[ i ] = new BitVector( table.size() );
+            BitVector row = columns.get( i );
+            for ( int j = 0; j < positions.length; ++j ) {
+                if ( row.getQuick( j ) ) {
+                    rows[ i ].putQuick( positions[ j ], !rows[ i ].getQuick( positions[ j ] ) );
+                }
+            }
+        }
+        return rows;
     }
 }
@@ -2,186 +2,458 @@ package com.kryptnostic.multivariate.composition;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import cern.colt.bitvector.BitVector;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.kryptnostic.linear.EnhancedBitMatrix;
+import com.kryptnostic.bitwise.BitVectors;
 import com.kryptnostic.multivariate.gf2.Monomial;
-import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
-import com.kryptnostic.multivariate.polynomial.OptimizedPolynomialFunctionGF2;
 
+/**
+ * Node of the tree of outer monomials used by {@link RecursiveLinearizingComposer}. Each node stands for the product of
+ * the variables on its path from the root, and holds the outer monomials that are that product times one more variable
+ * as linear terms. Children extend the product with variables past the last one on the path, so each outer monomial
+ * is held by exactly one node.
+ *
+ * A node is expanded by adding the inner rows of its linear terms weighted by their outer contributions and then
+ * multiplying the sum by the product of the path, which takes one product per inner monomial instead of one product of
+ * inner rows per outer monomial.
+ */
 public class RecursiveLinearizingComposerTree {
-    //TODO: Fix for non-MVQ( linear ) compose (i.e general) 
+    /**
+     * Estimated number of monomial products in a subtree above which it is expanded as a separate fork join task.
+     */
+    public static final int                            FORK_PRODUCTS = 1 << 14;
+
     private final int                                  minBucket;
-    private final EnhancedBitMatrix                    outerCols;
-    private final BitVector                            innerSelector;
+    private final BitVector[]                          linearContributions;
     protected final RecursiveLinearizingComposerTree[] buckets;
-    protected final int                                  outerInputLength;
+    protected final int                                outerInputLength;
+    private int                                        weight;
 
-    public RecursiveLinearizingComposerTree(final int minBucket, final int outerInputLength,
-            final RecursiveLinearizingComposerTree[] buckets) {
+    /**
+     * @param minBucket The smallest variable that can extend the product of this node.
+     * @param outerInputLength The input length of the outer function.
+     */
+    public RecursiveLinearizingComposerTree( int minBucket, int outerInputLength ) {
         this.minBucket = minBucket;
-        this.buckets = buckets;
-        this.outerCols = new EnhancedBitMatrix( 0 , 0 );
-        this.innerSelector = new BitVector( outerInputLength );
         this.outerInputLength = outerInputLength;
+        this.linearContributions = new BitVector[ outerInputLength - minBucket ];
+        this.buckets = new RecursiveLinearizingComposerTree[ outerInputLength - minBucket ];
     }
 
-    public List<SimplePolynomialFunction> evaluate(BitVector result, List<Monomial> fixedMonomials, List<Monomial> growingMonomials, 
-            List<BitVector> innerRows, ConcurrentMap<Monomial, Integer> indices) {
-        List<SimplePolynomialFunction> results = Lists.newArrayList();
-        // TODO: Don't go through every bucket if none exist.
-        for (int i = 0; i < buckets.length; ++i) {
-            RecursiveLinearizingComposerTree b = buckets[i];
-            // If the bucket exists, then lets do the product and recursively evaluate
-            if (b != null) {
-                BitVector nextResult = product( result , innerRows.get( i + minBucket ) , growingMonomials , indices );
-                results.addAll( b.evaluate( nextResult , fixedMonomials , growingMonomials, innerRows , indices ) );
-            }
-        }
-        if( innerSelector.cardinality() == 0 ) {
-            return results;
-        }
-        // For every row in the resulting set of monomial contributions product it with the result computed so far.
-        EnhancedBitMatrix innerContributionMatrix = outerCols.transpose().multiply( select( innerRows ) );
-
-        EnhancedBitMatrix lhs = null;
-        if (result != null) {
-            BitVector[] tRows = new BitVector[innerContributionMatrix.cols()];
-            Arrays.fill( tRows , result );
-            lhs = new EnhancedBitMatrix( Arrays.asList( tRows ) ).transpose();
-        }
-
-        SimplePolynomialFunction f = new OptimizedPolynomialFunctionGF2( fixedMonomials.get( 0 ).size() ,
-                innerContributionMatrix.rows() , fixedMonomials.toArray( new Monomial[0] ) , innerContributionMatrix
-                        .transpose().getRows().toArray( new BitVector[0] ) );
-        if (lhs != null) {
-            SimplePolynomialFunction g = new OptimizedPolynomialFunctionGF2( f.getInputLength() , f.getOutputLength() ,
-                    Arrays.copyOf( growingMonomials.toArray( new Monomial[0] ) , result.size() ), lhs.getRows().toArray( new BitVector[0] ) );
-            results.add( f.and( g ) );
+    /**
+     * Adds an outer monomial to the subtree. The monomial is consumed in the process.
+     *
+     * @param m A monomial whose variables are all at least the min bucket of this node.
+     * @param contribution The outer contribution of the monomial.
+     */
+    public void bucket( Monomial m, BitVector contribution ) {
+        int i = nextSetBit( m, minBucket );
+        Preconditions.checkArgument( i >= 0, "Monomial must have a variable past the product of this node." );
+        m.clear( i );
+        ++weight;
+        if ( m.isZero() ) {
+            BitVector existing = linearContributions[ i - minBucket ];
+            if ( existing == null ) {
+                linearContributions[ i - minBucket ] = contribution.copy();
+            } else {
+                existing.xor( contribution );
+            }
         } else {
-            results.add( f );
+            RecursiveLinearizingComposerTree b = buckets[ i - minBucket ];
+            if ( b == null ) {
+                b = buckets[ i - minBucket ] = new RecursiveLinearizingComposerTree( i + 1, outerInputLength );
+            }
+            b.bucket( m, contribution );
         }
+    }
 
-        return results;
+    /**
+     * @return The number of outer monomials in this subtree.
+     */
+    public int getWeight() {
+        return weight;
     }
 
-    public void bucket(final Monomial m, final BitVector contribution) {
-        for (int i = minBucket; i < m.size(); ++i) {
-            if (m.get( i )) {
-                m.clear( i );
-                if (m.isZero()) {
-                    outerCols.addRow( contribution );
-                    innerSelector.set( i );
-                } else {
-                    RecursiveLinearizingComposerTree b = buckets[i - minBucket];
-                    if (b == null) {
-                        b = buckets[i - minBucket] = new RecursiveLinearizingComposerTree( minBucket + 1 ,
-                                outerInputLength , new RecursiveLinearizingComposerTree[buckets.length - 1] );
-                    }
-                    b.bucket( m , contribution );
-                }
+    /**
+     * Expands this subtree on the calling thread.
+     *
+     * @param prefix The product of the path to this node, by index in the table, or null for the root.
+     * @param expansion Shared state of the compose.
+     * @param scratch Buffers of the calling task.
+     * @param accumulator Sink receiving the contributions of the expanded monomials.
+     */
+    protected void expandInto( BitVector prefix, Expansion expansion, Scratch scratch, ContributionSink accumulator ) {
+        expandLinear( prefix, expansion, scratch, accumulator );
+        for ( int i = 0; i < buckets.length; ++i ) {
+            if ( buckets[ i ] != null ) {
+                buckets[ i ].expandInto(
+                        expansion.extend( prefix, i + minBucket ),
+                        expansion,
+                        scratch,
+                        accumulator );
             }
         }
     }
-    
-    public BitVector product(BitVector lhs, BitVector rhs, List<Monomial> monomials,
-            ConcurrentMap<Monomial, Integer> indices) {
-        if( lhs == null ) {
-            return rhs;
-        }
-        BitVector result = new BitVector( monomials.size() );
-        for (int i = 0; i < lhs.size(); ++i) {
-            if (lhs.getQuick( i )) {
-                for (int j = 0; j < rhs.size(); ++j) {
-                    if (rhs.getQuick( j )) {
-                        Monomial p = monomials.get( i ).product( monomials.get( j ) );
-
-                        Integer indexObj = indices.get( p );
-                        int index;
-                        if (indexObj == null) {
-                            index = monomials.size();
-                            indexObj = indices.putIfAbsent( p , index );
-                            if (indexObj == null) {
-                                monomials.add( p );
-                                result.setSize( index + 1 );
-                                indexObj = index;
-                            }
-                        }
-
-                        if (result.getQuick( indexObj )) {
-                            result.clear( indexObj );
-                        } else {
-                            result.set( indexObj );
-                        }
-                    }
-                }
+
+    /**
+     * Expands the tree rooted at this node on a fork join pool.
+     *
+     * @param expansion Shared state of the compose.
+     * @param pool Pool to run the expansion on.
+     * @return The sink holding the contributions of every expanded monomial.
+     */
+    protected ContributionSink expand( Expansion expansion, ForkJoinPool pool ) {
+        ExpandTask task = new ExpandTask( this, null, -1, expansion );
+        return ForkJoinTask.getPool() == pool ? task.invoke() : pool.invoke( task );
+    }
+
+    /**
+     * Expands this subtree, forking a task for each child subtree whose estimated number of products is worth it. Sinks
+     * of forked tasks are merged as they are joined, which is a no-op for sinks shared by every task.
+     */
+    protected ContributionSink expand( BitVector prefix, Expansion expansion ) {
+        ContributionSink accumulator = expansion.newSink();
+        Scratch scratch = new Scratch( expansion );
+        expandLinear( prefix, expansion, scratch, accumulator );
+
+        long prefixSize = prefix == null ? 1L : prefix.cardinality();
+        boolean[] fork = new boolean[ buckets.length ];
+        List<ExpandTask> forked = Lists.newArrayList();
+        for ( int i = 0; i < buckets.length; ++i ) {
+            RecursiveLinearizingComposerTree b = buckets[ i ];
+            if ( b != null && b.estimateProducts( prefixSize, i + minBucket, expansion ) >= FORK_PRODUCTS ) {
+                ExpandTask task = new ExpandTask( b, prefix, i + minBucket, expansion );
+                task.fork();
+                forked.add( task );
+                fork[ i ] = true;
             }
         }
-        return result;
+        for ( int i = 0; i < buckets.length; ++i ) {
+            RecursiveLinearizingComposerTree b = buckets[ i ];
+            if ( b != null && !fork[ i ] ) {
+                b.expandInto( expansion.extend( prefix, i + minBucket ), expansion, scratch, accumulator );
+            }
+        }
+        for ( ExpandTask task : forked ) {
+            accumulator.merge( task.join() );
+        }
+        return accumulator;
+    }
+
+    /**
+     * Estimates the products needed to expand this subtree as a child of a prefix, which is the number of monomials
+     * in the product of the prefix with the inner row of variable times the number of inner monomials multiplied into
+     * it by each outer monomial of the subtree.
+     *
+     * @param parentPrefixSize Number of monomials in the prefix of the parent, 1 for the root.
+     * @param variable The variable extending the prefix of the parent to the prefix of this node.
+     */
+    private double estimateProducts( long parentPrefixSize, int variable, Expansion expansion ) {
+        double prefixSize = Math.max( (double) parentPrefixSize * expansion.rowWeights[ variable ], 1D );
+        return weight * prefixSize * expansion.averageRowWeight;
     }
 
     /**
-     * Given contributions of outer and inner polynomials as well as the list of inner monomials, computes the product,
-     * updating the list of monomials, the map of monomials and returning the resultant contributions.
-     * 
-     * @param lhs
-     * @param rhs
-     * @param monomials
-     * @param indices
-     * @return
+     * Adds prefix times the sum of the inner rows of the linear terms, weighted by their outer contributions.
      */
-    public BitVector product(BitVector lhs, BitVector rhs, List<Monomial> monomials,
-            Map<Monomial, Integer> indices) {
-        if (lhs == null) {
-            return rhs;
-        }
-        BitVector result = new BitVector( monomials.size() );
-        for (int i = 0; i < lhs.size(); ++i) {
-            if (lhs.getQuick( i )) {
-                for (int j = 0; j < rhs.size(); ++j) {
-                    if (rhs.getQuick( j )) {
-                        Monomial p = monomials.get( i ).product( monomials.get( j ) );
-
-                        Integer indexObj = indices.get( p );
-                        int index;
-                        
-                        if (indexObj == null) { 
-                            //Monomial hasn't been seen before
-                            index = monomials.size();
-                            monomials.add( p );
-                            indices.put( p , index );
-                            result.setSize(  monomials.size() );
-                        } else {
-                            index = indexObj;
-                        }
-                        
-                        if (result.getQuick( index )) {
-                            result.clear( index );
-                        } else {
-                            result.set( index );
-                        }
+    private void expandLinear( BitVector prefix, Expansion expansion, Scratch scratch, ContributionSink accumulator ) {
+        int outputWords = expansion.outputWords;
+        long[] columns = scratch.columns;
+        int[] touched = scratch.touched;
+        int touchedCount = 0;
+        for ( int k = 0; k < linearContributions.length; ++k ) {
+            BitVector contribution = linearContributions[ k ];
+            if ( contribution == null ) {
+                continue;
+            }
+            long[] contributionWords = contribution.elements();
+            BitVector row = expansion.innerRows[ k + minBucket ];
+            long[] rowWords = row.elements();
+            for ( int w = 0; w < BitVectors.wordsFor( row.size() ); ++w ) {
+                long word = rowWords[ w ];
+                while ( word != 0L ) {
+                    int j = ( w << 6 ) + Long.numberOfTrailingZeros( word );
+                    if ( !scratch.isTouched( j ) ) {
+                        scratch.touch( j );
+                        touched[ touchedCount++ ] = j;
+                    }
+                    int offset = j * outputWords;
+                    for ( int o = 0; o < outputWords; ++o ) {
+                        columns[ offset + o ] ^= contributionWords[ o ];
                     }
+                    word &= word - 1;
                 }
             }
         }
-        return result;
+
+        /*
+         * Compact the nonzero columns to the front of the touched list, so that each monomial of the prefix is only
+         * unpacked once.
+         */
+        int nonzero = 0;
+        for ( int t = 0; t < touchedCount; ++t ) {
+            int j = touched[ t ];
+            scratch.untouch( j );
+            if ( isZero( columns, j * outputWords, outputWords ) ) {
+                continue;
+            }
+            if ( prefix == null ) {
+                accumulator.add( j, columns, j * outputWords );
+                Arrays.fill( columns, j * outputWords, ( j + 1 ) * outputWords, 0L );
+            } else {
+                touched[ nonzero++ ] = j;
+            }
+        }
+        if ( nonzero == 0 ) {
+            return;
+        }
+
+        long[] key = scratch.key;
+        long[] prefixMonomial = scratch.prefixMonomial;
+        long[] prefixWords = prefix.elements();
+        for ( int w = 0; w < BitVectors.wordsFor( prefix.size() ); ++w ) {
+            long word = prefixWords[ w ];
+            while ( word != 0L ) {
+                Arrays.fill( prefixMonomial, 0L );
+                expansion.table.orInto( ( w << 6 ) + Long.numberOfTrailingZeros( word ), prefixMonomial );
+                for ( int t = 0; t < nonzero; ++t ) {
+                    int j = touched[ t ];
+                    System.arraycopy( prefixMonomial, 0, key, 0, key.length );
+                    expansion.table.orInto( j, key );
+                    accumulator.add( key, columns, j * outputWords );
+                }
+                word &= word - 1;
+            }
+        }
+        for ( int t = 0; t < nonzero; ++t ) {
+            int j = touched[ t ];
+            Arrays.fill( columns, j * outputWords, ( j + 1 ) * outputWords, 0L );
+        }
+    }
+
+    private static boolean isZero( long[] words, int offset, int length ) {
+        for ( int i = 0; i < length; ++i ) {
+            if ( words[ offset + i ] != 0L ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int nextSetBit( Monomial m, int from ) {
+        return from < m.size() ? m.indexOfFromTo( from, m.size() - 1, true ) : -1;
+    }
+
+    /**
+     * State shared by every task of a compose.
+     */
+    protected static class Expansion {
+        protected final MonomialInternTable table;
+        protected final BitVector[]         innerRows;
+        protected final int                 innerMonomialCount;
+        protected final int                 outputWords;
+        private final int[]                 rowWeights;
+        private final double                averageRowWeight;
+        private Accumulator                 accumulator;
+
+        /**
+         * @param table Table holding the inner monomials, which receives every product.
+         * @param innerRows The inner monomials making up each output of the inner function, by index in the table.
+         * @param innerMonomialCount The number of inner monomials, which are the first entries of the table.
+         * @param outputLength The output length of the outer function.
+         */
+        public Expansion( MonomialInternTable table, BitVector[] innerRows, int innerMonomialCount, int outputLength ) {
+            this.table = table;
+            this.innerRows = innerRows;
+            this.innerMonomialCount = innerMonomialCount;
+            this.outputWords = BitVectors.wordsFor( outputLength );
+            this.rowWeights = new int[ innerRows.length ];
+            long totalWeight = 0;
+            for ( int i = 0; i < innerRows.length; ++i ) {
+                rowWeights[ i ] = innerRows[ i ].cardinality();
+                totalWeight += rowWeights[ i ];
+            }
+            this.averageRowWeight = innerRows.length == 0 ? 0D : Math.max( (double) totalWeight / innerRows.length, 1D );
+        }
+
+        /**
+         * @return The product of prefix with the inner row of a variable, or the inner row itself at the root.
+         */
+        public BitVector extend( BitVector prefix, int variable ) {
+            return prefix == null ? innerRows[ variable ] : table.product( prefix, innerRows[ variable ] );
+        }
+
+        /**
+         * @return The sink for the contributions expanded by one task, which is a single accumulator shared by every
+         *         task of the compose.
+         */
+        protected synchronized ContributionSink newSink() {
+            if ( accumulator == null ) {
+                accumulator = new Accumulator( table, outputWords );
+            }
+            return accumulator;
+        }
     }
 
-    protected EnhancedBitMatrix select(List<BitVector> rows) {
-        return select( innerSelector , rows );
+    /**
+     * Buffers used while expanding linear terms, reused by every node expanded on the same task.
+     */
+    protected static class Scratch {
+        private final long[] columns;
+        private final int[]  touched;
+        private final long[] marks;
+        private final long[] key;
+        private final long[] prefixMonomial;
+
+        public Scratch( Expansion expansion ) {
+            this.columns = new long[ expansion.innerMonomialCount * expansion.outputWords ];
+            this.touched = new int[ expansion.innerMonomialCount ];
+            this.marks = new long[ BitVectors.wordsFor( expansion.innerMonomialCount ) + 1 ];
+            int words = Math.max( BitVectors.wordsFor( expansion.table.getMonomialSize() ), 1 );
+            this.key = new long[ words ];
+            this.prefixMonomial = new long[ words ];
+        }
+
+        private boolean isTouched( int j ) {
+            return ( marks[ j >>> 6 ] & ( 1L << j ) ) != 0L;
+        }
+
+        private void touch( int j ) {
+            marks[ j >>> 6 ] |= 1L << j;
+        }
+
+        private void untouch( int j ) {
+            marks[ j >>> 6 ] &= ~( 1L << j );
+        }
     }
 
-    protected static EnhancedBitMatrix select(BitVector selector, List<BitVector> rows) {
-        List<BitVector> filteredRows = Lists.newArrayListWithCapacity( selector.cardinality() );
-        for (int i = 0; i < rows.size(); ++i) {
-            if (selector.get( i )) {
-                filteredRows.add( rows.get( i ) );
+    /**
+     * Receives the outer contributions of expanded monomials. Tasks get their sink from
+     * {@link Expansion#newSink()}, which may hand the same thread safe sink to every task.
+     */
+    protected abstract static class ContributionSink {
+        /**
+         * Adds a contribution to an inner monomial.
+         *
+         * @param index Index of the inner monomial in the table.
+         */
+        public abstract void add( int index, long[] source, int offset );
+
+        /**
+         * Adds a contribution to a product of monomials.
+         *
+         * @param monomial Packed words of the product, which may be reused by the caller once this returns.
+         */
+        public abstract void add( long[] monomial, long[] source, int offset );
+
+        /**
+         * Adds the contributions of the sink of a joined task to this one, which does nothing if both are the same sink.
+         */
+        public abstract void merge( ContributionSink other );
+    }
+
+    /**
+     * Outer contributions accumulated for each monomial of the table, stored densely by index in chunks that are
+     * allocated as indices are first touched. A single accumulator is shared by every task of a compose, so it takes
+     * one contribution per monomial of the table no matter how the work is split. Contributions are added to each word
+     * with a compare and set, since tasks only ever xor into it and collisions on the same monomial are rare.
+     */
+    protected static class Accumulator extends ContributionSink {
+        private static final int                            CHUNK_BITS = 12;
+        private static final int                            CHUNK_MASK = ( 1 << CHUNK_BITS ) - 1;
+        /*
+         * Enough chunks to cover every index of a MonomialInternTable.
+         */
+        private static final int                            MAX_CHUNKS = 1 << 16;
+
+        private final MonomialInternTable                   table;
+        private final int                                   words;
+        private final AtomicReferenceArray<AtomicLongArray> chunks;
+
+        public Accumulator( MonomialInternTable table, int words ) {
+            this.table = table;
+            this.words = words;
+            this.chunks = new AtomicReferenceArray<AtomicLongArray>( MAX_CHUNKS );
+        }
+
+        @Override
+        public void add( long[] monomial, long[] source, int offset ) {
+            add( table.intern( monomial ), source, offset );
+        }
+
+        @Override
+        public void add( int index, long[] source, int offset ) {
+            AtomicLongArray chunk = chunks.get( index >>> CHUNK_BITS );
+            if ( chunk == null ) {
+                chunks.compareAndSet( index >>> CHUNK_BITS, null, new AtomicLongArray( ( CHUNK_MASK + 1 ) * words ) );
+                chunk = chunks.get( index >>> CHUNK_BITS );
             }
+            int destination = ( index & CHUNK_MASK ) * words;
+            for ( int i = 0; i < words; ++i ) {
+                long value = source[ offset + i ];
+                if ( value != 0L ) {
+                    long current;
+                    do {
+                        current = chunk.get( destination + i );
+                    } while ( !chunk.compareAndSet( destination + i, current, current ^ value ) );
+                }
+            }
+        }
+
+        @Override
+        public void merge( ContributionSink sink ) {
+            Preconditions.checkArgument( sink == this, "Accumulator is shared by every task of a compose." );
+        }
+
+        /**
+         * @return The accumulated contribution of the monomial at index, or null if it is zero.
+         */
+        public long[] get( int index ) {
+            AtomicLongArray chunk = chunks.get( index >>> CHUNK_BITS );
+            if ( chunk == null ) {
+                return null;
+            }
+            int offset = ( index & CHUNK_MASK ) * words;
+            long[] contribution = new long[ words ];
+            boolean zero = true;
+            for ( int i = 0; i < words; ++i ) {
+                contribution[ i ] = chunk.get( offset + i );
+                zero &= contribution[ i ] == 0L;
+            }
+            return zero ? null : contribution;
+        }
+    }
+
+    private static class ExpandTask extends RecursiveTask<ContributionSink> {
+        private static final long                      serialVersionUID = 6406251313911618425L;
+
+        private final RecursiveLinearizingComposerTree node;
+        private final BitVector                        parentPrefix;
+        private final int                              variable;
+        private final Expansion                        expansion;
+
+        public ExpandTask(
+                RecursiveLinearizingComposerTree node,
+                BitVector parentPrefix,
+                int variable,
+                Expansion expansion ) {
+            this.node = node;
+            this.parentPrefix = parentPrefix;
+            this.variable = variable;
+            this.expansion = expansion;
+        }
+
+        @Override
+        protected ContributionSink compute() {
+            return node.expand( variable < 0 ? parentPrefix : expansion.extend( parentPrefix, variable ), expansion );
         }
-        return EnhancedBitMatrix.directFromRows( filteredRows );
     }
 }
@@ -0,0 +1,269 @@
+package com.kryptnostic.multivariate.composition;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Plan for expanding the monomials of an outer function in terms of the rows of an inner function, which computes each
+ * product shared by several outer monomials only once.
+ *
+ * The variables of each monomial are ordered by how many monomials they appear in, most frequent first, and the
+ * monomials are merged into a trie on that order. Each node of the trie is the product of the variables on its path, so
+ * monomials such as x<sub>1</sub>x<sub>2</sub>x<sub>5</sub> and x<sub>1</sub>x<sub>2</sub>x<sub>7</sub> are both derived
+ * from the node for x<sub>1</sub>x<sub>2</sub>. This is a greedy version of picking the most frequent factor at every
+ * step. Nodes are expanded one depth at a time, with the nodes of each depth split across the fork join pool of the
+ * context, and the products of a depth are dropped once the next depth has been computed.
+ */
+public class SharedProductPlan {
+    /**
+     * Number of nodes of a depth below which they are expanded on the calling thread.
+     */
+    public static final int     PARALLEL_MINIMUM = 16;
+
+    private final int[]         parents;
+    private final int[]         variables;
+    private final int[]         depthOffsets;
+    private final int[][]       terminals;
+    private final int           monomialCount;
+    private final int[]         constants;
+
+    /**
+     * @param monomials The monomials of the outer function.
+     */
+    public SharedProductPlan( Monomial[] monomials ) {
+        this.monomialCount = monomials.length;
+        int inputLength = monomials.length == 0 ? 0 : monomials[ 0 ].size();
+        int[] frequencies = new int[ inputLength ];
+        int[][] factors = new int[ monomials.length ][];
+        List<Integer> constantMonomials = Lists.newArrayList();
+        for ( int i = 0; i < monomials.length; ++i ) {
+            Monomial m = monomials[ i ];
+            factors[ i ] = new int[ m.cardinality() ];
+            if ( factors[ i ].length == 0 ) {
+                constantMonomials.add( i );
+            }
+            int next = 0;
+            for ( int j = nextSetBit( m, 0 ); j >= 0; j = nextSetBit( m, j + 1 ) ) {
+                factors[ i ][ next++ ] = j;
+                ++frequencies[ j ];
+            }
+        }
+        this.constants = Ints.toArray( constantMonomials );
+
+        /*
+         * Nodes are keyed by their parent and variable, with node -1 standing for the empty product.
+         */
+        Map<Long, Integer> nodes = Maps.newHashMap();
+        List<Integer> nodeParents = Lists.newArrayList();
+        List<Integer> nodeVariables = Lists.newArrayList();
+        List<Integer> nodeDepths = Lists.newArrayList();
+        int[] monomialNodes = new int[ monomials.length ];
+        for ( int i = 0; i < monomials.length; ++i ) {
+            int[] ordered = order( factors[ i ], frequencies );
+            int node = -1;
+            for ( int depth = 0; depth < ordered.length; ++depth ) {
+                long key = ( ( (long) node ) << 32 ) | ordered[ depth ];
+                Integer child = nodes.get( key );
+                if ( child == null ) {
+                    child = nodeParents.size();
+                    nodes.put( key, child );
+                    nodeParents.add( node );
+                    nodeVariables.add( ordered[ depth ] );
+                    nodeDepths.add( depth );
+                }
+                node = child;
+            }
+            monomialNodes[ i ] = node;
+        }
+
+        /*
+         * Renumber the nodes so that each depth is a contiguous range, which lets a depth be split into blocks.
+         */
+        int nodeCount = nodeParents.size();
+        int maxDepth = 0;
+        for ( int depth : nodeDepths ) {
+            maxDepth = Math.max( maxDepth, depth + 1 );
+        }
+        this.depthOffsets = new int[ maxDepth + 1 ];
+        for ( int depth : nodeDepths ) {
+            ++depthOffsets[ depth + 1 ];
+        }
+        for ( int depth = 0; depth < maxDepth; ++depth ) {
+            depthOffsets[ depth + 1 ] += depthOffsets[ depth ];
+        }
+        int[] renumbered = new int[ nodeCount ];
+        int[] filled = Arrays.copyOf( depthOffsets, maxDepth );
+        for ( int node = 0; node < nodeCount; ++node ) {
+            renumbered[ node ] = filled[ nodeDepths.get( node ) ]++;
+        }
+        this.parents = new int[ nodeCount ];
+        this.variables = new int[ nodeCount ];
+        for ( int node = 0; node < nodeCount; ++node ) {
+            int parent = nodeParents.get( node );
+            parents[ renumbered[ node ] ] = parent < 0 ? -1 : renumbered[ parent ];
+            variables[ renumbered[ node ] ] = nodeVariables.get( node );
+        }
+
+        int[] terminalCounts = new int[ nodeCount ];
+        for ( int node : monomialNodes ) {
+            if ( node >= 0 ) {
+                ++terminalCounts[ renumbered[ node ] ];
+            }
+        }
+        this.terminals = new int[ nodeCount ][];
+        for ( int node = 0; node < nodeCount; ++node ) {
+            terminals[ node ] = new int[ terminalCounts[ node ] ];
+        }
+        for ( int i = 0; i < monomialNodes.length; ++i ) {
+            if ( monomialNodes[ i ] >= 0 ) {
+                int node = renumbered[ monomialNodes[ i ] ];
+                terminals[ node ][ --terminalCounts[ node ] ] = i;
+            }
+        }
+    }
+
+    /**
+     * @return The number of products of two polynomials needed to expand every monomial.
+     */
+    public int getProductCount() {
+        return depthOffsets.length > 1 ? parents.length - depthOffsets[ 1 ] : 0;
+    }
+
+    /**
+     * Expands each outer monomial in terms of the inner monomials.
+     *
+     * @param innerRows The inner monomials making up each output of the inner function, by index in the table.
+     * @param table Table holding the inner monomials, which receives any new products.
+     * @param context Context to run parallel work on.
+     * @return The inner monomials making up each outer monomial, in the same order as the outer monomials.
+     */
+    public BitVector[] evaluate(
+            final BitVector[] innerRows,
+            final MonomialInternTable table,
+            PolynomialExecutionContext context ) {
+        final BitVector[] results = new BitVector[ monomialCount ];
+        for ( int i : constants ) {
+            results[ i ] = new BitVector( table.size() );
+        }
+
+        final BitVector[] values = new BitVector[ parents.length ];
+        for ( int depth = 0; depth + 1 < depthOffsets.length; ++depth ) {
+            int from = depthOffsets[ depth ];
+            int to = depthOffsets[ depth + 1 ];
+            int parallelism = Math.min( context.getParallelism(), ( to - from ) / PARALLEL_MINIMUM );
+            if ( parallelism <= 1 ) {
+                expand( from, to, innerRows, table, values, results );
+            } else {
+                int leafSize = Math.max( ( to - from ) / ( 4 * parallelism ), PARALLEL_MINIMUM );
+                ExpandTask task = new ExpandTask( from, to, leafSize, innerRows, table, values, results );
+                ForkJoinPool pool = context.getForkJoinPool();
+                if ( ForkJoinTask.getPool() == pool ) {
+                    task.invoke();
+                } else {
+                    pool.invoke( task );
+                }
+            }
+            if ( depth > 0 ) {
+                Arrays.fill( values, depthOffsets[ depth - 1 ], from, null );
+            }
+        }
+        return results;
+    }
+
+    private void expand(
+            int from,
+            int to,
+            BitVector[] innerRows,
+            MonomialInternTable table,
+            BitVector[] values,
+            BitVector[] results ) {
+        for ( int node = from; node < to; ++node ) {
+            BitVector row = innerRows[ variables[ node ] ];
+            BitVector value = parents[ node ] < 0 ? row : table.product( values[ parents[ node ] ], row );
+            values[ node ] = value;
+            for ( int monomial : terminals[ node ] ) {
+                results[ monomial ] = value;
+            }
+        }
+    }
+
+    /**
+     * Expands a range of nodes of one depth, splitting it in half until it is no larger than the leaf size. Halves are
+     * joined rather than waited on, so expansion can't deadlock when compose itself runs on a worker of the pool.
+     */
+    private class ExpandTask extends RecursiveAction {
+        private static final long         serialVersionUID = 2038856137364719151L;
+
+        private final int                 from;
+        private final int                 to;
+        private final int                 leafSize;
+        private final BitVector[]         innerRows;
+        private final MonomialInternTable table;
+        private final BitVector[]         values;
+        private final BitVector[]         results;
+
+        public ExpandTask(
+                int from,
+                int to,
+                int leafSize,
+                BitVector[] innerRows,
+                MonomialInternTable table,
+                BitVector[] values,
+                BitVector[] results ) {
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+            this.innerRows = innerRows;
+            this.table = table;
+            this.values = values;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if ( to - from <= leafSize ) {
+                expand( from, to, innerRows, table, values, results );
+                return;
+            }
+            int midpoint = ( from + to ) >>> 1;
+            invokeAll(
+                    new ExpandTask( from, midpoint, leafSize, innerRows, table, values, results ),
+                    new ExpandTask( midpoint, to, leafSize, innerRows, table, values, results ) );
+        }
+    }
+
+    /**
+     * @return The factors ordered by decreasing frequency, with ties broken by index.
+     */
+    private static int[] order( int[] factors, final int[] frequencies ) {
+        Integer[] boxed = new Integer[ factors.length ];
+        for ( int i = 0; i < factors.length; ++i ) {
+            boxed[ i ] = factors[ i ];
+        }
+        Arrays.sort( boxed, new Comparator<Integer>() {
+            @Override
+            public int compare( Integer lhs, Integer rhs ) {
+                int byFrequency = Ints.compare( frequencies[ rhs ], frequencies[ lhs ] );
+                return byFrequency != 0 ? byFrequency : Ints.compare( lhs, rhs );
+            }
+        } );
+        return Ints.toArray( Arrays.asList( boxed ) );
+    }
+
+    private static int nextSetBit( Monomial m, int from ) {
+        return from < m.size() ? m.indexOfFromTo( from, m.size() - 1, true ) : -1;
+    }
+}
@@ -0,0 +1,419 @@
+package com.kryptnostic.multivariate.composition;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.math.LongMath;
+import com.google.common.primitives.Ints;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+
+/**
+ * Composes functions whose expanded monomial basis doesn't fit in memory. The outer function is expanded as by
+ * {@link RecursiveLinearizingComposer}, but only the inner monomials and the products along the paths of the tree are
+ * interned. Each final product is written with its contribution to one of several partition files, picked by a hash of
+ * the product. Records are buffered by the task that produced them and written to the file channel a buffer at a
+ * time, with the buffers of all tasks capped at {@link #BUFFER_BYTES}. Partitions are then merged one at a time, adding
+ * up the contributions of equal monomials and dropping those that cancel, so only one partition and the composed
+ * function are held in memory at once.
+ *
+ * Partition files hold products of the composed functions, which may be derived from a private key. They are created
+ * in the given directory readable and writable by their owner only, where the file system supports it, and deleted
+ * when the composition finishes.
+ */
+public class SpillingComposer extends RecursiveLinearizingComposer {
+    private static final Logger                   logger           = LoggerFactory.getLogger( SpillingComposer.class );
+
+    /**
+     * Estimated bytes of records per partition used to pick the number of partitions.
+     */
+    public static final long                      PARTITION_BYTES  = 1L << 26;
+    /**
+     * Bytes of records buffered by all the tasks of a compose before a task flushes its buffers to make room. Each task
+     * may still hold one buffer past the cap.
+     */
+    public static final long                      BUFFER_BYTES     = 1L << 24;
+    private static final int                      MAX_PARTITIONS   = 1 << 12;
+    private static final int                      BUFFERED_RECORDS = 1 << 8;
+    private static final int                      READ_RECORDS     = 1 << 14;
+    private static final Set<PosixFilePermission> OWNER_ONLY       = PosixFilePermissions.fromString( "rw-------" );
+
+    private final File                            directory;
+    private final int                             partitions;
+    private final long                            estimatedMonomials;
+
+    /**
+     * @param outer The outer function.
+     * @param directory Directory for the partition files.
+     * @param partitions Number of partitions.
+     */
+    public SpillingComposer( SimplePolynomialFunction outer, File directory, int partitions ) {
+        this( outer, directory, partitions, 0L );
+        Preconditions.checkArgument( partitions > 0, "Number of partitions must be positive." );
+    }
+
+    /**
+     * @param outer The outer function.
+     * @param directory Directory for the partition files.
+     * @param plan Plan of the composition, whose estimated number of monomials picks the number of partitions.
+     */
+    public SpillingComposer( SimplePolynomialFunction outer, File directory, ComposePlan plan ) {
+        this( outer, directory, 0, plan.getEstimatedMonomials() );
+    }
+
+    private SpillingComposer( SimplePolynomialFunction outer, File directory, int partitions, long estimatedMonomials ) {
+        super( outer );
+        this.directory = Preconditions.checkNotNull( directory, "Spill directory cannot be null." );
+        this.partitions = partitions;
+        this.estimatedMonomials = estimatedMonomials;
+    }
+
+    @Override
+    public SimplePolynomialFunction compose( SimplePolynomialFunction inner, PolynomialExecutionContext context ) {
+        Preconditions.checkArgument(
+                outerInputLength == inner.getOutputLength(),
+                "Outer input length must equal inner output length" );
+        int monomialSize = monomialSize( inner );
+        MonomialInternTable table = new MonomialInternTable( monomialSize, inner.getMonomials().length << 2 );
+        BitVector[] innerRows = innerRows( inner, table );
+        int monomialWords = Math.max( BitVectors.wordsFor( monomialSize ), 1 );
+        int outputWords = BitVectors.wordsFor( outputLength );
+
+        List<Monomial> monomials = Lists.newArrayList();
+        List<BitVector> contributions = Lists.newArrayList();
+        try ( Partitions files = new Partitions( partitionsFor( inner ), monomialWords + outputWords ) ) {
+            SpillExpansion expansion = new SpillExpansion( table, innerRows, table.size(), outputLength, files );
+            SpillSink sink = (SpillSink) expand( expansion, context.getForkJoinPool() );
+            BitVector constant = getConstantContribution();
+            if ( constant != null ) {
+                sink.add( Monomial.constantMonomial( monomialSize ).elements(), constant.elements(), 0 );
+            }
+            sink.flush();
+
+            for ( Partition partition : files.partitions ) {
+                partition.merge( monomialSize, outputLength, monomials, contributions );
+            }
+        } catch ( IOException e ) {
+            throw Throwables.propagate( e );
+        }
+        return createFunction( inner, monomials, contributions );
+    }
+
+    private int partitionsFor( SimplePolynomialFunction inner ) {
+        if ( partitions > 0 ) {
+            return partitions;
+        }
+        long recordLongs = BitVectors.wordsFor( outputLength ) + Math.max( BitVectors.wordsFor( monomialSize( inner ) ), 1 );
+        long bytes;
+        try {
+            bytes = LongMath.checkedMultiply( estimatedMonomials, recordLongs << 3 );
+        } catch ( ArithmeticException e ) {
+            // Too many records to count, so as many partitions as are allowed.
+            return MAX_PARTITIONS;
+        }
+        return (int) Math.max( Math.min( bytes / PARTITION_BYTES, MAX_PARTITIONS ), 1 );
+    }
+
+    private static int partitionOf( long[] monomial, int words, int partitions ) {
+        long h = 0x9E3779B97F4A7C15L;
+        for ( int i = 0; i < words; ++i ) {
+            h = ( h ^ monomial[ i ] ) * 0xC2B2AE3D27D4EB4FL;
+            h ^= h >>> 29;
+        }
+        return (int) ( ( h >>> 1 ) % partitions );
+    }
+
+    private static class SpillExpansion extends Expansion {
+        private final Partitions partitions;
+
+        public SpillExpansion(
+                MonomialInternTable table,
+                BitVector[] innerRows,
+                int innerMonomialCount,
+                int outputLength,
+                Partitions partitions ) {
+            super( table, innerRows, innerMonomialCount, outputLength );
+            this.partitions = partitions;
+        }
+
+        @Override
+        protected ContributionSink newSink() {
+            return new SpillSink( table, partitions );
+        }
+    }
+
+    /**
+     * Buffers records for each partition on the task that produced them, so that partition files are only locked once
+     * per buffer. When the buffers of all tasks would pass {@link #BUFFER_BYTES} the task allocating a buffer flushes
+     * and drops its own buffers first.
+     */
+    private static class SpillSink extends ContributionSink {
+        private final MonomialInternTable table;
+        private final Partitions          partitions;
+        private final int                 monomialWords;
+        private final ByteBuffer[]        buffers;
+        private final long[]              monomial;
+        private long                      bufferedBytes;
+
+        public SpillSink( MonomialInternTable table, Partitions partitions ) {
+            this.table = table;
+            this.partitions = partitions;
+            this.monomialWords = Math.max( BitVectors.wordsFor( table.getMonomialSize() ), 1 );
+            this.buffers = new ByteBuffer[ partitions.partitions.size() ];
+            this.monomial = new long[ monomialWords ];
+        }
+
+        @Override
+        public void add( int index, long[] source, int offset ) {
+            Arrays.fill( monomial, 0L );
+            table.orInto( index, monomial );
+            add( monomial, source, offset );
+        }
+
+        @Override
+        public void add( long[] key, long[] source, int offset ) {
+            int p = partitionOf( key, monomialWords, buffers.length );
+            ByteBuffer buffer = buffers[ p ];
+            if ( buffer == null ) {
+                int capacity = ( BUFFERED_RECORDS * partitions.recordLongs ) << 3;
+                if ( partitions.reserve( capacity ) > BUFFER_BYTES ) {
+                    flush();
+                }
+                buffer = buffers[ p ] = ByteBuffer.allocate( capacity );
+                bufferedBytes += capacity;
+            }
+            for ( int i = 0; i < monomialWords; ++i ) {
+                buffer.putLong( key[ i ] );
+            }
+            for ( int i = monomialWords; i < partitions.recordLongs; ++i ) {
+                buffer.putLong( source[ offset + i - monomialWords ] );
+            }
+            if ( !buffer.hasRemaining() ) {
+                flush( p );
+            }
+        }
+
+        @Override
+        public void merge( ContributionSink other ) {
+            ( (SpillSink) other ).flush();
+        }
+
+        /**
+         * Writes out and drops every buffer of this sink.
+         */
+        public void flush() {
+            for ( int p = 0; p < buffers.length; ++p ) {
+                if ( buffers[ p ] != null ) {
+                    flush( p );
+                    buffers[ p ] = null;
+                }
+            }
+            partitions.release( bufferedBytes );
+            bufferedBytes = 0;
+        }
+
+        private void flush( int p ) {
+            ByteBuffer buffer = buffers[ p ];
+            if ( buffer.position() > 0 ) {
+                buffer.flip();
+                try {
+                    partitions.partitions.get( p ).append( buffer );
+                } catch ( IOException e ) {
+                    throw Throwables.propagate( e );
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    private class Partitions implements Closeable {
+        private final List<Partition> partitions;
+        private final int             recordLongs;
+        private final AtomicLong      bufferedBytes;
+
+        public Partitions( int count, int recordLongs ) throws IOException {
+            this.recordLongs = recordLongs;
+            this.bufferedBytes = new AtomicLong();
+            this.partitions = Lists.newArrayListWithCapacity( count );
+            try {
+                for ( int i = 0; i < count; ++i ) {
+                    partitions.add( new Partition( createPartitionFile(), recordLongs ) );
+                }
+            } catch ( IOException e ) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Creates an empty partition file readable and writable only by its owner.
+         */
+        private File createPartitionFile() throws IOException {
+            Path path = directory.toPath();
+            try {
+                return Files.createTempFile(
+                        path,
+                        "compose-",
+                        ".partition",
+                        PosixFilePermissions.asFileAttribute( OWNER_ONLY ) ).toFile();
+            } catch ( UnsupportedOperationException e ) {
+                // Not a POSIX file system, the directory's own access control applies.
+                return Files.createTempFile( path, "compose-", ".partition" ).toFile();
+            }
+        }
+
+        /**
+         * @return The bytes buffered by all sinks, including the reserved ones.
+         */
+        public long reserve( long bytes ) {
+            return bufferedBytes.addAndGet( bytes );
+        }
+
+        public void release( long bytes ) {
+            bufferedBytes.addAndGet( -bytes );
+        }
+
+        @Override
+        public void close() {
+            for ( Partition partition : partitions ) {
+                partition.close();
+            }
+        }
+    }
+
+    /**
+     * Records of one partition, appended to the file through its channel. Each record is the words of a monomial followed
+     * by the words of its contribution.
+     */
+    private static class Partition {
+        private final File             file;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel      channel;
+        private final int              recordLongs;
+        private long                   length;
+
+        public Partition( File file, int recordLongs ) throws IOException {
+            this.file = file;
+            try {
+                this.randomAccessFile = new RandomAccessFile( file, "rw" );
+            } catch ( IOException e ) {
+                delete();
+                throw e;
+            }
+            this.channel = randomAccessFile.getChannel();
+            this.recordLongs = recordLongs;
+        }
+
+        /**
+         * Appends the remaining bytes of a buffer of whole records.
+         */
+        public synchronized void append( ByteBuffer records ) throws IOException {
+            while ( records.hasRemaining() ) {
+                length += channel.write( records );
+            }
+        }
+
+        /**
+         * Adds up the contributions of equal monomials and appends the ones that don't cancel.
+         */
+        public void merge(
+                int monomialSize,
+                int outputLength,
+                List<Monomial> monomials,
+                List<BitVector> contributions ) throws IOException {
+            int outputWords = BitVectors.wordsFor( outputLength );
+            long records = length / ( recordLongs << 3 );
+            int monomialWords = recordLongs - outputWords;
+            MonomialInternTable table = new MonomialInternTable( monomialSize, Ints.saturatedCast( Math.min(
+                    records,
+                    1 << 20 ) ) );
+            long[] accumulated = new long[ 64 * outputWords ];
+            long[] key = new long[ monomialWords ];
+
+            // The buffer holds whole records, so no record is split across reads.
+            ByteBuffer buffer = ByteBuffer.allocate( ( READ_RECORDS * recordLongs ) << 3 );
+            long position = 0;
+            while ( position < length ) {
+                buffer.clear();
+                buffer.limit( (int) Math.min( buffer.capacity(), length - position ) );
+                while ( buffer.hasRemaining() ) {
+                    if ( channel.read( buffer, position + buffer.position() ) < 0 ) {
+                        throw new EOFException( "Partition file " + file
+                                + " is shorter than the records written to it." );
+                    }
+                }
+                position += buffer.limit();
+                buffer.flip();
+                while ( buffer.hasRemaining() ) {
+                    for ( int i = 0; i < monomialWords; ++i ) {
+                        key[ i ] = buffer.getLong();
+                    }
+                    int offset = table.intern( key ) * outputWords;
+                    if ( offset + outputWords > accumulated.length ) {
+                        accumulated = Arrays.copyOf(
+                                accumulated,
+                                Math.max( accumulated.length << 1, offset + outputWords ) );
+                    }
+                    for ( int i = 0; i < outputWords; ++i ) {
+                        accumulated[ offset + i ] ^= buffer.getLong();
+                    }
+                }
+            }
+
+            for ( int index = 0; index < table.size(); ++index ) {
+                int offset = index * outputWords;
+                boolean zero = true;
+                for ( int i = 0; i < outputWords && zero; ++i ) {
+                    zero = accumulated[ offset + i ] == 0L;
+                }
+                if ( !zero ) {
+                    monomials.add( table.get( index ) );
+                    contributions.add( new BitVector(
+                            Arrays.copyOfRange( accumulated, offset, offset + outputWords ),
+                            outputLength ) );
+                }
+            }
+            logger.debug( "Merged {} records of {} into {} monomials.", records, file, table.size() );
+        }
+
+        public synchronized void close() {
+            try {
+                channel.close();
+                randomAccessFile.close();
+            } catch ( IOException e ) {
+                logger.warn( "Unable to close partition file {}.", file, e );
+            }
+            delete();
+        }
+
+        private void delete() {
+            if ( !file.delete() && file.exists() ) {
+                logger.warn( "Unable to delete partition file {}, deleting it on exit.", file );
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Evaluator for affine functions over GF(2), using the method of Four Russians. The input is split into 8 bit chunks
+ * and for each chunk a table holds the XOR of the contributions of every combination of the variables in that chunk,
+ * so evaluation is one table lookup per input byte instead of one test per monomial.
+ *
+ * There is a table of 256 outputs for every 8 inputs, so tables take about {@code 256 * inputLength * outputWords}
+ * bytes.
+ */
+public class AffineEvaluator implements PolynomialEvaluator {
+    /**
+     * Number of input bits covered by each table.
+     */
+    public static final int CHUNK_BITS = 8;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int        chunks;
+    private final int        outputWords;
+    private final long[]     constant;
+    private final long[]     tables;
+
+    /**
+     * @param inputLength The length of the inputs the monomials are defined over.
+     * @param outputLength The length of the contributions.
+     * @param monomials Monomials of the function, each of order at most 1.
+     * @param contributions Contribution of each monomial to the output.
+     */
+    public AffineEvaluator( int inputLength, int outputLength, Monomial[] monomials, BitVector[] contributions ) {
+        Preconditions.checkArgument(
+                monomials.length == contributions.length,
+                "Number of monomials must match number of contributions." );
+        this.chunks = ( inputLength + CHUNK_BITS - 1 ) / CHUNK_BITS;
+        this.outputWords = BitVectors.wordsFor( outputLength );
+        this.constant = new long[ outputWords ];
+
+        long[] rows = new long[ chunks * CHUNK_BITS * outputWords ];
+        for ( int i = 0; i < monomials.length; ++i ) {
+            Monomial m = monomials[ i ];
+            int order = m.cardinality();
+            Preconditions.checkArgument( order <= 1, "Affine evaluator only supports monomials of order 1 or less." );
+            long[] contribution = contributions[ i ].elements();
+            int offset = order == 0 ? -1 : m.indexOfFromTo( 0, m.size() - 1, true ) * outputWords;
+            for ( int j = 0; j < outputWords; ++j ) {
+                if ( offset < 0 ) {
+                    constant[ j ] ^= contribution[ j ];
+                } else {
+                    rows[ offset + j ] ^= contribution[ j ];
+                }
+            }
+        }
+
+        /*
+         * Each entry is the entry without its lowest set bit plus the row of the variable for that bit.
+         */
+        this.tables = new long[ chunks * CHUNK_SIZE * outputWords ];
+        for ( int chunk = 0; chunk < chunks; ++chunk ) {
+            int tableOffset = chunk * CHUNK_SIZE * outputWords;
+            for ( int entry = 1; entry < CHUNK_SIZE; ++entry ) {
+                int previous = tableOffset + ( entry & ( entry - 1 ) ) * outputWords;
+                int row = ( chunk * CHUNK_BITS + Integer.numberOfTrailingZeros( entry ) ) * outputWords;
+                int current = tableOffset + entry * outputWords;
+                for ( int j = 0; j < outputWords; ++j ) {
+                    tables[ current + j ] = tables[ previous + j ] ^ rows[ row + j ];
+                }
+            }
+        }
+    }
+
+    /**
+     * Bits of the input beyond the input length are ignored, since the tables hold no contribution for them.
+     */
+    @Override
+    public void evaluate( long[] input, long[] output ) {
+        System.arraycopy( constant, 0, output, 0, outputWords );
+        for ( int chunk = 0; chunk < chunks; ++chunk ) {
+            int entry = (int) ( input[ chunk >>> 3 ] >>> ( ( chunk & 7 ) << 3 ) ) & CHUNK_MASK;
+            if ( entry != 0 ) {
+                int offset = ( chunk * CHUNK_SIZE + entry ) * outputWords;
+                for ( int j = 0; j < outputWords; ++j ) {
+                    output[ j ] ^= tables[ offset + j ];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.collect.Lists;
+import com.kryptnostic.multivariate.gf2.Consumer;
+import com.kryptnostic.multivariate.gf2.PolynomialFunction;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+
+/**
+ * Evaluates a function on many inputs by splitting the inputs, rather than the monomials of a single evaluation,
+ * across the threads of an execution context. Every input is evaluated by exactly one thread, so results never need to
+ * be merged between threads and throughput scales with the number of threads.
+ *
+ * Simple polynomial functions evaluate each slice of inputs with their bit-sliced batch evaluation, other functions
+ * evaluate the inputs of a slice one at a time.
+ */
+public class BatchEvaluation {
+    /**
+     * Smallest number of inputs worth handing to another thread, one full batch of bit-sliced lanes.
+     */
+    public static final int MINIMUM_SLICE_SIZE   = BitSlicedEvaluator.LANES;
+
+    /**
+     * Number of inputs read from an iterator per slice of each thread.
+     */
+    public static final int STREAMING_SLICE_SIZE = 16 * BitSlicedEvaluator.LANES;
+
+    private BatchEvaluation() {}
+
+    /**
+     * Evaluates function on each of the inputs using the threads of the provided context. The calling thread
+     * evaluates slices of inputs itself until none are left, so it can be a thread of the context.
+     *
+     * @param function The function to evaluate.
+     * @param inputs The inputs to evaluate the function on.
+     * @param context Context to run parallel work on.
+     * @return The outputs of the function, in the same order as the inputs.
+     */
+    public static List<BitVector> applyAll(
+            final PolynomialFunction function,
+            List<BitVector> inputs,
+            PolynomialExecutionContext context ) {
+        final BitVector[] inputArray = inputs.toArray( new BitVector[ inputs.size() ] );
+        final BitVector[] results = new BitVector[ inputArray.length ];
+        int slices = Math.max( Math.min( context.getParallelism() + 1, inputArray.length / MINIMUM_SLICE_SIZE ), 1 );
+        int sliceSize = ( inputArray.length + slices - 1 ) / slices;
+
+        List<Callable<Void>> tasks = Lists.newArrayListWithCapacity( slices );
+        for ( int i = 0; i < slices; ++i ) {
+            final int fromIndex = Math.min( i * sliceSize, inputArray.length );
+            final int toIndex = Math.min( fromIndex + sliceSize, inputArray.length );
+            tasks.add( new Callable<Void>() {
+                @Override
+                public Void call() {
+                    evaluateSlice( function, inputArray, results, fromIndex, toIndex );
+                    return null;
+                }
+            } );
+        }
+        context.invokeAll( tasks );
+
+        return Arrays.asList( results );
+    }
+
+    /**
+     * Evaluates function on each input read from an iterator, reading enough inputs at a time to keep every thread of
+     * the provided context busy. Outputs are passed to consumer on the calling thread in the same order as the inputs.
+     *
+     * @param function The function to evaluate.
+     * @param inputs The inputs to evaluate the function on.
+     * @param consumer Receives the output of each input.
+     * @param context Context to run parallel work on.
+     */
+    public static void applyAll(
+            PolynomialFunction function,
+            Iterator<BitVector> inputs,
+            Consumer<BitVector> consumer,
+            PolynomialExecutionContext context ) {
+        int batchSize = ( context.getParallelism() + 1 ) * STREAMING_SLICE_SIZE;
+        List<BitVector> batch = Lists.newArrayListWithCapacity( batchSize );
+        while ( inputs.hasNext() ) {
+            batch.add( inputs.next() );
+            if ( batch.size() == batchSize || !inputs.hasNext() ) {
+                for ( BitVector result : applyAll( function, batch, context ) ) {
+                    consumer.accept( result );
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private static void evaluateSlice(
+            PolynomialFunction function,
+            BitVector[] inputs,
+            BitVector[] results,
+            int fromIndex,
+            int toIndex ) {
+        if ( function instanceof SimplePolynomialFunction ) {
+            BitVector[] slice = Arrays.copyOfRange( inputs, fromIndex, toIndex );
+            System.arraycopy( ( (SimplePolynomialFunction) function ).apply( slice ), 0, results, fromIndex, slice.length );
+        } else {
+            for ( int i = fromIndex; i < toIndex; ++i ) {
+                results[ i ] = function.apply( inputs[ i ] );
+            }
+        }
+    }
+}
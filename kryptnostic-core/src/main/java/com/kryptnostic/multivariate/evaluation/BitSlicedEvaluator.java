@@ -0,0 +1,158 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Evaluates a polynomial function over GF(2) on batches of inputs by bit-slicing them. Up to 64 inputs are transposed
+ * so that each input variable becomes a single long, with bit j holding the value of that variable in the j-th input.
+ * A monomial is then evaluated for all 64 inputs with one AND per factor, and the resulting lane mask is XORed into
+ * every output lane the monomial contributes to.
+ */
+public class BitSlicedEvaluator {
+    public static final int LANES = 64;
+
+    private final int       inputLength;
+    private final int       outputLength;
+    private final int[][]   factors;
+    private final int[][]   outputs;
+
+    /**
+     * @param inputLength The length of the inputs the monomials are defined over.
+     * @param outputLength The length of the contributions.
+     * @param monomials Monomials of the function being evaluated.
+     * @param contributions Contribution of each monomial to the output.
+     */
+    public BitSlicedEvaluator( int inputLength, int outputLength, Monomial[] monomials, BitVector[] contributions ) {
+        Preconditions.checkArgument(
+                monomials.length == contributions.length,
+                "Number of monomials must match number of contributions." );
+        this.inputLength = inputLength;
+        this.outputLength = outputLength;
+        this.factors = new int[ monomials.length ][];
+        this.outputs = new int[ monomials.length ][];
+        for ( int i = 0; i < monomials.length; ++i ) {
+            factors[ i ] = setBits( monomials[ i ] );
+            outputs[ i ] = setBits( contributions[ i ] );
+        }
+    }
+
+    /**
+     * Evaluates the function on each of the provided inputs.
+     *
+     * @param inputs Inputs of length {@code inputLength}.
+     * @return The outputs of the function, in the same order as the inputs.
+     */
+    public BitVector[] evaluate( BitVector[] inputs ) {
+        for ( BitVector input : inputs ) {
+            Preconditions.checkArgument( input.size() == inputLength, "Input length does not match function." );
+        }
+        BitVector[] results = new BitVector[ inputs.length ];
+        long[] inputLanes = new long[ roundUpToLanes( inputLength ) ];
+        long[] outputLanes = new long[ roundUpToLanes( outputLength ) ];
+
+        for ( int offset = 0; offset < inputs.length; offset += LANES ) {
+            int count = Math.min( LANES, inputs.length - offset );
+            slice( inputs, offset, count, inputLanes );
+            evaluate( inputLanes, outputLanes );
+            unslice( outputLanes, results, offset, count );
+        }
+
+        return results;
+    }
+
+    /**
+     * Evaluates all monomials against bit-sliced inputs, overwriting {@code outputLanes}.
+     */
+    private void evaluate( long[] inputLanes, long[] outputLanes ) {
+        for ( int i = 0; i < outputLength; ++i ) {
+            outputLanes[ i ] = 0L;
+        }
+
+        for ( int i = 0; i < factors.length; ++i ) {
+            long mask = -1L;
+            for ( int variable : factors[ i ] ) {
+                mask &= inputLanes[ variable ];
+                if ( mask == 0L ) {
+                    break;
+                }
+            }
+
+            if ( mask != 0L ) {
+                for ( int output : outputs[ i ] ) {
+                    outputLanes[ output ] ^= mask;
+                }
+            }
+        }
+    }
+
+    private void slice( BitVector[] inputs, int offset, int count, long[] inputLanes ) {
+        int words = inputLanes.length >>> 6;
+        long[] block = new long[ LANES ];
+        for ( int word = 0; word < words; ++word ) {
+            for ( int lane = 0; lane < LANES; ++lane ) {
+                block[ lane ] = lane < count ? word( inputs[ offset + lane ], word ) : 0L;
+            }
+            transpose( block );
+            System.arraycopy( block, 0, inputLanes, word << 6, LANES );
+        }
+    }
+
+    private void unslice( long[] outputLanes, BitVector[] results, int offset, int count ) {
+        int words = outputLanes.length >>> 6;
+        long[][] resultWords = new long[ count ][ words ];
+        long[] block = new long[ LANES ];
+        for ( int word = 0; word < words; ++word ) {
+            System.arraycopy( outputLanes, word << 6, block, 0, LANES );
+            transpose( block );
+            for ( int lane = 0; lane < count; ++lane ) {
+                resultWords[ lane ][ word ] = block[ lane ];
+            }
+        }
+
+        for ( int lane = 0; lane < count; ++lane ) {
+            BitVector result = new BitVector( resultWords[ lane ], words << 6 );
+            result.setSize( outputLength );
+            results[ offset + lane ] = result;
+        }
+    }
+
+    private static long word( BitVector input, int index ) {
+        long[] elements = input.elements();
+        return index < elements.length ? elements[ index ] : 0L;
+    }
+
+    private static int roundUpToLanes( int length ) {
+        return Math.max( ( length + LANES - 1 ) & ~( LANES - 1 ), LANES );
+    }
+
+    private static int[] setBits( BitVector v ) {
+        int[] bits = new int[ v.cardinality() ];
+        int index = 0;
+        for ( int i = 0; i < v.size(); ++i ) {
+            if ( v.getQuick( i ) ) {
+                bits[ index++ ] = i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Transposes a 64 x 64 bit matrix in place, where row r is {@code block[ r ]} and column c is bit c of each row.
+     *
+     * @param block The 64 rows of the matrix to transpose.
+     */
+    public static void transpose( long[] block ) {
+        Preconditions.checkArgument( block.length == LANES, "Block must contain exactly 64 rows." );
+        long mask = 0x00000000FFFFFFFFL;
+        for ( int width = 32; width != 0; width >>>= 1, mask ^= ( mask << width ) ) {
+            for ( int row = 0; row < LANES; row = ( ( row | width ) + 1 ) & ~width ) {
+                long t = ( ( block[ row ] >>> width ) ^ block[ row | width ] ) & mask;
+                block[ row ] ^= ( t << width );
+                block[ row | width ] ^= t;
+            }
+        }
+    }
+}
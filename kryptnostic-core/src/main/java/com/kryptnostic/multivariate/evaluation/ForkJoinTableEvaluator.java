@@ -0,0 +1,151 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Evaluates a {@link MonomialTable} across a {@link ForkJoinPool}, sizing the work so that small functions and sparse
+ * inputs are evaluated on the calling thread where handing off to the pool would cost more than the scan itself.
+ *
+ * Larger tables are split into ranges of monomials. Each range accumulates into its own partial result and partial
+ * results are XORed together as tasks are joined, so no locking is needed to combine them. The calling thread evaluates
+ * the first range itself and then reclaims any ranges the pool has not started yet, so a pool saturated by other
+ * callers slows evaluation down rather than leaving the caller parked.
+ */
+public class ForkJoinTableEvaluator implements PolynomialEvaluator {
+    /**
+     * Number of words scanned below which a table is always evaluated on the calling thread.
+     */
+    public static final int    PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * Number of words scanned by a single task before it is split further.
+     */
+    public static final int    LEAF_THRESHOLD     = 1 << 13;
+
+    private final MonomialTable table;
+    private final int          outputWords;
+    private final int          leafSize;
+    private final int          parallelSize;
+
+    /**
+     * @param table Table of the function being evaluated.
+     */
+    public ForkJoinTableEvaluator( MonomialTable table ) {
+        this.table = Preconditions.checkNotNull( table, "Monomial table cannot be null." );
+        this.outputWords = table.getOutputWords();
+        int rowWords = Math.max( table.getInputWords() + outputWords, 1 );
+        this.leafSize = Math.max( LEAF_THRESHOLD / rowWords, 1 );
+        this.parallelSize = PARALLEL_THRESHOLD / rowWords;
+    }
+
+    /**
+     * @return The table being evaluated.
+     */
+    public MonomialTable getTable() {
+        return table;
+    }
+
+    @Override
+    public void evaluate( long[] input, long[] output ) {
+        evaluate( input, output, PolynomialExecutionContext.getDefault() );
+    }
+
+    /**
+     * Evaluates the table, splitting large tables across the fork join pool of the provided context.
+     *
+     * @param input Words of the input.
+     * @param output Words of the output, which are overwritten.
+     * @param context Context to run parallel work on.
+     */
+    public void evaluate( long[] input, long[] output, PolynomialExecutionContext context ) {
+        ForkJoinPool pool = context.getForkJoinPool();
+        int size = table.size();
+        if ( size < parallelSize || table.isSparse( input ) ) {
+            table.evaluate( input, output );
+            return;
+        }
+
+        if ( ForkJoinTask.inForkJoinPool() ) {
+            long[] result = new RangeTask( input, 0, size, null ).evaluateRange();
+            System.arraycopy( result, 0, output, 0, outputWords );
+            return;
+        }
+
+        int pieces = Math.max( Math.min( pool.getParallelism() + 1, size / leafSize ), 1 );
+        int pieceSize = ( size + pieces - 1 ) / pieces;
+        RangeTask[] tasks = new RangeTask[ pieces ];
+        for ( int i = 1; i < pieces; ++i ) {
+            int toIndex = Math.min( ( i + 1 ) * pieceSize, size );
+            tasks[ i ] = new RangeTask( input, i * pieceSize, toIndex, new AtomicBoolean() );
+            pool.execute( tasks[ i ] );
+        }
+
+        Arrays.fill( output, 0, outputWords, 0L );
+        table.evaluate( input, output, 0, Math.min( pieceSize, size ) );
+
+        for ( int i = 1; i < pieces; ++i ) {
+            RangeTask task = tasks[ i ];
+            long[] partial = task.claim() ? task.evaluateRange() : task.join();
+            xor( output, partial );
+        }
+    }
+
+    private void xor( long[] accumulator, long[] partial ) {
+        for ( int i = 0; i < outputWords; ++i ) {
+            accumulator[ i ] ^= partial[ i ];
+        }
+    }
+
+    /**
+     * Evaluates a range of monomials into a new partial result, splitting the range when running inside the pool.
+     * Top level ranges carry a claim flag so that exactly one of the pool and the calling thread evaluates them.
+     */
+    private class RangeTask extends RecursiveTask<long[]> {
+        private static final long   serialVersionUID = 4371651880213553706L;
+
+        private final long[]        input;
+        private final int           fromIndex;
+        private final int           toIndex;
+        private final AtomicBoolean claimed;
+
+        public RangeTask( long[] input, int fromIndex, int toIndex, AtomicBoolean claimed ) {
+            this.input = input;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.claimed = claimed;
+        }
+
+        public boolean claim() {
+            return claimed == null || claimed.compareAndSet( false, true );
+        }
+
+        @Override
+        protected long[] compute() {
+            if ( !claim() ) {
+                return null;
+            }
+            return evaluateRange();
+        }
+
+        public long[] evaluateRange() {
+            if ( toIndex - fromIndex <= leafSize || !ForkJoinTask.inForkJoinPool() ) {
+                long[] partial = new long[ outputWords ];
+                table.evaluate( input, partial, fromIndex, toIndex );
+                return partial;
+            }
+
+            int midpoint = ( fromIndex + toIndex ) >>> 1;
+            RangeTask right = new RangeTask( input, midpoint, toIndex, null );
+            right.fork();
+            long[] partial = new RangeTask( input, fromIndex, midpoint, null ).evaluateRange();
+            xor( partial, right.join() );
+            return partial;
+        }
+    }
+}
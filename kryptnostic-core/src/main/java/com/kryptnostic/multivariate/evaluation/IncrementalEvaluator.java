@@ -0,0 +1,250 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Re-evaluates a fixed polynomial function over GF(2) on inputs that differ from the previous input in a few bits. The
+ * evaluator keeps the previous input and output, and when input bits are flipped only the monomials containing a
+ * flipped variable can change value, so those are found through an index from each variable to the monomials
+ * containing it and the contributions of the ones that changed are XORed into the output. The cost of an update scales
+ * with the number of monomials containing the flipped variables rather than the size of the function.
+ *
+ * For quadratic functions the monomials visited are exactly the terms of the derivative of the function in the
+ * direction of the flipped bits, f(x + e) + f(x), which is affine in x. When an update would visit more monomials than
+ * the function has, the output is evaluated from scratch instead.
+ *
+ * Evaluators hold the state of one sequence of inputs and aren't safe for use by more than one thread at a time.
+ */
+public class IncrementalEvaluator {
+    private final int    inputLength;
+    private final int    outputLength;
+    private final int    inputWords;
+    private final int    outputWords;
+    private final int    size;
+    private final long[] monomialWords;
+    private final long[] contributionWords;
+    private final int[]  variableStarts;
+    private final int[]  variableMonomials;
+    private final int[]  stamps;
+    private int          epoch;
+    private int          touched;
+    private long[]       input;
+    private long[]       next;
+    private final long[] output;
+
+    /**
+     * Creates an evaluator whose previous input is all zeros.
+     *
+     * @param inputLength The length of the inputs the monomials are defined over.
+     * @param outputLength The length of the contributions.
+     * @param monomials Monomials of the function.
+     * @param contributions Contribution of each monomial to the output.
+     */
+    public IncrementalEvaluator( int inputLength, int outputLength, Monomial[] monomials, BitVector[] contributions ) {
+        Preconditions.checkArgument(
+                monomials.length == contributions.length,
+                "Number of monomials must match number of contributions." );
+        this.inputLength = inputLength;
+        this.outputLength = outputLength;
+        this.inputWords = BitVectors.wordsFor( inputLength );
+        this.outputWords = BitVectors.wordsFor( outputLength );
+        this.size = monomials.length;
+        this.monomialWords = new long[ size * inputWords ];
+        this.contributionWords = new long[ size * outputWords ];
+        this.variableStarts = new int[ inputLength + 1 ];
+        this.stamps = new int[ size ];
+        this.input = new long[ inputWords ];
+        this.next = new long[ inputWords ];
+        this.output = new long[ outputWords ];
+
+        /*
+         * First pass packs the monomials and counts the monomials containing each variable, second pass fills in the
+         * index.
+         */
+        for ( int k = 0; k < size; ++k ) {
+            Preconditions.checkArgument( monomials[ k ].size() == inputLength, "Monomial size must equal input length." );
+            pack( monomials[ k ].elements(), inputLength, monomialWords, k * inputWords );
+            pack( contributions[ k ].elements(), outputLength, contributionWords, k * outputWords );
+            for ( int w = 0; w < inputWords; ++w ) {
+                long word = monomialWords[ k * inputWords + w ];
+                while ( word != 0L ) {
+                    ++variableStarts[ ( w << 6 ) + Long.numberOfTrailingZeros( word ) + 1 ];
+                    word &= word - 1;
+                }
+            }
+        }
+        for ( int i = 0; i < inputLength; ++i ) {
+            variableStarts[ i + 1 ] += variableStarts[ i ];
+        }
+
+        this.variableMonomials = new int[ variableStarts[ inputLength ] ];
+        int[] filled = Arrays.copyOf( variableStarts, inputLength );
+        for ( int k = 0; k < size; ++k ) {
+            for ( int w = 0; w < inputWords; ++w ) {
+                long word = monomialWords[ k * inputWords + w ];
+                while ( word != 0L ) {
+                    variableMonomials[ filled[ ( w << 6 ) + Long.numberOfTrailingZeros( word ) ]++ ] = k;
+                    word &= word - 1;
+                }
+            }
+        }
+
+        evaluate();
+    }
+
+    /**
+     * Sets the previous input and evaluates the function on it from scratch.
+     */
+    public void reset( BitVector input ) {
+        Preconditions.checkArgument( input.size() == inputLength, "Input length does not match function." );
+        pack( input.elements(), inputLength, this.input, 0 );
+        evaluate();
+    }
+
+    /**
+     * Sets the previous input along with its known output, without evaluating the function.
+     */
+    public void reset( BitVector input, BitVector output ) {
+        Preconditions.checkArgument( input.size() == inputLength, "Input length does not match function." );
+        Preconditions.checkArgument( output.size() == outputLength, "Output length does not match function." );
+        pack( input.elements(), inputLength, this.input, 0 );
+        pack( output.elements(), outputLength, this.output, 0 );
+    }
+
+    /**
+     * Flips the given input variables and updates the output.
+     *
+     * @param variables Indices of the input bits to flip. Flipping a variable twice leaves it unchanged.
+     * @return The new output.
+     */
+    public BitVector flip( int... variables ) {
+        System.arraycopy( input, 0, next, 0, inputWords );
+        for ( int variable : variables ) {
+            Preconditions.checkElementIndex( variable, inputLength, "Variable" );
+            next[ variable >>> 6 ] ^= 1L << variable;
+        }
+        advance();
+        return getOutput();
+    }
+
+    /**
+     * Moves to a new input, only visiting the monomials containing the bits that differ from the previous input.
+     *
+     * @return The output for the new input.
+     */
+    public BitVector update( BitVector input ) {
+        Preconditions.checkArgument( input.size() == inputLength, "Input length does not match function." );
+        pack( input.elements(), inputLength, next, 0 );
+        advance();
+        return getOutput();
+    }
+
+    public BitVector getInput() {
+        return new BitVector( Arrays.copyOf( input, inputWords ), inputLength );
+    }
+
+    public BitVector getOutput() {
+        return new BitVector( Arrays.copyOf( output, outputWords ), outputLength );
+    }
+
+    /**
+     * @return The number of monomials visited by the last update, or by the last full evaluation.
+     */
+    public int getTouchedMonomialCount() {
+        return touched;
+    }
+
+    /**
+     * Updates the output from input to next, and makes next the previous input.
+     */
+    private void advance() {
+        int candidates = 0;
+        for ( int w = 0; w < inputWords; ++w ) {
+            long word = input[ w ] ^ next[ w ];
+            while ( word != 0L ) {
+                int variable = ( w << 6 ) + Long.numberOfTrailingZeros( word );
+                candidates += variableStarts[ variable + 1 ] - variableStarts[ variable ];
+                word &= word - 1;
+            }
+        }
+
+        long[] previous = input;
+        input = next;
+        next = previous;
+        if ( candidates > size ) {
+            evaluate();
+            return;
+        }
+
+        if ( ++epoch == 0 ) {
+            Arrays.fill( stamps, 0 );
+            epoch = 1;
+        }
+        touched = 0;
+        for ( int w = 0; w < inputWords; ++w ) {
+            long word = input[ w ] ^ previous[ w ];
+            while ( word != 0L ) {
+                int variable = ( w << 6 ) + Long.numberOfTrailingZeros( word );
+                for ( int entry = variableStarts[ variable ]; entry < variableStarts[ variable + 1 ]; ++entry ) {
+                    int k = variableMonomials[ entry ];
+                    if ( stamps[ k ] != epoch ) {
+                        stamps[ k ] = epoch;
+                        ++touched;
+                        if ( isSatisfied( previous, k ) != isSatisfied( input, k ) ) {
+                            xorContribution( k );
+                        }
+                    }
+                }
+                word &= word - 1;
+            }
+        }
+    }
+
+    private void evaluate() {
+        Arrays.fill( output, 0L );
+        for ( int k = 0; k < size; ++k ) {
+            if ( isSatisfied( input, k ) ) {
+                xorContribution( k );
+            }
+        }
+        touched = size;
+    }
+
+    private boolean isSatisfied( long[] values, int k ) {
+        int offset = k * inputWords;
+        for ( int w = 0; w < inputWords; ++w ) {
+            long mask = monomialWords[ offset + w ];
+            if ( ( values[ w ] & mask ) != mask ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void xorContribution( int k ) {
+        int offset = k * outputWords;
+        for ( int w = 0; w < outputWords; ++w ) {
+            output[ w ] ^= contributionWords[ offset + w ];
+        }
+    }
+
+    /**
+     * Copies the words of a vector of the given length into destination, clearing any bits past the length.
+     */
+    private static void pack( long[] source, int length, long[] destination, int offset ) {
+        int words = BitVectors.wordsFor( length );
+        int copied = Math.min( words, source.length );
+        System.arraycopy( source, 0, destination, offset, copied );
+        Arrays.fill( destination, offset + copied, offset + words, 0L );
+        int leftover = length & 63;
+        if ( leftover != 0 ) {
+            destination[ offset + words - 1 ] &= ( 1L << leftover ) - 1;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Compiled form of a polynomial function over GF(2). Monomials are packed into a single flat array of shape (monomials
+ * x input words) and contributions into a second flat array of shape (monomials x output words), so that evaluation is
+ * a sequential scan that tests each monomial with {@code ( input & m ) == m} and does not allocate.
+ *
+ * Inputs of low Hamming weight are evaluated from an inverted index instead, which holds for each input variable a
+ * bitmap of the monomials containing it. ORing the bitmaps of the variables set in the input yields the few monomials
+ * that can possibly be satisfied, so the cost of evaluation scales with the weight of the input rather than the number
+ * of monomials. The index is built the first time a sparse input is seen.
+ *
+ * Evaluations that only need some of the outputs use a second index, which holds for each output word a bitmap of the
+ * monomials contributing to it, so that monomials which can't affect the requested outputs are skipped.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public class MonomialTable implements PolynomialEvaluator {
+    /**
+     * Tables smaller than this are always scanned, since the scan is already cheap.
+     */
+    public static final int        SPARSE_MINIMUM_SIZE = 256;
+
+    /**
+     * Relative cost of ORing a bitmap word compared to rejecting a monomial during a scan.
+     */
+    public static final int        SPARSE_COST_FACTOR  = 4;
+
+    private final int              inputLength;
+    private final int              outputLength;
+    private final int              inputWords;
+    private final int              outputWords;
+    private final int              size;
+    private final long[]           monomialWords;
+    private final long[]           contributionWords;
+    private final int              monomialMaskWords;
+    private volatile InvertedIndex index;
+    private volatile long[][]      monomialsByOutputWord;
+
+    /**
+     * @param inputLength The length of the inputs the monomials are defined over.
+     * @param outputLength The length of the contributions.
+     * @param monomials Monomials of the function being compiled.
+     * @param contributions Contribution of each monomial to the output.
+     */
+    public MonomialTable( int inputLength, int outputLength, Monomial[] monomials, BitVector[] contributions ) {
+        Preconditions.checkArgument(
+                monomials.length == contributions.length,
+                "Number of monomials must match number of contributions." );
+        this.inputLength = inputLength;
+        this.outputLength = outputLength;
+        this.inputWords = BitVectors.wordsFor( inputLength );
+        this.outputWords = BitVectors.wordsFor( outputLength );
+        this.size = monomials.length;
+        this.monomialWords = new long[ size * inputWords ];
+        this.contributionWords = new long[ size * outputWords ];
+        this.monomialMaskWords = BitVectors.wordsFor( size );
+
+        for ( int i = 0; i < size; ++i ) {
+            pack( monomials[ i ], inputLength, monomialWords, i * inputWords );
+            pack( contributions[ i ], outputLength, contributionWords, i * outputWords );
+        }
+    }
+
+    /**
+     * Evaluates the function on an input.
+     *
+     * @param input Input of length {@code inputLength}.
+     * @return A newly allocated output of length {@code outputLength}.
+     */
+    public BitVector apply( BitVector input ) {
+        Preconditions.checkArgument( input.size() == inputLength, "Input length does not match function." );
+        long[] result = new long[ outputWords ];
+        evaluate( input.elements(), result );
+        return new BitVector( result, outputLength );
+    }
+
+    @Override
+    public void evaluate( long[] input, long[] output ) {
+        Arrays.fill( output, 0, outputWords, 0L );
+        if ( isSparse( input ) ) {
+            evaluateSparse( input, output );
+        } else {
+            evaluate( input, output, 0, size );
+        }
+    }
+
+    /**
+     * Decides whether an input is sparse enough that ORing one monomial bitmap per set input bit is cheaper than
+     * scanning every monomial. A full scan usually rejects a monomial after testing a single word, so the index wins
+     * while the weight of the input is small compared to the number of monomials in a bitmap word.
+     *
+     * @param input Words of the input.
+     * @return True if the input should be evaluated from the inverted index.
+     */
+    public boolean isSparse( long[] input ) {
+        if ( size < SPARSE_MINIMUM_SIZE ) {
+            return false;
+        }
+        int limit = size / ( monomialMaskWords * SPARSE_COST_FACTOR );
+        int weight = 0;
+        for ( int i = 0; i < inputWords; ++i ) {
+            weight += Long.bitCount( inputWord( input, i ) );
+            if ( weight > limit ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * XORs the contributions of every satisfied monomial into output, using the inverted index to find candidate
+     * monomials.
+     */
+    private void evaluateSparse( long[] input, long[] output ) {
+        InvertedIndex index = getIndex();
+        long[] candidates = ScratchBuffers.acquire( monomialMaskWords );
+        try {
+            System.arraycopy( index.constants, 0, candidates, 0, monomialMaskWords );
+            for ( int i = 0; i < inputWords; ++i ) {
+                long word = inputWord( input, i );
+                while ( word != 0L ) {
+                    long[] monomialsWithVariable = index.variables[ ( i << 6 ) + Long.numberOfTrailingZeros( word ) ];
+                    if ( monomialsWithVariable != null ) {
+                        for ( int j = 0; j < monomialMaskWords; ++j ) {
+                            candidates[ j ] |= monomialsWithVariable[ j ];
+                        }
+                    }
+                    word &= word - 1;
+                }
+            }
+
+            for ( int i = 0; i < monomialMaskWords; ++i ) {
+                long word = candidates[ i ];
+                while ( word != 0L ) {
+                    int monomial = ( i << 6 ) + Long.numberOfTrailingZeros( word );
+                    evaluate( input, output, monomial, monomial + 1 );
+                    word &= word - 1;
+                }
+            }
+        } finally {
+            ScratchBuffers.release( candidates );
+        }
+    }
+
+    /**
+     * Evaluates only the outputs selected by mask, skipping monomials that don't contribute to any output word
+     * containing a selected output. Outputs that are not selected are cleared.
+     *
+     * @param input Words of the input.
+     * @param output Words of the output, which are overwritten.
+     * @param mask Words of a mask of length {@code outputLength} selecting the outputs to compute.
+     */
+    public void evaluateMasked( long[] input, long[] output, long[] mask ) {
+        Arrays.fill( output, 0, outputWords, 0L );
+        long[][] byOutputWord = getMonomialsByOutputWord();
+        long[] candidates = null;
+        try {
+            int selectedWords = 0;
+            for ( int i = 0; i < outputWords; ++i ) {
+                if ( mask[ i ] != 0L ) {
+                    if ( candidates == null ) {
+                        candidates = ScratchBuffers.acquire( monomialMaskWords );
+                        Arrays.fill( candidates, 0, monomialMaskWords, 0L );
+                    }
+                    for ( int j = 0; j < monomialMaskWords; ++j ) {
+                        candidates[ j ] |= byOutputWord[ i ][ j ];
+                    }
+                    ++selectedWords;
+                }
+            }
+
+            if ( selectedWords == outputWords ) {
+                evaluate( input, output );
+            } else if ( candidates != null ) {
+                for ( int i = 0; i < monomialMaskWords; ++i ) {
+                    long word = candidates[ i ];
+                    while ( word != 0L ) {
+                        int monomial = ( i << 6 ) + Long.numberOfTrailingZeros( word );
+                        evaluate( input, output, monomial, monomial + 1 );
+                        word &= word - 1;
+                    }
+                }
+            }
+        } finally {
+            ScratchBuffers.release( candidates );
+        }
+
+        for ( int i = 0; i < outputWords; ++i ) {
+            output[ i ] &= mask[ i ];
+        }
+    }
+
+    private long inputWord( long[] input, int index ) {
+        long word = input[ index ];
+        int leftover = inputLength & 63;
+        if ( index == inputWords - 1 && leftover != 0 ) {
+            word &= ( 1L << leftover ) - 1;
+        }
+        return word;
+    }
+
+    private InvertedIndex getIndex() {
+        InvertedIndex index = this.index;
+        if ( index == null ) {
+            index = new InvertedIndex();
+            this.index = index;
+        }
+        return index;
+    }
+
+    /**
+     * For each output word, a bitmap of the monomials whose contribution to that word is non-zero.
+     */
+    private long[][] getMonomialsByOutputWord() {
+        long[][] byOutputWord = this.monomialsByOutputWord;
+        if ( byOutputWord == null ) {
+            byOutputWord = new long[ outputWords ][ monomialMaskWords ];
+            for ( int i = 0; i < size; ++i ) {
+                for ( int j = 0; j < outputWords; ++j ) {
+                    if ( contributionWords[ i * outputWords + j ] != 0L ) {
+                        byOutputWord[ j ][ i >>> 6 ] |= 1L << i;
+                    }
+                }
+            }
+            this.monomialsByOutputWord = byOutputWord;
+        }
+        return byOutputWord;
+    }
+
+    /**
+     * XORs the contributions of every monomial in the range [ fromIndex, toIndex ) that is satisfied by input into
+     * output.
+     *
+     * @param input Words of the input, at least {@link #getInputWords()} long.
+     * @param output Words of the output, at least {@link #getOutputWords()} long.
+     * @param fromIndex Index of the first monomial to evaluate, inclusive.
+     * @param toIndex Index of the last monomial to evaluate, exclusive.
+     */
+    public void evaluate( long[] input, long[] output, int fromIndex, int toIndex ) {
+        int monomialOffset = fromIndex * inputWords;
+        int contributionOffset = fromIndex * outputWords;
+        for ( int i = fromIndex; i < toIndex; ++i ) {
+            boolean satisfied = true;
+            for ( int j = 0; j < inputWords; ++j ) {
+                long m = monomialWords[ monomialOffset + j ];
+                if ( ( input[ j ] & m ) != m ) {
+                    satisfied = false;
+                    break;
+                }
+            }
+
+            if ( satisfied ) {
+                for ( int j = 0; j < outputWords; ++j ) {
+                    output[ j ] ^= contributionWords[ contributionOffset + j ];
+                }
+            }
+
+            monomialOffset += inputWords;
+            contributionOffset += outputWords;
+        }
+    }
+
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    public int getOutputLength() {
+        return outputLength;
+    }
+
+    public int getInputWords() {
+        return inputWords;
+    }
+
+    public int getOutputWords() {
+        return outputWords;
+    }
+
+    /**
+     * @return The number of monomials in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the first length bits of v into destination starting at offset, clearing any bits past length.
+     */
+    private static void pack( BitVector v, int length, long[] destination, int offset ) {
+        int words = BitVectors.wordsFor( length );
+        long[] elements = v.elements();
+        System.arraycopy( elements, 0, destination, offset, Math.min( words, elements.length ) );
+        int leftover = length & 63;
+        if ( leftover != 0 ) {
+            destination[ offset + words - 1 ] &= ( 1L << leftover ) - 1;
+        }
+    }
+
+    /**
+     * For each input variable, a bitmap of the monomials that contain it, along with a bitmap of the constant monomials,
+     * which are satisfied by every input. Variables that appear in no monomial have a null bitmap.
+     */
+    private class InvertedIndex {
+        private final long[][] variables = new long[ inputLength ][];
+        private final long[]   constants = new long[ monomialMaskWords ];
+
+        public InvertedIndex() {
+            for ( int i = 0; i < size; ++i ) {
+                boolean constant = true;
+                for ( int j = 0; j < inputWords; ++j ) {
+                    long word = monomialWords[ i * inputWords + j ];
+                    while ( word != 0L ) {
+                        int variable = ( j << 6 ) + Long.numberOfTrailingZeros( word );
+                        if ( variables[ variable ] == null ) {
+                            variables[ variable ] = new long[ monomialMaskWords ];
+                        }
+                        variables[ variable ][ i >>> 6 ] |= 1L << i;
+                        constant = false;
+                        word &= word - 1;
+                    }
+                }
+                if ( constant ) {
+                    constants[ i >>> 6 ] |= 1L << i;
+                }
+            }
+        }
+    }
+}
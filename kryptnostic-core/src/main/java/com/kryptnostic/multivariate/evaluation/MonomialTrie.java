@@ -0,0 +1,197 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Evaluator that organizes the monomials of a function into a prefix trie keyed by variable index. The factors of each
+ * monomial are ordered by how many monomials they appear in, most frequent first, so that monomials sharing common
+ * factors share a path from the root. A path is only followed while the variables along it are set in the input, so
+ * the partial product of a shared prefix is computed once and every monomial that extends an unsatisfied prefix is
+ * skipped without being examined.
+ * 
+ * The trie is flattened in pre-order into parallel arrays, with each node recording the index just past its subtree.
+ */
+public class MonomialTrie implements PolynomialEvaluator {
+    private final int    outputWords;
+    private final long[] constant;
+    private final int[]  variables;
+    private final int[]  subtreeEnds;
+    private final int[]  contributionOffsets;
+    private final long[] contributions;
+
+    /**
+     * @param inputLength The length of the inputs the monomials are defined over.
+     * @param outputLength The length of the contributions.
+     * @param monomials Monomials of the function.
+     * @param contributions Contribution of each monomial to the output.
+     */
+    public MonomialTrie( int inputLength, int outputLength, Monomial[] monomials, BitVector[] contributions ) {
+        Preconditions.checkArgument(
+                monomials.length == contributions.length,
+                "Number of monomials must match number of contributions." );
+        this.outputWords = BitVectors.wordsFor( outputLength );
+        this.constant = new long[ outputWords ];
+
+        final int[] frequencies = new int[ inputLength ];
+        for ( Monomial m : monomials ) {
+            for ( int i = nextFactor( m, 0 ); i >= 0; i = nextFactor( m, i + 1 ) ) {
+                ++frequencies[ i ];
+            }
+        }
+        int[] ranks = rankByFrequency( frequencies );
+
+        Node root = new Node( -1 );
+        int nodeCount = 0;
+        int terminalCount = 0;
+        for ( int index = 0; index < monomials.length; ++index ) {
+            Monomial m = monomials[ index ];
+            int[] factors = new int[ m.cardinality() ];
+            int count = 0;
+            for ( int i = nextFactor( m, 0 ); i >= 0; i = nextFactor( m, i + 1 ) ) {
+                factors[ count++ ] = ranks[ i ];
+            }
+            Arrays.sort( factors );
+
+            Node node = root;
+            for ( int rank : factors ) {
+                Node child = node.children.get( rank );
+                if ( child == null ) {
+                    child = new Node( rank );
+                    node.children.put( rank, child );
+                    ++nodeCount;
+                }
+                node = child;
+            }
+
+            if ( node.contribution == null ) {
+                node.contribution = new long[ outputWords ];
+                if ( node != root ) {
+                    ++terminalCount;
+                }
+            }
+            xorInto( contributions[ index ], node.contribution, outputLength );
+        }
+
+        if ( root.contribution != null ) {
+            System.arraycopy( root.contribution, 0, constant, 0, outputWords );
+        }
+
+        int[] variablesByRank = new int[ inputLength ];
+        for ( int i = 0; i < inputLength; ++i ) {
+            variablesByRank[ ranks[ i ] ] = i;
+        }
+
+        this.variables = new int[ nodeCount ];
+        this.subtreeEnds = new int[ nodeCount ];
+        this.contributionOffsets = new int[ nodeCount ];
+        this.contributions = new long[ terminalCount * outputWords ];
+        flatten( root, 0, 0, variablesByRank );
+    }
+
+    @Override
+    public void evaluate( long[] input, long[] output ) {
+        System.arraycopy( constant, 0, output, 0, outputWords );
+
+        int node = 0;
+        while ( node < variables.length ) {
+            int variable = variables[ node ];
+            if ( ( ( input[ variable >>> 6 ] >>> variable ) & 1L ) != 0 ) {
+                int offset = contributionOffsets[ node ];
+                if ( offset >= 0 ) {
+                    for ( int i = 0; i < outputWords; ++i ) {
+                        output[ i ] ^= contributions[ offset + i ];
+                    }
+                }
+                ++node;
+            } else {
+                node = subtreeEnds[ node ];
+            }
+        }
+    }
+
+    /**
+     * @return The number of nodes in the trie, excluding the root.
+     */
+    public int size() {
+        return variables.length;
+    }
+
+    /**
+     * Writes the subtrees of the children of node in pre-order, starting at index.
+     * 
+     * @return A pair of the next free node index and the next free contribution offset.
+     */
+    private int[] flatten( Node node, int index, int offset, int[] variablesByRank ) {
+        for ( Node child : node.children.values() ) {
+            int current = index++;
+            variables[ current ] = variablesByRank[ child.rank ];
+            if ( child.contribution != null ) {
+                contributionOffsets[ current ] = offset;
+                System.arraycopy( child.contribution, 0, contributions, offset, outputWords );
+                offset += outputWords;
+            } else {
+                contributionOffsets[ current ] = -1;
+            }
+            int[] next = flatten( child, index, offset, variablesByRank );
+            index = next[ 0 ];
+            offset = next[ 1 ];
+            subtreeEnds[ current ] = index;
+        }
+        return new int[] { index, offset };
+    }
+
+    private static int[] rankByFrequency( final int[] frequencies ) {
+        Integer[] order = new Integer[ frequencies.length ];
+        for ( int i = 0; i < order.length; ++i ) {
+            order[ i ] = i;
+        }
+        Arrays.sort( order, new Comparator<Integer>() {
+            @Override
+            public int compare( Integer lhs, Integer rhs ) {
+                int byFrequency = Integer.compare( frequencies[ rhs ], frequencies[ lhs ] );
+                return byFrequency != 0 ? byFrequency : Integer.compare( lhs, rhs );
+            }
+        } );
+
+        int[] ranks = new int[ frequencies.length ];
+        for ( int rank = 0; rank < order.length; ++rank ) {
+            ranks[ order[ rank ] ] = rank;
+        }
+        return ranks;
+    }
+
+    private static void xorInto( BitVector contribution, long[] destination, int length ) {
+        long[] elements = contribution.elements();
+        int words = Math.min( elements.length, destination.length );
+        for ( int i = 0; i < words; ++i ) {
+            destination[ i ] ^= elements[ i ];
+        }
+        int leftover = length & 63;
+        if ( leftover != 0 ) {
+            destination[ destination.length - 1 ] &= ( 1L << leftover ) - 1;
+        }
+    }
+
+    private static int nextFactor( Monomial m, int from ) {
+        return from < m.size() ? m.indexOfFromTo( from, m.size() - 1, true ) : -1;
+    }
+
+    private static class Node {
+        private final int                rank;
+        private final Map<Integer, Node> children = new TreeMap<Integer, Node>();
+        private long[]                   contribution;
+
+        public Node( int rank ) {
+            this.rank = rank;
+        }
+    }
+}
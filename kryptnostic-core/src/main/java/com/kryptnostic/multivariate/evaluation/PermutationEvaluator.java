@@ -0,0 +1,104 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.bitwise.BitVectors;
+
+/**
+ * Evaluator for functions that only route input bits to output bits. Consecutive outputs taken from consecutive inputs
+ * are grouped into runs, and each run is copied up to 64 bits at a time with word shifts and masks, so identities,
+ * shifts and truncations cost a handful of word operations instead of one test per monomial.
+ */
+public class PermutationEvaluator implements PolynomialEvaluator {
+    private final int    outputWords;
+    private final int[]  runOutputs;
+    private final int[]  runInputs;
+    private final int[]  runLengths;
+
+    /**
+     * @param inputLength The length of the input.
+     * @param sources The input bit routed to each output bit, or -1 for outputs that are always zero.
+     */
+    public PermutationEvaluator( int inputLength, int[] sources ) {
+        this.outputWords = BitVectors.wordsFor( sources.length );
+
+        int[] outputs = new int[ sources.length ];
+        int[] inputs = new int[ sources.length ];
+        int[] lengths = new int[ sources.length ];
+        int runs = 0;
+        for ( int i = 0; i < sources.length; ++i ) {
+            int source = sources[ i ];
+            Preconditions.checkArgument( source < inputLength, "Sources must be less than the input length." );
+            if ( source < 0 ) {
+                continue;
+            }
+            if ( runs > 0 && outputs[ runs - 1 ] + lengths[ runs - 1 ] == i
+                    && inputs[ runs - 1 ] + lengths[ runs - 1 ] == source ) {
+                ++lengths[ runs - 1 ];
+            } else {
+                outputs[ runs ] = i;
+                inputs[ runs ] = source;
+                lengths[ runs ] = 1;
+                ++runs;
+            }
+        }
+        this.runOutputs = Arrays.copyOf( outputs, runs );
+        this.runInputs = Arrays.copyOf( inputs, runs );
+        this.runLengths = Arrays.copyOf( lengths, runs );
+    }
+
+    /**
+     * @return The number of runs of consecutive bits copied for each evaluation.
+     */
+    public int getRunCount() {
+        return runLengths.length;
+    }
+
+    @Override
+    public void evaluate( long[] input, long[] output ) {
+        Arrays.fill( output, 0, outputWords, 0L );
+        for ( int run = 0; run < runLengths.length; ++run ) {
+            int from = runInputs[ run ];
+            int to = runOutputs[ run ];
+            int remaining = runLengths[ run ];
+            while ( remaining > 0 ) {
+                int bits = Math.min( remaining, 64 );
+                long chunk = read( input, from );
+                if ( bits < 64 ) {
+                    chunk &= ( 1L << bits ) - 1;
+                }
+                write( output, to, bits, chunk );
+                from += bits;
+                to += bits;
+                remaining -= bits;
+            }
+        }
+    }
+
+    /**
+     * @return The 64 bits of the input starting at the given bit, padded with zeros past the end of the input.
+     */
+    private static long read( long[] input, int bit ) {
+        int word = bit >>> 6;
+        int shift = bit & 63;
+        long value = input[ word ] >>> shift;
+        if ( shift != 0 && word + 1 < input.length ) {
+            value |= input[ word + 1 ] << ( 64 - shift );
+        }
+        return value;
+    }
+
+    /**
+     * Ors the lowest bits of value into the output starting at the given bit. The bits of the output being written must
+     * be clear.
+     */
+    private static void write( long[] output, int bit, int bits, long value ) {
+        int word = bit >>> 6;
+        int shift = bit & 63;
+        output[ word ] |= value << shift;
+        if ( shift + bits > 64 ) {
+            output[ word + 1 ] |= value >>> ( 64 - shift );
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
+import com.kryptnostic.multivariate.gf2.PolynomialFunction;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+
+/**
+ * Plan for evaluating the pipelines of a parameterized function, which writes the output of every pipeline into its
+ * slot of a single extended input buffer.
+ *
+ * Pipelines are merged into a tree of stages, so stages that lead several pipelines are evaluated once and pipelines
+ * that are identical, which is common after parameterized functions are combined, are evaluated once and copied into
+ * each of their slots. Stages are matched by identity, since combining functions shares the same stage instances
+ * between pipelines. Independent subtrees are evaluated concurrently on the fork join pool of the execution context when
+ * there is enough work to pay for handing them to other threads.
+ */
+public class PipelineEvaluationPlan {
+    /**
+     * Number of monomials across all stages below which pipelines are always evaluated on the calling thread.
+     */
+    public static final int      PARALLEL_THRESHOLD = 1 << 14;
+
+    private final List<Stage>    roots;
+    private final Stage[]        pipelineStages;
+    private final int[]          pipelineOffsets;
+    private final int[]          pipelineLengths;
+    private final int            outputLength;
+    private final int            stageCount;
+    private final long           cost;
+
+    /**
+     * @param inputLength Input length of every pipeline.
+     * @param pipelines Pipelines whose outputs are written one after another.
+     */
+    public PipelineEvaluationPlan( int inputLength, List<CompoundPolynomialFunction> pipelines ) {
+        this.roots = Lists.newArrayList();
+        this.pipelineStages = new Stage[ pipelines.size() ];
+        this.pipelineOffsets = new int[ pipelines.size() ];
+        this.pipelineLengths = new int[ pipelines.size() ];
+
+        int offset = 0;
+        int stages = 0;
+        long totalCost = 0;
+        for ( int i = 0; i < pipelines.size(); ++i ) {
+            CompoundPolynomialFunction pipeline = pipelines.get( i );
+            Preconditions.checkArgument(
+                    pipeline.getInputLength() == inputLength,
+                    "The input length of each pipeline must match the plan." );
+            Stage stage = null;
+            List<Stage> children = roots;
+            for ( PolynomialFunction function : pipeline.getFunctions() ) {
+                Stage next = find( children, function );
+                if ( next == null ) {
+                    next = new Stage( function, stages++ );
+                    children.add( next );
+                    totalCost += next.cost;
+                }
+                stage = next;
+                children = next.children;
+            }
+            pipelineStages[ i ] = stage;
+            pipelineOffsets[ i ] = offset;
+            pipelineLengths[ i ] = stage == null ? inputLength : stage.function.getOutputLength();
+            offset += pipelineLengths[ i ];
+        }
+        this.outputLength = offset;
+        this.stageCount = stages;
+        this.cost = totalCost;
+    }
+
+    /**
+     * @return The number of bits written by {@link #evaluate(long[], long[], int, PolynomialExecutionContext)}.
+     */
+    public int getOutputLength() {
+        return outputLength;
+    }
+
+    /**
+     * @return The number of distinct stages evaluated for each input.
+     */
+    public int getStageCount() {
+        return stageCount;
+    }
+
+    /**
+     * Evaluates every pipeline and writes their outputs one after another into destination.
+     *
+     * @param input Words of the pipeline input.
+     * @param destination Buffer receiving the pipeline outputs, with room for at least one word past the last bit.
+     * @param offset Bit offset in destination of the first pipeline's output.
+     * @param context Context to run parallel work on.
+     */
+    public void evaluate( long[] input, long[] destination, int offset, PolynomialExecutionContext context ) {
+        long[][] outputs = new long[ stageCount ][];
+        if ( roots.size() > 1 && cost >= PARALLEL_THRESHOLD ) {
+            evaluateConcurrently( input, outputs, context );
+            copyOutputs( input, outputs, destination, offset );
+        } else {
+            try {
+                for ( Stage root : roots ) {
+                    evaluate( root, input, outputs, false );
+                }
+                copyOutputs( input, outputs, destination, offset );
+            } finally {
+                for ( long[] output : outputs ) {
+                    ScratchBuffers.release( output );
+                }
+            }
+        }
+    }
+
+    private void copyOutputs( long[] input, long[][] outputs, long[] destination, int offset ) {
+        for ( int i = 0; i < pipelineStages.length; ++i ) {
+            long[] source = pipelineStages[ i ] == null ? input : outputs[ pipelineStages[ i ].index ];
+            BitVectors.copyBits( source, pipelineLengths[ i ], destination, offset + pipelineOffsets[ i ] );
+        }
+    }
+
+    /**
+     * Evaluates every subtree but the first as a task on the fork join pool of the context. Tasks are forked and joined
+     * when the caller is already a worker of the pool, so that joining helps with queued work instead of blocking.
+     * Other callers, such as threads of the context executor, reclaim any task the pool has not started yet, so a
+     * saturated pool slows evaluation down rather than leaving the caller waiting on work queued behind it. Outputs are
+     * written to newly allocated buffers rather than scratch buffers, since buffers shared between threads can only be
+     * released once every task has finished with them.
+     */
+    private void evaluateConcurrently( long[] input, long[][] outputs, PolynomialExecutionContext context ) {
+        ForkJoinPool pool = context.getForkJoinPool();
+        boolean inPool = ForkJoinTask.getPool() == pool;
+        SubtreeTask[] tasks = new SubtreeTask[ roots.size() ];
+        for ( int i = 1; i < roots.size(); ++i ) {
+            tasks[ i ] = new SubtreeTask( roots.get( i ), input, outputs, inPool ? null : new AtomicBoolean() );
+            if ( inPool ) {
+                tasks[ i ].fork();
+            } else {
+                pool.execute( tasks[ i ] );
+            }
+        }
+
+        evaluate( roots.get( 0 ), input, outputs, true );
+        for ( int i = tasks.length - 1; i > 0; --i ) {
+            SubtreeTask task = tasks[ i ];
+            if ( !inPool && task.claim() ) {
+                task.evaluateSubtree();
+            } else {
+                task.join();
+            }
+        }
+    }
+
+    private void evaluate( Stage stage, long[] input, long[][] outputs, boolean allocate ) {
+        int words = BitVectors.wordsFor( stage.function.getOutputLength() );
+        long[] output = allocate ? new long[ words ] : ScratchBuffers.acquire( words );
+        stage.function.applyInto( input, output );
+        outputs[ stage.index ] = output;
+        for ( Stage child : stage.children ) {
+            evaluate( child, output, outputs, allocate );
+        }
+    }
+
+    /**
+     * Evaluates a subtree of stages. Tasks handed to the pool from outside carry a claim flag so that exactly one of the
+     * pool and the calling thread evaluates them.
+     */
+    private class SubtreeTask extends RecursiveAction {
+        private static final long   serialVersionUID = -2915387071440226415L;
+
+        private final Stage         root;
+        private final long[]        input;
+        private final long[][]      outputs;
+        private final AtomicBoolean claimed;
+
+        public SubtreeTask( Stage root, long[] input, long[][] outputs, AtomicBoolean claimed ) {
+            this.root = root;
+            this.input = input;
+            this.outputs = outputs;
+            this.claimed = claimed;
+        }
+
+        public boolean claim() {
+            return claimed == null || claimed.compareAndSet( false, true );
+        }
+
+        @Override
+        protected void compute() {
+            if ( claim() ) {
+                evaluateSubtree();
+            }
+        }
+
+        public void evaluateSubtree() {
+            evaluate( root, input, outputs, true );
+        }
+    }
+
+    private static Stage find( List<Stage> stages, PolynomialFunction function ) {
+        for ( Stage stage : stages ) {
+            if ( stage.function == function ) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    private static long costOf( PolynomialFunction function ) {
+        if ( function instanceof SimplePolynomialFunction ) {
+            return ( (SimplePolynomialFunction) function ).getTotalMonomialCount();
+        }
+        if ( function instanceof CompoundPolynomialFunction ) {
+            long total = 0;
+            for ( PolynomialFunction stage : ( (CompoundPolynomialFunction) function ).getFunctions() ) {
+                total += costOf( stage );
+            }
+            return total;
+        }
+        return function.getInputLength();
+    }
+
+    private static class Stage {
+        private final PolynomialFunction function;
+        private final int                index;
+        private final long               cost;
+        private final List<Stage>        children = Lists.newArrayListWithCapacity( 1 );
+
+        public Stage( PolynomialFunction function, int index ) {
+            this.function = function;
+            this.index = index;
+            this.cost = costOf( function );
+        }
+    }
+}
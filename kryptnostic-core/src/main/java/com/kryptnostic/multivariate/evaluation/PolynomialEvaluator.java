@@ -0,0 +1,16 @@
+package com.kryptnostic.multivariate.evaluation;
+
+/**
+ * An engine for evaluating a fixed polynomial function over GF(2) on the words of an input vector. Evaluators are
+ * built once from a function's monomials and contributions and are expected to be immutable and safe to share between
+ * threads.
+ */
+public interface PolynomialEvaluator {
+    /**
+     * Evaluates the function, overwriting the first {@code ceil( outputLength / 64 )} words of output.
+     * 
+     * @param input Words of the input.
+     * @param output Buffer to receive the words of the result.
+     */
+    void evaluate( long[] input, long[] output );
+}
@@ -0,0 +1,365 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Owns the threads used by parallel polynomial operations, such as evaluation of large functions and composition.
+ * Separate contexts allow work with different latency requirements, for example key generation and encryption, to be
+ * isolated from each other in the same JVM.
+ *
+ * Each context has a work stealing {@link ForkJoinPool} for evaluation and an executor for coarser grained tasks. Both
+ * are created when the context is built and released by {@link #shutdown()}. Operations that are not passed a context
+ * use {@link #getDefault()}, whose threads are daemon threads so that it never prevents the JVM from exiting.
+ */
+public class PolynomialExecutionContext implements Closeable {
+    private static final Object                        defaultLock = new Object();
+    private static volatile PolynomialExecutionContext defaultContext;
+
+    private final String                               name;
+    private final int                                  parallelism;
+    private final ForkJoinPool                         forkJoinPool;
+    private final ListeningExecutorService             executor;
+    private final File                                 spillDirectory;
+
+    private PolynomialExecutionContext( Builder builder ) {
+        this.name = builder.name;
+        this.parallelism = builder.parallelism;
+        this.spillDirectory = builder.spillDirectory;
+        this.forkJoinPool = new ForkJoinPool(
+                parallelism,
+                new WorkerThreadFactory( name, builder.daemon ),
+                null,
+                false );
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat( name + "-task-%d" )
+                .setDaemon( builder.daemon ).build();
+        Timer taskTimer = null;
+        if ( builder.metrics != null ) {
+            taskTimer = builder.metrics.timer( MetricRegistry.name( name, "tasks" ) );
+            registerGauges( builder.metrics );
+        }
+        if ( builder.threadPerTask ) {
+            this.executor = MoreExecutors.listeningDecorator( new TimedThreadPoolExecutor(
+                    0,
+                    Integer.MAX_VALUE,
+                    new SynchronousQueue<Runnable>(),
+                    threadFactory,
+                    taskTimer ) );
+        } else {
+            this.executor = MoreExecutors.listeningDecorator( new TimedThreadPoolExecutor(
+                    parallelism,
+                    parallelism,
+                    new LinkedBlockingQueue<Runnable>(),
+                    threadFactory,
+                    taskTimer ) );
+        }
+    }
+
+    /**
+     * @return The context used by operations that aren't passed one, creating it on first use.
+     */
+    public static PolynomialExecutionContext getDefault() {
+        PolynomialExecutionContext context = defaultContext;
+        if ( context == null ) {
+            synchronized ( defaultLock ) {
+                context = defaultContext;
+                if ( context == null ) {
+                    context = builder().build();
+                    defaultContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Replaces the default context. The previous default context is not shut down, since operations may still be
+     * running on it.
+     *
+     * @param context The new default context.
+     * @return The previous default context, or null if none had been created.
+     */
+    public static PolynomialExecutionContext setDefault( PolynomialExecutionContext context ) {
+        Preconditions.checkNotNull( context, "Default execution context cannot be null." );
+        synchronized ( defaultLock ) {
+            PolynomialExecutionContext previous = defaultContext;
+            defaultContext = context;
+            return previous;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of worker threads used for evaluation and composition.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return The pool used to evaluate large functions.
+     */
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    /**
+     * @return The executor used for coarse grained tasks, such as expanding monomials during composition.
+     */
+    public ListeningExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return The directory compositions too large for memory are spilled to, or null if they may not be spilled.
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Runs every task, sharing them between the calling thread and the executor. Tasks are claimed in order by whichever
+     * thread gets to them first, and the calling thread keeps claiming tasks until none are left before it waits. Only
+     * tasks already running on other threads are waited for, so this can't deadlock when called from a thread of the
+     * executor while every other thread is busy.
+     *
+     * @param tasks The tasks to run.
+     * @return The results of the tasks, in the same order as the tasks.
+     */
+    public <T> List<T> invokeAll( final List<? extends Callable<T>> tasks ) {
+        @SuppressWarnings( "unchecked" )
+        final T[] results = (T[]) new Object[ tasks.size() ];
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch( tasks.size() );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Runnable runner = new Runnable() {
+            @Override
+            public void run() {
+                for ( int i = next.getAndIncrement(); i < tasks.size(); i = next.getAndIncrement() ) {
+                    try {
+                        if ( failure.get() == null ) {
+                            results[ i ] = tasks.get( i ).call();
+                        }
+                    } catch ( Throwable t ) {
+                        failure.compareAndSet( null, t );
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        try {
+            // Helpers that start after every task has been claimed return immediately.
+            for ( int i = 1; i < Math.min( tasks.size(), parallelism + 1 ); ++i ) {
+                executor.execute( runner );
+            }
+        } catch ( RejectedExecutionException e ) {
+            // The executor has been shut down, so the calling thread runs every task.
+        }
+        runner.run();
+        Uninterruptibles.awaitUninterruptibly( done );
+
+        Throwable t = failure.get();
+        if ( t != null ) {
+            throw Throwables.propagate( t );
+        }
+        return Arrays.asList( results );
+    }
+
+    /**
+     * Stops accepting new work. Work that has already been submitted is allowed to finish.
+     */
+    public void shutdown() {
+        forkJoinPool.shutdown();
+        executor.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return forkJoinPool.isShutdown() && executor.isShutdown();
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    private void registerGauges( MetricRegistry metrics ) {
+        metrics.register( MetricRegistry.name( name, "fork-join", "active" ), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return forkJoinPool.getActiveThreadCount();
+            }
+        } );
+        metrics.register( MetricRegistry.name( name, "fork-join", "queued" ), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return forkJoinPool.getQueuedTaskCount() + forkJoinPool.getQueuedSubmissionCount();
+            }
+        } );
+        metrics.register( MetricRegistry.name( name, "fork-join", "steals" ), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return forkJoinPool.getStealCount();
+            }
+        } );
+    }
+
+    public static class Builder {
+        private String         name           = "polynomial";
+        private int            parallelism    = Math.max( Runtime.getRuntime().availableProcessors() - 1, 1 );
+        private boolean        daemon         = true;
+        private boolean        threadPerTask  = false;
+        private MetricRegistry metrics        = null;
+        private File           spillDirectory = null;
+
+        private Builder() {}
+
+        /**
+         * @param name Prefix for thread and metric names.
+         */
+        public Builder name( String name ) {
+            this.name = Preconditions.checkNotNull( name, "Name cannot be null." );
+            return this;
+        }
+
+        /**
+         * @param parallelism Number of worker threads, defaults to one less than the number of processors.
+         */
+        public Builder parallelism( int parallelism ) {
+            Preconditions.checkArgument( parallelism > 0, "Parallelism must be positive." );
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param daemon Whether worker threads are daemon threads, defaults to true.
+         */
+        public Builder daemon( boolean daemon ) {
+            this.daemon = daemon;
+            return this;
+        }
+
+        /**
+         * @param threadPerTask Whether coarse grained tasks each get a new thread instead of sharing a fixed pool.
+         */
+        public Builder threadPerTask( boolean threadPerTask ) {
+            this.threadPerTask = threadPerTask;
+            return this;
+        }
+
+        /**
+         * @param metrics Registry to report task timings and pool activity to.
+         */
+        public Builder metrics( MetricRegistry metrics ) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param spillDirectory Directory that compositions too large for memory write their intermediate results to,
+         *            which should only be accessible to the user running the process. Compositions are never spilled
+         *            by default.
+         */
+        public Builder spillDirectory( File spillDirectory ) {
+            Preconditions.checkArgument(
+                    spillDirectory == null || spillDirectory.isDirectory(),
+                    "Spill directory must be an existing directory." );
+            this.spillDirectory = spillDirectory;
+            return this;
+        }
+
+        public PolynomialExecutionContext build() {
+            return new PolynomialExecutionContext( this );
+        }
+    }
+
+    private static class WorkerThreadFactory implements ForkJoinWorkerThreadFactory {
+        private final String  name;
+        private final boolean daemon;
+
+        public WorkerThreadFactory( String name, boolean daemon ) {
+            this.name = name;
+            this.daemon = daemon;
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread( ForkJoinPool pool ) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread( pool ) {};
+            thread.setName( name + "-" + thread.getName() );
+            thread.setDaemon( daemon );
+            return thread;
+        }
+    }
+
+    /**
+     * Thread pool that times each task when a timer is provided. Idle threads are released immediately, which makes an
+     * unbounded pool behave as a thread per task executor.
+     */
+    private static class TimedThreadPoolExecutor extends ThreadPoolExecutor {
+        private final Timer timer;
+
+        public TimedThreadPoolExecutor(
+                int corePoolSize,
+                int maximumPoolSize,
+                BlockingQueue<Runnable> queue,
+                ThreadFactory threadFactory,
+                Timer timer ) {
+            super( corePoolSize, maximumPoolSize, 0L, TimeUnit.MILLISECONDS, queue, threadFactory );
+            this.timer = timer;
+        }
+
+        @Override
+        public void execute( final Runnable command ) {
+            if ( timer == null ) {
+                super.execute( command );
+                return;
+            }
+            super.execute( new Runnable() {
+                @Override
+                public void run() {
+                    Timer.Context context = timer.time();
+                    try {
+                        command.run();
+                    } finally {
+                        context.stop();
+                    }
+                }
+            } );
+        }
+    }
+}
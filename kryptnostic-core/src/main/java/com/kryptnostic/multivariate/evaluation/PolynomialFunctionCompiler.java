@@ -0,0 +1,424 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Compiles a fixed polynomial function into generated classes of straight line code, one statement block per
+ * monomial, with the monomial masks and contributions inlined as long constants. This lets the JIT see constant masks
+ * instead of walking arrays, which is worthwhile for functions that are built once and evaluated many times, such as
+ * the encrypter and decryptor of a key.
+ *
+ * Source is generated and compiled with the system Java compiler into a private class loader. Monomials are split
+ * across several methods so that each stays below the JIT's size limit for compilation, and across several classes so
+ * that each stays well within the limits of the class file constant pool. If no system compiler is available, for
+ * example when running on a JRE, or compilation fails, no evaluator is produced and callers should keep using an
+ * interpreted evaluator.
+ */
+public class PolynomialFunctionCompiler {
+    private static final Logger     logger                = LoggerFactory.getLogger( PolynomialFunctionCompiler.class );
+
+    /**
+     * Estimated bytecode size of generated methods is kept below the JIT's 8000 byte limit on compiled methods.
+     */
+    public static final int         MAX_METHOD_BYTES      = 6000;
+
+    /**
+     * Number of long constants per generated class, each of which takes two constant pool entries.
+     */
+    public static final int         MAX_CLASS_CONSTANTS   = 12000;
+
+    private static final String     CLASS_NAME_PREFIX     = "CompiledPolynomialFunction";
+    private static final String     FRAGMENT_INTERFACE    = Fragment.class.getCanonicalName();
+    private static final AtomicLong sequence              = new AtomicLong();
+
+    /*
+     * Rough bytecode costs used to size generated methods.
+     */
+    private static final int        BYTES_PER_MONOMIAL    = 8;
+    private static final int        BYTES_PER_MASK_WORD   = 14;
+    private static final int        BYTES_PER_OUTPUT_WORD = 9;
+
+    private PolynomialFunctionCompiler() {}
+
+    /**
+     * A generated class that XORs the contributions of some subset of a function's monomials into output.
+     */
+    public static interface Fragment {
+        void accumulate( long[] input, long[] output );
+    }
+
+    /**
+     * @return True if a system Java compiler is available for generating evaluators.
+     */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Generates and compiles an evaluator for the given function.
+     *
+     * @param inputLength The length of the inputs the monomials are defined over.
+     * @param outputLength The length of the contributions.
+     * @param monomials Monomials of the function.
+     * @param contributions Contribution of each monomial to the output.
+     * @return The compiled evaluator, or absent if code generation is not available.
+     */
+    public static Optional<PolynomialEvaluator> compile(
+            int inputLength,
+            int outputLength,
+            Monomial[] monomials,
+            BitVector[] contributions ) {
+        Preconditions.checkArgument(
+                monomials.length == contributions.length,
+                "Number of monomials must match number of contributions." );
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if ( compiler == null ) {
+            logger.warn( "No system Java compiler available, polynomial function will not be compiled." );
+            return Optional.absent();
+        }
+
+        int outputWords = BitVectors.wordsFor( outputLength );
+        List<JavaFileObject> sources = generate( inputLength, outputLength, monomials, contributions );
+        Map<String, byte[]> classes = Maps.newHashMap();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager( diagnostics, null, null );
+        boolean success = compiler.getTask(
+                null,
+                new ClassCollectingFileManager( standardFileManager, classes ),
+                diagnostics,
+                Arrays.asList( "-classpath", getClasspath(), "-g:none", "-nowarn" ),
+                null,
+                sources ).call();
+
+        if ( !success ) {
+            for ( Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics() ) {
+                logger.error( "Unable to compile polynomial function: {}", diagnostic );
+            }
+            return Optional.absent();
+        }
+
+        GeneratedClassLoader loader = new GeneratedClassLoader( Fragment.class.getClassLoader(), classes );
+        Fragment[] fragments = new Fragment[ sources.size() ];
+        try {
+            for ( int i = 0; i < fragments.length; ++i ) {
+                String className = sources.get( i ).getName();
+                className = className.substring( 1, className.length() - Kind.SOURCE.extension.length() );
+                fragments[ i ] = (Fragment) loader.loadClass( className ).newInstance();
+            }
+        } catch ( ReflectiveOperationException e ) {
+            logger.error( "Unable to load compiled polynomial function.", e );
+            return Optional.absent();
+        }
+
+        logger.debug( "Compiled {} monomials into {} classes.", monomials.length, fragments.length );
+        return Optional.<PolynomialEvaluator> of( new CompiledEvaluator( outputWords, fragments ) );
+    }
+
+    /**
+     * Generates the source of one or more fragment classes that together cover every monomial.
+     */
+    static List<JavaFileObject> generate(
+            int inputLength,
+            int outputLength,
+            Monomial[] monomials,
+            BitVector[] contributions ) {
+        int inputWords = BitVectors.wordsFor( inputLength );
+        int outputWords = BitVectors.wordsFor( outputLength );
+        long id = sequence.incrementAndGet();
+
+        List<JavaFileObject> sources = Lists.newArrayList();
+        ClassWriter writer = new ClassWriter( CLASS_NAME_PREFIX + id + "_0", inputWords, outputWords );
+        for ( int i = 0; i < monomials.length; ++i ) {
+            long[] mask = words( monomials[ i ], inputLength, inputWords );
+            long[] contribution = words( contributions[ i ], outputLength, outputWords );
+            if ( isZero( contribution ) ) {
+                continue;
+            }
+
+            if ( writer.isFull() ) {
+                sources.add( writer.finish() );
+                writer = new ClassWriter( CLASS_NAME_PREFIX + id + "_" + sources.size(), inputWords, outputWords );
+            }
+            writer.add( mask, contribution );
+        }
+        sources.add( writer.finish() );
+        return sources;
+    }
+
+    private static long[] words( BitVector v, int length, int words ) {
+        long[] result = Arrays.copyOf( v.elements(), words );
+        int leftover = length & 63;
+        if ( leftover != 0 ) {
+            result[ words - 1 ] &= ( 1L << leftover ) - 1;
+        }
+        return result;
+    }
+
+    private static boolean isZero( long[] words ) {
+        for ( long word : words ) {
+            if ( word != 0L ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getClasspath() {
+        String classpath = System.getProperty( "java.class.path" );
+        CodeSource source = Fragment.class.getProtectionDomain().getCodeSource();
+        if ( source != null && source.getLocation() != null ) {
+            try {
+                classpath = new File( source.getLocation().toURI() ).getPath() + File.pathSeparator + classpath;
+            } catch ( URISyntaxException | IllegalArgumentException e ) {
+                logger.debug( "Unable to resolve location of compiled fragment interface.", e );
+            }
+        }
+        return classpath;
+    }
+
+    /**
+     * Writes the source of a single generated class, splitting its monomials into methods that stay below
+     * {@link #MAX_METHOD_BYTES}.
+     */
+    private static class ClassWriter {
+        private final String        className;
+        private final int           inputWords;
+        private final int           outputWords;
+        private final StringBuilder methods     = new StringBuilder();
+        private final StringBuilder body        = new StringBuilder();
+        private final boolean[]     inputsUsed;
+        private final boolean[]     outputsUsed;
+        private int                 methodCount = 0;
+        private int                 methodBytes = 0;
+        private int                 constants   = 0;
+
+        public ClassWriter( String className, int inputWords, int outputWords ) {
+            this.className = className;
+            this.inputWords = inputWords;
+            this.outputWords = outputWords;
+            this.inputsUsed = new boolean[ inputWords ];
+            this.outputsUsed = new boolean[ outputWords ];
+        }
+
+        public boolean isFull() {
+            return constants >= MAX_CLASS_CONSTANTS;
+        }
+
+        public void add( long[] mask, long[] contribution ) {
+            int bytes = BYTES_PER_MONOMIAL;
+            for ( long word : mask ) {
+                bytes += word != 0L ? BYTES_PER_MASK_WORD : 0;
+            }
+            for ( long word : contribution ) {
+                bytes += word != 0L ? BYTES_PER_OUTPUT_WORD : 0;
+            }
+            if ( methodBytes + bytes > MAX_METHOD_BYTES ) {
+                finishMethod();
+            }
+            methodBytes += bytes;
+
+            StringBuilder condition = new StringBuilder();
+            for ( int i = 0; i < inputWords; ++i ) {
+                if ( mask[ i ] != 0L ) {
+                    if ( condition.length() > 0 ) {
+                        condition.append( " && " );
+                    }
+                    String constant = literal( mask[ i ] );
+                    condition.append( "( i" ).append( i ).append( " & " ).append( constant ).append( " ) == " )
+                            .append( constant );
+                    inputsUsed[ i ] = true;
+                    ++constants;
+                }
+            }
+
+            String indent = "        ";
+            if ( condition.length() > 0 ) {
+                body.append( indent ).append( "if ( " ).append( condition ).append( " ) {\n" );
+                indent = "            ";
+            }
+            for ( int i = 0; i < outputWords; ++i ) {
+                if ( contribution[ i ] != 0L ) {
+                    body.append( indent ).append( "o" ).append( i ).append( " ^= " )
+                            .append( literal( contribution[ i ] ) ).append( ";\n" );
+                    outputsUsed[ i ] = true;
+                    ++constants;
+                }
+            }
+            if ( condition.length() > 0 ) {
+                body.append( "        }\n" );
+            }
+        }
+
+        public JavaFileObject finish() {
+            finishMethod();
+            StringBuilder source = new StringBuilder();
+            source.append( "public final class " ).append( className ).append( " implements " )
+                    .append( FRAGMENT_INTERFACE ).append( " {\n" );
+            source.append( "    public void accumulate( long[] input, long[] output ) {\n" );
+            for ( int i = 0; i < methodCount; ++i ) {
+                source.append( "        chunk" ).append( i ).append( "( input, output );\n" );
+            }
+            source.append( "    }\n" );
+            source.append( methods );
+            source.append( "}\n" );
+            return new SourceFile( className, source.toString() );
+        }
+
+        private void finishMethod() {
+            if ( body.length() == 0 ) {
+                return;
+            }
+            methods.append( "    private static void chunk" ).append( methodCount++ )
+                    .append( "( long[] input, long[] output ) {\n" );
+            for ( int i = 0; i < inputWords; ++i ) {
+                if ( inputsUsed[ i ] ) {
+                    methods.append( "        final long i" ).append( i ).append( " = input[ " ).append( i )
+                            .append( " ];\n" );
+                }
+            }
+            for ( int i = 0; i < outputWords; ++i ) {
+                if ( outputsUsed[ i ] ) {
+                    methods.append( "        long o" ).append( i ).append( " = 0L;\n" );
+                }
+            }
+            methods.append( body );
+            for ( int i = 0; i < outputWords; ++i ) {
+                if ( outputsUsed[ i ] ) {
+                    methods.append( "        output[ " ).append( i ).append( " ] ^= o" ).append( i ).append( ";\n" );
+                }
+            }
+            methods.append( "    }\n" );
+
+            body.setLength( 0 );
+            Arrays.fill( inputsUsed, false );
+            Arrays.fill( outputsUsed, false );
+            methodBytes = 0;
+        }
+
+        private static String literal( long word ) {
+            return "0x" + Long.toHexString( word ) + "L";
+        }
+    }
+
+    /**
+     * Evaluator that runs every generated fragment of a function.
+     */
+    private static class CompiledEvaluator implements PolynomialEvaluator {
+        private final int        outputWords;
+        private final Fragment[] fragments;
+
+        public CompiledEvaluator( int outputWords, Fragment[] fragments ) {
+            this.outputWords = outputWords;
+            this.fragments = fragments;
+        }
+
+        @Override
+        public void evaluate( long[] input, long[] output ) {
+            Arrays.fill( output, 0, outputWords, 0L );
+            for ( Fragment fragment : fragments ) {
+                fragment.accumulate( input, output );
+            }
+        }
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        public SourceFile( String className, String source ) {
+            super( URI.create( "string:///" + className + Kind.SOURCE.extension ), Kind.SOURCE );
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent( boolean ignoreEncodingErrors ) {
+            return source;
+        }
+    }
+
+    private static class ClassFile extends SimpleJavaFileObject {
+        private final String              className;
+        private final Map<String, byte[]> classes;
+
+        public ClassFile( String className, Map<String, byte[]> classes ) {
+            super( URI.create( "bytes:///" + className + Kind.CLASS.extension ), Kind.CLASS );
+            this.className = className;
+            this.classes = classes;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    classes.put( className, toByteArray() );
+                }
+            };
+        }
+    }
+
+    private static class ClassCollectingFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, byte[]> classes;
+
+        public ClassCollectingFileManager( StandardJavaFileManager fileManager, Map<String, byte[]> classes ) {
+            super( fileManager );
+            this.classes = classes;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput( Location location, String className, Kind kind, FileObject sibling ) {
+            return new ClassFile( className, classes );
+        }
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+        private final ConcurrentMap<String, byte[]> classes;
+
+        public GeneratedClassLoader( ClassLoader parent, Map<String, byte[]> classes ) {
+            super( parent );
+            this.classes = Maps.newConcurrentMap();
+            this.classes.putAll( classes );
+        }
+
+        @Override
+        protected Class<?> findClass( String name ) throws ClassNotFoundException {
+            byte[] bytes = classes.remove( name );
+            if ( bytes == null ) {
+                throw new ClassNotFoundException( name );
+            }
+            return defineClass( name, bytes, 0, bytes.length );
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Evaluator for multivariate quadratic functions over GF(2). The function is stored as one bucket per variable, in the
+ * same triangular layout as {@code BasePolynomialFunction.bucket()}: the bucket for x<sub>i</sub> holds the
+ * contribution of x<sub>i</sub> and of every x<sub>i</sub>x<sub>j</sub> with j &gt; i. Evaluation only visits the
+ * buckets of variables that are set in the input, so no membership test is done for monomials that cannot be
+ * satisfied.
+ */
+public class QuadraticEvaluator implements PolynomialEvaluator {
+    private final int    inputLength;
+    private final int    outputWords;
+    private final long[] constant;
+    private final int[]  linearOffsets;
+    private final long[] linear;
+    private final int[]  bucketStarts;
+    private final int[]  partners;
+    private final long[] quadratic;
+
+    /**
+     * @param inputLength The length of the inputs the monomials are defined over.
+     * @param outputLength The length of the contributions.
+     * @param monomials Monomials of the function, each of order at most 2.
+     * @param contributions Contribution of each monomial to the output.
+     */
+    public QuadraticEvaluator( int inputLength, int outputLength, Monomial[] monomials, BitVector[] contributions ) {
+        Preconditions.checkArgument(
+                monomials.length == contributions.length,
+                "Number of monomials must match number of contributions." );
+        this.inputLength = inputLength;
+        this.outputWords = BitVectors.wordsFor( outputLength );
+        this.constant = new long[ outputWords ];
+        this.linearOffsets = new int[ inputLength ];
+        this.bucketStarts = new int[ inputLength + 1 ];
+
+        /*
+         * First pass sizes each bucket, second pass fills them in.
+         */
+        int linearCount = 0;
+        int[] bucketSizes = new int[ inputLength ];
+        Arrays.fill( linearOffsets, -1 );
+        for ( Monomial m : monomials ) {
+            int order = m.cardinality();
+            Preconditions.checkArgument( order <= 2, "Quadratic evaluator only supports monomials of order 2 or less." );
+            if ( order == 1 ) {
+                int i = firstFactor( m );
+                if ( linearOffsets[ i ] < 0 ) {
+                    linearOffsets[ i ] = ( linearCount++ ) * outputWords;
+                }
+            } else if ( order == 2 ) {
+                ++bucketSizes[ firstFactor( m ) ];
+            }
+        }
+
+        for ( int i = 0; i < inputLength; ++i ) {
+            bucketStarts[ i + 1 ] = bucketStarts[ i ] + bucketSizes[ i ];
+        }
+
+        this.linear = new long[ linearCount * outputWords ];
+        this.partners = new int[ bucketStarts[ inputLength ] ];
+        this.quadratic = new long[ partners.length * outputWords ];
+
+        int[] filled = new int[ inputLength ];
+        for ( int index = 0; index < monomials.length; ++index ) {
+            Monomial m = monomials[ index ];
+            long[] contribution = contributions[ index ].elements();
+            int order = m.cardinality();
+            if ( order == 0 ) {
+                xorInto( contribution, constant, 0 );
+            } else if ( order == 1 ) {
+                xorInto( contribution, linear, linearOffsets[ firstFactor( m ) ] );
+            } else {
+                int i = firstFactor( m );
+                int entry = bucketStarts[ i ] + filled[ i ]++;
+                partners[ entry ] = nextFactor( m, i + 1 );
+                xorInto( contribution, quadratic, entry * outputWords );
+            }
+        }
+
+        /*
+         * Contributions are kept clean past the output length so results can be written directly into callers buffers.
+         */
+        int leftover = outputLength & 63;
+        if ( leftover != 0 ) {
+            long mask = ( 1L << leftover ) - 1;
+            constant[ outputWords - 1 ] &= mask;
+            for ( int i = outputWords - 1; i < linear.length; i += outputWords ) {
+                linear[ i ] &= mask;
+            }
+            for ( int i = outputWords - 1; i < quadratic.length; i += outputWords ) {
+                quadratic[ i ] &= mask;
+            }
+        }
+    }
+
+    @Override
+    public void evaluate( long[] input, long[] output ) {
+        System.arraycopy( constant, 0, output, 0, outputWords );
+
+        int inputWords = BitVectors.wordsFor( inputLength );
+        int leftover = inputLength & 63;
+        for ( int word = 0; word < inputWords; ++word ) {
+            long bits = input[ word ];
+            if ( leftover != 0 && word == inputWords - 1 ) {
+                bits &= ( 1L << leftover ) - 1;
+            }
+
+            while ( bits != 0 ) {
+                int i = ( word << 6 ) + Long.numberOfTrailingZeros( bits );
+                bits &= bits - 1;
+
+                if ( linearOffsets[ i ] >= 0 ) {
+                    xorInto( linear, linearOffsets[ i ], output );
+                }
+
+                for ( int entry = bucketStarts[ i ]; entry < bucketStarts[ i + 1 ]; ++entry ) {
+                    int j = partners[ entry ];
+                    if ( ( ( input[ j >>> 6 ] >>> j ) & 1L ) != 0 ) {
+                        xorInto( quadratic, entry * outputWords, output );
+                    }
+                }
+            }
+        }
+    }
+
+    private void xorInto( long[] source, int offset, long[] destination ) {
+        for ( int i = 0; i < outputWords; ++i ) {
+            destination[ i ] ^= source[ offset + i ];
+        }
+    }
+
+    private void xorInto( long[] source, long[] destination, int offset ) {
+        int words = Math.min( source.length, outputWords );
+        for ( int i = 0; i < words; ++i ) {
+            destination[ offset + i ] ^= source[ i ];
+        }
+    }
+
+    private static int firstFactor( Monomial m ) {
+        return nextFactor( m, 0 );
+    }
+
+    private static int nextFactor( Monomial m, int from ) {
+        return m.indexOfFromTo( from, m.size() - 1, true );
+    }
+}
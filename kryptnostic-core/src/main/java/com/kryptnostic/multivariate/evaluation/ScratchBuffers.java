@@ -0,0 +1,87 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Per thread scratch space for functions that need intermediate buffers during evaluation. Every thread keeps one small
+ * pool of buffers keyed by size, shared by all functions, so the memory a long lived thread retains is bounded no
+ * matter how many functions it has evaluated. Buffers are rounded up to a power of two words and callers must only rely
+ * on the number of words they requested. Every buffer acquired should be released once the caller is done with it,
+ * after which it must no longer be used. Buffers that are never released, or that are too large to pool, are simply
+ * left to the garbage collector.
+ */
+public final class ScratchBuffers {
+    /**
+     * Buffers longer than this are allocated on each acquisition and never pooled.
+     */
+    public static final int                   MAX_POOLED_WORDS    = 1 << 14;
+
+    /**
+     * The number of released buffers of each size a thread keeps.
+     */
+    public static final int                   MAX_POOLED_PER_SIZE = 4;
+
+    private static final int                  SIZE_CLASSES        = Integer.numberOfTrailingZeros( MAX_POOLED_WORDS ) + 1;
+    private static final ThreadLocal<Pool>    POOLS               = new ThreadLocal<Pool>() {
+                                                                       @Override
+                                                                       protected Pool initialValue() {
+                                                                           return new Pool();
+                                                                       }
+                                                                   };
+
+    private ScratchBuffers() {}
+
+    /**
+     * @param words The minimum number of words required.
+     * @return A buffer of at least {@code words} words, with unspecified contents, that no other caller on this thread
+     *         holds until it is released.
+     */
+    public static long[] acquire( int words ) {
+        Preconditions.checkArgument( words >= 0, "The number of words must be non-negative." );
+        if ( words > MAX_POOLED_WORDS ) {
+            return new long[ words ];
+        }
+        int sizeClass = sizeClass( words );
+        Pool pool = POOLS.get();
+        int count = pool.counts[ sizeClass ];
+        if ( count == 0 ) {
+            return new long[ 1 << sizeClass ];
+        }
+        long[] buffer = pool.buffers[ sizeClass ][ --count ];
+        pool.buffers[ sizeClass ][ count ] = null;
+        pool.counts[ sizeClass ] = count;
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool of the calling thread. A buffer must be released at most once. Buffers that did not
+     * come from {@link #acquire(int)}, and buffers of a size the thread already keeps enough of, are dropped.
+     *
+     * @param buffer The buffer to release, which may be null.
+     */
+    public static void release( long[] buffer ) {
+        if ( buffer == null || buffer.length == 0 || buffer.length > MAX_POOLED_WORDS
+                || Integer.bitCount( buffer.length ) != 1 ) {
+            return;
+        }
+        int sizeClass = Integer.numberOfTrailingZeros( buffer.length );
+        Pool pool = POOLS.get();
+        int count = pool.counts[ sizeClass ];
+        if ( count < MAX_POOLED_PER_SIZE ) {
+            if ( pool.buffers[ sizeClass ] == null ) {
+                pool.buffers[ sizeClass ] = new long[ MAX_POOLED_PER_SIZE ][];
+            }
+            pool.buffers[ sizeClass ][ count ] = buffer;
+            pool.counts[ sizeClass ] = count + 1;
+        }
+    }
+
+    private static int sizeClass( int words ) {
+        return words <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros( words - 1 );
+    }
+
+    private static final class Pool {
+        private final long[][][] buffers = new long[ SIZE_CLASSES ][][];
+        private final int[]      counts  = new int[ SIZE_CLASSES ];
+    }
+}
@@ -0,0 +1,218 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+
+/**
+ * Truth table of a polynomial function over GF(2) with a small number of inputs, holding the output for each of the
+ * 2<sup>n</sup> inputs as a row of packed words, so evaluation is a single lookup.
+ *
+ * The algebraic normal form of a function, the sum of the contributions of its monomials, and its truth table are
+ * related by the binary Mobius transform: the output for an input x is the sum of the contributions of the monomials
+ * whose variables are a subset of x. The transform is computed in place with n passes over the table, and is its own
+ * inverse, so the same passes recover the monomials of a function from its outputs on every input. This takes
+ * O(n 2<sup>n</sup>) word operations per output word, rather than solving a linear system over sampled inputs.
+ *
+ * Tables take 2<sup>n</sup> rows of {@code ceil( outputLength / 64 )} words, so they are limited to
+ * {@link #MAX_INPUT_LENGTH} inputs. Instances are immutable and safe to share between threads.
+ */
+public class TruthTable implements PolynomialEvaluator {
+    /**
+     * Largest input length a table can be built for, which takes 128 MB per output word.
+     */
+    public static final int MAX_INPUT_LENGTH = 24;
+
+    private final int       inputLength;
+    private final int       outputLength;
+    private final int       outputWords;
+    private final long[]    rows;
+
+    /**
+     * Builds the truth table of a function from its monomials.
+     *
+     * @param inputLength The length of the inputs the monomials are defined over.
+     * @param outputLength The length of the contributions.
+     * @param monomials Monomials of the function.
+     * @param contributions Contribution of each monomial to the output.
+     */
+    public TruthTable( int inputLength, int outputLength, Monomial[] monomials, BitVector[] contributions ) {
+        this( inputLength, outputLength );
+        Preconditions.checkArgument(
+                monomials.length == contributions.length,
+                "Number of monomials must match number of contributions." );
+        long mask = mask( inputLength );
+        for ( int k = 0; k < monomials.length; ++k ) {
+            Preconditions.checkArgument(
+                    monomials[ k ].size() == inputLength,
+                    "Monomial size must equal input length." );
+            long[] words = monomials[ k ].elements();
+            int offset = (int) ( ( words.length == 0 ? 0L : words[ 0 ] & mask ) * outputWords );
+            long[] contribution = contributions[ k ].elements();
+            for ( int i = 0; i < Math.min( outputWords, contribution.length ); ++i ) {
+                rows[ offset + i ] ^= contribution[ i ];
+            }
+        }
+        clearPastOutputLength();
+        mobiusTransform( rows, inputLength, outputWords );
+    }
+
+    private TruthTable( int inputLength, int outputLength ) {
+        Preconditions.checkArgument(
+                inputLength >= 0 && inputLength <= MAX_INPUT_LENGTH,
+                "Truth tables are only supported for input lengths up to " + MAX_INPUT_LENGTH + "." );
+        this.inputLength = inputLength;
+        this.outputLength = outputLength;
+        this.outputWords = BitVectors.wordsFor( outputLength );
+        this.rows = new long[ ( 1 << inputLength ) * outputWords ];
+    }
+
+    /**
+     * @return The truth table of function, built from its monomials.
+     */
+    public static TruthTable fromFunction( SimplePolynomialFunction function ) {
+        Preconditions.checkArgument( !function.isParameterized(), "Parameterized functions are not supported." );
+        return new TruthTable(
+                function.getInputLength(),
+                function.getOutputLength(),
+                function.getMonomials(),
+                function.getContributions() );
+    }
+
+    /**
+     * Builds a truth table from the outputs of a function on every input.
+     *
+     * @param inputLength The length of the inputs.
+     * @param outputLength The length of the outputs.
+     * @param outputs The output for each input, in the order of the inputs read as integers with variable 0 as the
+     *            least significant bit.
+     * @return The truth table.
+     */
+    public static TruthTable fromOutputs( int inputLength, int outputLength, List<BitVector> outputs ) {
+        TruthTable table = new TruthTable( inputLength, outputLength );
+        Preconditions.checkArgument( outputs.size() == 1 << inputLength, "There must be an output for every input." );
+        for ( int x = 0; x < outputs.size(); ++x ) {
+            BitVector output = outputs.get( x );
+            Preconditions.checkArgument( output.size() == outputLength, "Output length does not match table." );
+            System.arraycopy( output.elements(), 0, table.rows, x * table.outputWords, table.outputWords );
+        }
+        table.clearPastOutputLength();
+        return table;
+    }
+
+    /**
+     * @return Every input of the given length, in the order used by {@link #fromOutputs(int, int, List)}.
+     */
+    public static List<BitVector> allInputs( int inputLength ) {
+        Preconditions.checkArgument(
+                inputLength >= 0 && inputLength <= MAX_INPUT_LENGTH,
+                "Truth tables are only supported for input lengths up to " + MAX_INPUT_LENGTH + "." );
+        List<BitVector> inputs = Lists.newArrayListWithCapacity( 1 << inputLength );
+        for ( long x = 0; x < 1 << inputLength; ++x ) {
+            inputs.add( new BitVector( new long[] { x }, inputLength ) );
+        }
+        return inputs;
+    }
+
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    public int getOutputLength() {
+        return outputLength;
+    }
+
+    /**
+     * Evaluates the function on an input.
+     *
+     * @param input Input of length {@code inputLength}.
+     * @return A newly allocated output of length {@code outputLength}.
+     */
+    public BitVector apply( BitVector input ) {
+        Preconditions.checkArgument( input.size() == inputLength, "Input length does not match table." );
+        long[] result = new long[ outputWords ];
+        evaluate( input.elements(), result );
+        return new BitVector( result, outputLength );
+    }
+
+    @Override
+    public void evaluate( long[] input, long[] output ) {
+        int offset = inputLength == 0 ? 0 : (int) ( input[ 0 ] & mask( inputLength ) ) * outputWords;
+        System.arraycopy( rows, offset, output, 0, outputWords );
+    }
+
+    /**
+     * Recovers the algebraic normal form of the table.
+     *
+     * @return A function with a monomial for each nonzero coefficient of the table.
+     */
+    public SimplePolynomialFunction toFunction() {
+        long[] coefficients = rows.clone();
+        mobiusTransform( coefficients, inputLength, outputWords );
+
+        List<Monomial> monomials = Lists.newArrayList();
+        List<BitVector> contributions = Lists.newArrayList();
+        for ( int u = 0; u < 1 << inputLength; ++u ) {
+            int offset = u * outputWords;
+            boolean zero = true;
+            for ( int i = 0; i < outputWords && zero; ++i ) {
+                zero = coefficients[ offset + i ] == 0L;
+            }
+            if ( !zero ) {
+                monomials.add( new Monomial( new long[] { u }, inputLength ) );
+                contributions.add( new BitVector(
+                        Arrays.copyOfRange( coefficients, offset, offset + outputWords ),
+                        outputLength ) );
+            }
+        }
+
+        if ( monomials.isEmpty() ) {
+            monomials.add( Monomial.constantMonomial( inputLength ) );
+            contributions.add( new BitVector( outputLength ) );
+        }
+        return new BasePolynomialFunction(
+                inputLength,
+                outputLength,
+                monomials.toArray( new Monomial[ 0 ] ),
+                contributions.toArray( new BitVector[ 0 ] ) );
+    }
+
+    /**
+     * Applies the binary Mobius transform in place to a table of 2<sup>inputLength</sup> rows of the given number of
+     * words. For each variable i, every row whose index has bit i set is XORed with the row whose index differs only in
+     * bit i. The transform maps coefficients of monomials to outputs on every input and back again.
+     */
+    public static void mobiusTransform( long[] rows, int inputLength, int words ) {
+        Preconditions.checkArgument( rows.length == ( 1 << inputLength ) * words, "Table size must match input length." );
+        for ( int i = 0; i < inputLength; ++i ) {
+            int stride = ( 1 << i ) * words;
+            for ( int block = 0; block < rows.length; block += stride << 1 ) {
+                for ( int j = block; j < block + stride; ++j ) {
+                    rows[ j + stride ] ^= rows[ j ];
+                }
+            }
+        }
+    }
+
+    private void clearPastOutputLength() {
+        int leftover = outputLength & 63;
+        if ( leftover != 0 ) {
+            long mask = ( 1L << leftover ) - 1;
+            for ( int i = outputWords - 1; i < rows.length; i += outputWords ) {
+                rows[ i ] &= mask;
+            }
+        }
+    }
+
+    private static long mask( int inputLength ) {
+        return ( 1L << inputLength ) - 1;
+    }
+}
@@ -9,10 +9,12 @@ import org.slf4j.LoggerFactory;
 
 import cern.colt.bitvector.BitVector;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.kryptnostic.bitwise.BitVectors;
 import com.kryptnostic.linear.EnhancedBitMatrix;
 import com.kryptnostic.linear.EnhancedBitMatrix.SingularMatrixException;
+import com.kryptnostic.multivariate.evaluation.TruthTable;
 import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.PolynomialFunction;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
@@ -28,6 +30,11 @@ import com.kryptnostic.multivariate.util.Monomials;
 public class MultivariateLearning {
 	private static final Logger logger = LoggerFactory.getLogger( MultivariateLearning.class );
 	private static final Integer MAX_INPUT_VECTORS = 1000000;
+	
+	/**
+	 * Largest input length accepted by {@link #learnFunctionExhaustively(PolynomialFunction)}, which materializes every input.
+	 */
+	public static final int EXHAUSTIVE_LEARNING_MAX_INPUT_LENGTH = 16;
 
 	/**
 	 * Given a polynomial and an assumed order of that polynomial, computes the inverse.
@@ -45,10 +52,7 @@ public class MultivariateLearning {
 		for (int quantityInput = monomials.size(); quantityInput < MAX_INPUT_VECTORS; quantityInput = quantityInput << 1) {
 			Pair<List<BitVector>,List<BitVector>> trainingData = getTrainingData( function, quantityInput);
 			functionInputs = trainingData.getLeft();
-			List<BitVector> functionOutputs = Lists.newArrayList();
-			for (BitVector output : trainingData.getRight()) {
-				functionOutputs.add( monomialsFunction.apply( output ) );
-			}
+			List<BitVector> functionOutputs = monomialsFunction.applyAll( trainingData.getRight() );
 			
 			coefficients = learnCoefficients(functionOutputs, functionInputs);
 			if ( coefficients != null) {
@@ -65,7 +69,7 @@ public class MultivariateLearning {
 	
 	/**
      * Given a polynomial and an assumed order of that polynomial, computes a representative polynomial of known coefficients
-     * and monomials.
+     * and monomials. Functions with few inputs can be learned exactly by {@link #learnFunctionExhaustively(PolynomialFunction)}.
      * @param function
      * @param order
      * @return Pair of function and training data over which it was valid
@@ -81,10 +85,7 @@ public class MultivariateLearning {
             Pair<List<BitVector>,List<BitVector>> trainingData = getTrainingData(function, quantityInput);
         	functionInputs = trainingData.getLeft();
             List<BitVector> functionOutputs = trainingData.getRight();
-            extendedInputs = Lists.newArrayListWithCapacity( functionInputs.size() );
-            for(BitVector input : functionInputs){
-                extendedInputs.add( monomialsFunction.apply( input ) );
-            }
+            extendedInputs = monomialsFunction.applyAll( functionInputs );
             
             coefficients = learnCoefficients(extendedInputs, functionOutputs);
             if ( coefficients != null) {
@@ -99,6 +100,25 @@ public class MultivariateLearning {
         return Pair.of( coefficients.multiply( monomialsFunction ) , functionInputs );
     }
 	
+    /**
+     * Evaluates the function on every input and recovers its monomials from the resulting {@link TruthTable}, which finds
+     * the exact function whatever its order.
+     * @param function A function with at most {@link #EXHAUSTIVE_LEARNING_MAX_INPUT_LENGTH} inputs.
+     * @return Pair of function and the inputs it was evaluated on
+     */
+    public static Pair<SimplePolynomialFunction, List <BitVector>> learnFunctionExhaustively(PolynomialFunction function) {
+        Preconditions.checkArgument(
+                function.getInputLength() <= EXHAUSTIVE_LEARNING_MAX_INPUT_LENGTH,
+                "Functions can only be learned exhaustively with up to " + EXHAUSTIVE_LEARNING_MAX_INPUT_LENGTH + " inputs." );
+        List<BitVector> inputs = TruthTable.allInputs( function.getInputLength() );
+        TruthTable table = TruthTable.fromOutputs(
+                function.getInputLength(),
+                function.getOutputLength(),
+                function.applyAll( inputs ) );
+        logger.info("Learned function from " + inputs.size() + " inputs");
+        return Pair.of( table.toFunction(), inputs );
+    }
+	
     /**
 	 * Attempts to compute the coefficients of a supplied polynomial function, given training data.
 	 * Returns null on failure to learn coefficients.
@@ -145,14 +165,11 @@ public class MultivariateLearning {
 	private static Pair<List<BitVector>, List<BitVector>> getTrainingData(
 			PolynomialFunction function, int quantity) {
 		List<BitVector> inputs = Lists.newArrayList();
-		List<BitVector> outputs = Lists.newArrayList();
 		for (int i = 0; i < quantity; i++) {
 			inputs.add( BitVectors.randomVector( function.getInputLength() ) );
 		}
 		
-		for (BitVector input : inputs) {
-			outputs.add( function.apply( input ) );
-		}
+		List<BitVector> outputs = function.applyAll( inputs );
 		
 		return Pair.of(inputs, outputs);
 	}
@@ -0,0 +1,220 @@
+package com.kryptnostic.multivariate.polynomial;
+
+import java.util.List;
+import java.util.Map;
+
+import cern.colt.bitvector.BitVector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.linear.EnhancedBitMatrix;
+import com.kryptnostic.multivariate.evaluation.AffineEvaluator;
+import com.kryptnostic.multivariate.evaluation.PolynomialEvaluator;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+/**
+ * Affine function over GF(2), {@code x -> x * M + c} where row i of M is the contribution of x<sub>i</sub>. This is
+ * what {@link BasePolynomialFunction#optimize()} returns for functions of order 1 or less, unless they are a
+ * {@link PermutationFunction}. Evaluation uses lookup tables over 8 bit chunks of the input, and composition and
+ * addition with other affine functions are done with matrix algebra instead of by expanding monomials.
+ *
+ * @see AffineEvaluator
+ */
+public class AffinePolynomialFunction extends OptimizedPolynomialFunctionGF2 {
+    private static final long                   serialVersionUID = 2284925036437410583L;
+
+    private transient volatile EnhancedBitMatrix rows;
+    private transient BitVector                  constant;
+
+    @JsonCreator
+    public AffinePolynomialFunction(
+            @JsonProperty( INPUT_LENGTH_PROPERTY ) int inputLength,
+            @JsonProperty( OUTPUT_LENGTH_PROPERTY ) int outputLength,
+            @JsonProperty( MONOMIALS_PROPERTY ) Monomial[] monomials,
+            @JsonProperty( CONTRIBUTIONS_PROPERTY ) BitVector[] contributions ) {
+        super( inputLength, outputLength, monomials, contributions );
+        Preconditions.checkArgument(
+                getMaximumMonomialOrder() <= 1,
+                "Affine functions cannot have monomials of order greater than 1." );
+    }
+
+    /**
+     * @param rows Matrix whose i-th row is the contribution of the i-th input variable.
+     * @param constant The output of the function for the zero input.
+     * @return The affine function {@code x -> x * rows + constant}.
+     */
+    public static AffinePolynomialFunction fromRows( EnhancedBitMatrix rows, BitVector constant ) {
+        int inputLength = rows.rows();
+        List<Monomial> monomials = Lists.newArrayListWithCapacity( inputLength + 1 );
+        List<BitVector> contributions = Lists.newArrayListWithCapacity( inputLength + 1 );
+        for ( int i = 0; i < inputLength; ++i ) {
+            BitVector row = rows.getRows().get( i );
+            Preconditions.checkArgument( row.size() == constant.size(), "Rows must be the same length as the constant." );
+            if ( row.cardinality() > 0 ) {
+                monomials.add( Monomial.linearMonomial( inputLength, i ) );
+                contributions.add( row.copy() );
+            }
+        }
+        if ( constant.cardinality() > 0 || monomials.isEmpty() ) {
+            monomials.add( Monomial.constantMonomial( inputLength ) );
+            contributions.add( constant.copy() );
+        }
+        return new AffinePolynomialFunction(
+                inputLength,
+                constant.size(),
+                monomials.toArray( new Monomial[ monomials.size() ] ),
+                contributions.toArray( new BitVector[ contributions.size() ] ) );
+    }
+
+    /**
+     * @return f if it is already an affine function, otherwise an affine function with the same monomials.
+     */
+    public static AffinePolynomialFunction fromFunction( SimplePolynomialFunction f ) {
+        Preconditions.checkArgument( isAffine( f ), "Function must be affine and not parameterized." );
+        if ( f instanceof AffinePolynomialFunction ) {
+            return (AffinePolynomialFunction) f;
+        }
+        return new AffinePolynomialFunction(
+                f.getInputLength(),
+                f.getOutputLength(),
+                f.getMonomials(),
+                f.getContributions() );
+    }
+
+    /**
+     * @return True if f has no monomials of order greater than 1 and isn't parameterized.
+     */
+    public static boolean isAffine( SimplePolynomialFunction f ) {
+        return f instanceof AffinePolynomialFunction || ( !f.isParameterized() && f.getMaximumMonomialOrder() <= 1 );
+    }
+
+    /**
+     * @return Matrix whose i-th row is the contribution of the i-th input variable.
+     */
+    @JsonIgnore
+    public EnhancedBitMatrix getRows() {
+        if ( rows == null ) {
+            EnhancedBitMatrix newRows = new EnhancedBitMatrix( inputLength, outputLength );
+            BitVector newConstant = new BitVector( outputLength );
+            for ( int i = 0; i < monomials.length; ++i ) {
+                Monomial m = monomials[ i ];
+                if ( m.isZero() ) {
+                    newConstant.xor( contributions[ i ] );
+                } else {
+                    newRows.getRows().get( m.indexOfFromTo( 0, m.size() - 1, true ) ).xor( contributions[ i ] );
+                }
+            }
+            constant = newConstant;
+            rows = newRows;
+        }
+        return rows;
+    }
+
+    /**
+     * @return The output of the function for the zero input.
+     */
+    @JsonIgnore
+    public BitVector getConstant() {
+        getRows();
+        return constant;
+    }
+
+    @Override
+    protected PolynomialEvaluator createEvaluator() {
+        return new AffineEvaluator( inputLength, outputLength, monomials, contributions );
+    }
+
+    @Override
+    public SimplePolynomialFunction optimize() {
+        return this;
+    }
+
+    /**
+     * Adds two affine functions by adding their matrices and constants.
+     *
+     * @see com.kryptnostic.multivariate.polynomial.BasePolynomialFunction#xor(com.kryptnostic.multivariate.gf2.SimplePolynomialFunction)
+     */
+    @Override
+    public SimplePolynomialFunction xor( SimplePolynomialFunction rhs ) {
+        if ( !isAffine( rhs ) || rhs.getInputLength() != inputLength || rhs.getOutputLength() != outputLength ) {
+            return super.xor( rhs );
+        }
+        AffinePolynomialFunction affine = fromFunction( rhs );
+        BitVector newConstant = getConstant().copy();
+        newConstant.xor( affine.getConstant() );
+        return fromRows( getRows().add( affine.getRows() ), newConstant );
+    }
+
+    /**
+     * Composes with permutations by relabelling monomials and with other affine functions by multiplying matrices.
+     * Other functions that aren't parameterized have each of their contributions multiplied by the matrix of this
+     * function, since no new monomials can be formed.
+     *
+     * @see com.kryptnostic.multivariate.polynomial.BasePolynomialFunction#compose(com.kryptnostic.multivariate.gf2.SimplePolynomialFunction,
+     *      com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext)
+     */
+    @Override
+    public SimplePolynomialFunction compose( SimplePolynomialFunction inner, PolynomialExecutionContext context ) {
+        Preconditions.checkArgument(
+                inputLength == inner.getOutputLength(),
+                "Input length of outer function must match output length of inner function it is being composed with" );
+        if ( inner instanceof PermutationFunction ) {
+            return ( (PermutationFunction) inner ).relabel( this );
+        }
+        if ( isAffine( inner ) ) {
+            AffinePolynomialFunction affine = fromFunction( inner );
+            BitVector newConstant = multiply( affine.getConstant() );
+            newConstant.xor( getConstant() );
+            return fromRows( affine.getRows().multiply( getRows() ), newConstant );
+        }
+        if ( inner.isParameterized() ) {
+            return super.compose( inner, context );
+        }
+
+        Monomial[] innerMonomials = inner.getMonomials();
+        BitVector[] innerContributions = inner.getContributions();
+        Map<Monomial, BitVector> monomialContributionsMap = Maps.newHashMapWithExpectedSize( innerMonomials.length + 1 );
+        for ( int i = 0; i < innerMonomials.length; ++i ) {
+            accumulate( monomialContributionsMap, innerMonomials[ i ], multiply( innerContributions[ i ] ) );
+        }
+        accumulate( monomialContributionsMap, Monomial.constantMonomial( inner.getInputLength() ), getConstant().copy() );
+        return SimplePolynomialFunctions.fromMonomialContributionMap(
+                inner.getInputLength(),
+                outputLength,
+                monomialContributionsMap );
+    }
+
+    private static void accumulate( Map<Monomial, BitVector> monomialContributionsMap, Monomial m, BitVector contribution ) {
+        BitVector existing = monomialContributionsMap.get( m );
+        if ( existing == null ) {
+            monomialContributionsMap.put( m.clone(), contribution );
+        } else {
+            existing.xor( contribution );
+        }
+    }
+
+    /**
+     * @return The linear part of this function applied to v, the XOR of the rows selected by v.
+     */
+    private BitVector multiply( BitVector v ) {
+        List<BitVector> matrixRows = getRows().getRows();
+        BitVector result = new BitVector( outputLength );
+        long[] words = v.elements();
+        for ( int i = 0; i < BitVectors.wordsFor( v.size() ); ++i ) {
+            long word = words[ i ];
+            while ( word != 0L ) {
+                result.xor( matrixRows.get( ( i << 6 ) + Long.numberOfTrailingZeros( word ) ) );
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+}
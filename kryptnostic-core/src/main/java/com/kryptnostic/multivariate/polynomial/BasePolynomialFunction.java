@@ -1,14 +1,13 @@
 package com.kryptnostic.multivariate.polynomial;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -29,7 +28,26 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.kryptnostic.bitwise.BitVectors;
 import com.kryptnostic.linear.EnhancedBitMatrix;
+import com.kryptnostic.multivariate.composition.ComposePlan;
+import com.kryptnostic.multivariate.composition.ComposePlan.Strategy;
+import com.kryptnostic.multivariate.composition.ComposePlanner;
+import com.kryptnostic.multivariate.composition.MonomialInternTable;
+import com.kryptnostic.multivariate.composition.QuadraticAccumulator;
+import com.kryptnostic.multivariate.composition.RecursiveLinearizingComposer;
+import com.kryptnostic.multivariate.composition.SharedProductPlan;
+import com.kryptnostic.multivariate.composition.SpillingComposer;
+import com.kryptnostic.multivariate.evaluation.BatchEvaluation;
+import com.kryptnostic.multivariate.evaluation.BitSlicedEvaluator;
+import com.kryptnostic.multivariate.evaluation.ForkJoinTableEvaluator;
+import com.kryptnostic.multivariate.evaluation.IncrementalEvaluator;
+import com.kryptnostic.multivariate.evaluation.MonomialTable;
+import com.kryptnostic.multivariate.evaluation.MonomialTrie;
+import com.kryptnostic.multivariate.evaluation.PolynomialEvaluator;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.evaluation.PolynomialFunctionCompiler;
+import com.kryptnostic.multivariate.evaluation.TruthTable;
 import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
+import com.kryptnostic.multivariate.gf2.Consumer;
 import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
 import com.kryptnostic.multivariate.util.ParameterizedPolynomialFunctions;
@@ -47,7 +65,20 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
     private static final long                   serialVersionUID            = 7153423105308932737L;
     private static final Logger                 logger                      = LoggerFactory
                                                                                     .getLogger( BasePolynomialFunction.class );
-    private final Lock                          productLock                 = new ReentrantLock();
+    private transient PolynomialEvaluator       evaluator;
+    private transient BitSlicedEvaluator        batchEvaluator;
+    private transient MonomialTable             maskedTable;
+
+    /**
+     * Number of monomial products below which {@link #and(SimplePolynomialFunction, PolynomialExecutionContext)} runs on
+     * the calling thread.
+     */
+    protected static final int                  PARALLEL_PRODUCT_THRESHOLD  = 1 << 14;
+
+    /**
+     * Input length up to which functions are evaluated from a {@link TruthTable}, such as operators on bytes or nibbles.
+     */
+    public static final int                     TRUTH_TABLE_MAX_INPUT       = 10;
 
     protected static final Predicate<BitVector> notNilContributionPredicate = new Predicate<BitVector>() {
                                                                                 @Override
@@ -139,6 +170,18 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
     }
 
     public SimplePolynomialFunction and( SimplePolynomialFunction rhs ) {
+        return and( rhs, PolynomialExecutionContext.getDefault() );
+    }
+
+    /**
+     * Computes the product of this function and rhs. Large products are split by monomials of this function between
+     * the calling thread and the executor of the provided context, with each task accumulating into its own map.
+     *
+     * @param rhs The function to multiply with.
+     * @param context Context to run parallel work on.
+     * @return The product of the two functions.
+     */
+    public SimplePolynomialFunction and( SimplePolynomialFunction rhs, PolynomialExecutionContext context ) {
         Preconditions.checkArgument( inputLength == rhs.getInputLength(), "Functions must have the same input length." );
         Preconditions.checkArgument(
                 outputLength == rhs.getOutputLength(),
@@ -149,24 +192,36 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
             return ParameterizedPolynomialFunctions.and( this, rhs );
         }
 
-        Map<Monomial, BitVector> results = Maps.newHashMap();
-        Monomial[] rhsMonomials = rhs.getMonomials();
-        BitVector[] rhsContributions = rhs.getContributions();
-        for ( int i = 0; i < monomials.length; ++i ) {
-            for ( int j = 0; j < rhsMonomials.length; ++j ) {
-                Monomial product = this.monomials[ i ].product( rhsMonomials[ j ] );
-                BitVector contribution = this.contributions[ i ].copy();
-                contribution.and( rhsContributions[ j ] );
-                BitVector existingContribution = results.get( product );
+        final Monomial[] rhsMonomials = rhs.getMonomials();
+        final BitVector[] rhsContributions = rhs.getContributions();
+        Map<Monomial, BitVector> results;
+        int tasks = Math.min( context.getParallelism(), monomials.length );
+        if ( (long) monomials.length * rhsMonomials.length < PARALLEL_PRODUCT_THRESHOLD || tasks < 2 ) {
+            results = multiplyMonomials( rhsMonomials, rhsContributions, 0, monomials.length );
+        } else {
+            List<Callable<Map<Monomial, BitVector>>> blocks = Lists.newArrayListWithCapacity( tasks );
+            int blockSize = ( monomials.length + tasks - 1 ) / tasks;
+            for ( int i = 0; i < monomials.length; i += blockSize ) {
+                final int fromIndex = i;
+                final int toIndex = Math.min( i + blockSize, monomials.length );
+                blocks.add( new Callable<Map<Monomial, BitVector>>() {
+                    @Override
+                    public Map<Monomial, BitVector> call() {
+                        return multiplyMonomials( rhsMonomials, rhsContributions, fromIndex, toIndex );
+                    }
+                } );
+            }
 
-                /*
-                 * If we have no existing contribution just store the computed contribution. Otherwise, xor into the
-                 * existing contribution
-                 */
-                if ( existingContribution == null ) {
-                    results.put( product, contribution );
-                } else {
-                    existingContribution.xor( contribution );
+            List<Map<Monomial, BitVector>> partials = context.invokeAll( blocks );
+            results = partials.get( 0 );
+            for ( int i = 1; i < partials.size(); ++i ) {
+                for ( Entry<Monomial, BitVector> partial : partials.get( i ).entrySet() ) {
+                    BitVector existingContribution = results.get( partial.getKey() );
+                    if ( existingContribution == null ) {
+                        results.put( partial.getKey(), partial.getValue() );
+                    } else {
+                        existingContribution.xor( partial.getValue() );
+                    }
                 }
             }
         }
@@ -187,17 +242,170 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
         return new BasePolynomialFunction( inputLength, outputLength, newMonomials, newContributions );
     }
 
+    /**
+     * Multiplies monomials [ fromIndex, toIndex ) of this function with every monomial of the right hand side.
+     */
+    private Map<Monomial, BitVector> multiplyMonomials(
+            Monomial[] rhsMonomials,
+            BitVector[] rhsContributions,
+            int fromIndex,
+            int toIndex ) {
+        Map<Monomial, BitVector> results = Maps.newHashMap();
+        for ( int i = fromIndex; i < toIndex; ++i ) {
+            for ( int j = 0; j < rhsMonomials.length; ++j ) {
+                Monomial product = this.monomials[ i ].product( rhsMonomials[ j ] );
+                BitVector contribution = this.contributions[ i ].copy();
+                contribution.and( rhsContributions[ j ] );
+                BitVector existingContribution = results.get( product );
+
+                /*
+                 * If we have no existing contribution just store the computed contribution. Otherwise, xor into the
+                 * existing contribution
+                 */
+                if ( existingContribution == null ) {
+                    results.put( product, contribution );
+                } else {
+                    existingContribution.xor( contribution );
+                }
+            }
+        }
+        return results;
+    }
+
     public BitVector apply( BitVector input ) {
         BitVector result = new BitVector( outputLength );
+        applyInto( input, result );
+        return result;
+    }
+
+    @Override
+    public void applyInto( BitVector input, BitVector output ) {
+        Preconditions.checkArgument( input.size() == inputLength, "Input length does not match function." );
+        Preconditions.checkArgument( output.size() == outputLength, "Output length does not match function." );
+        applyInto( input.elements(), output.elements() );
+    }
+
+    @Override
+    public void applyInto( long[] input, long[] output ) {
+        applyInto( input, output, PolynomialExecutionContext.getDefault() );
+    }
+
+    /**
+     * Evaluates the function on input, running any parallel work on the provided context.
+     *
+     * @param input Input of length {@code inputLength}.
+     * @param context Context to run parallel work on.
+     * @return A newly allocated output of length {@code outputLength}.
+     */
+    public BitVector apply( BitVector input, PolynomialExecutionContext context ) {
+        Preconditions.checkArgument( input.size() == inputLength, "Input length does not match function." );
+        BitVector result = new BitVector( outputLength );
+        applyInto( input.elements(), result.elements(), context );
+        return result;
+    }
+
+    /**
+     * Evaluates the function on the words of input and writes the result into the words of output, running any
+     * parallel work on the provided context.
+     *
+     * @param input Words of the input.
+     * @param output Words of the output, which are overwritten.
+     * @param context Context to run parallel work on.
+     */
+    public void applyInto( long[] input, long[] output, PolynomialExecutionContext context ) {
+        getEvaluator().evaluate( input, output );
+    }
+
+    @Override
+    public BitVector applyMasked( BitVector input, BitVector outputMask ) {
+        Preconditions.checkArgument( input.size() == inputLength, "Input length does not match function." );
+        Preconditions.checkArgument( outputMask.size() == outputLength, "Mask length does not match function output." );
+        BitVector result = new BitVector( outputLength );
+        applyMaskedInto( input.elements(), result.elements(), outputMask.elements() );
+        return result;
+    }
+
+    /**
+     * Evaluates the outputs selected by mask from a monomial table that skips monomials which don't contribute to
+     * them. The table of the evaluator is reused when there is one.
+     *
+     * @param input Words of the input.
+     * @param output Words of the output, which are overwritten.
+     * @param mask Words of the mask selecting the outputs to compute.
+     */
+    protected void applyMaskedInto( long[] input, long[] output, long[] mask ) {
+        if ( maskedTable == null ) {
+            PolynomialEvaluator evaluator = getEvaluator();
+            if ( evaluator instanceof MonomialTable ) {
+                maskedTable = (MonomialTable) evaluator;
+            } else if ( evaluator instanceof ForkJoinTableEvaluator ) {
+                maskedTable = ( (ForkJoinTableEvaluator) evaluator ).getTable();
+            } else {
+                maskedTable = new MonomialTable( getEvaluationLength(), outputLength, monomials, contributions );
+            }
+        }
+        maskedTable.evaluateMasked( input, output, mask );
+    }
+
+    /**
+     * Creates an evaluator for re-evaluating this function on inputs that differ from the previous input in a few bits.
+     * Parameterized functions aren't supported, since flipping an input bit can change any of their pipeline outputs.
+     *
+     * @return A new evaluator whose previous input is all zeros.
+     */
+    public IncrementalEvaluator newIncrementalEvaluator() {
+        Preconditions.checkState( !isParameterized(), "Parameterized functions cannot be evaluated incrementally." );
+        return new IncrementalEvaluator( inputLength, outputLength, monomials, contributions );
+    }
 
+    @Override
+    public SimplePolynomialFunction project( int[] outputs ) {
+        List<Monomial> newMonomials = Lists.newArrayListWithCapacity( monomials.length );
+        List<BitVector> newContributions = Lists.newArrayListWithCapacity( monomials.length );
         for ( int i = 0; i < monomials.length; ++i ) {
-            Monomial term = monomials[ i ];
-            if ( term.eval( input ) ) {
-                result.xor( contributions[ i ] );
+            BitVector contribution = new BitVector( outputs.length );
+            for ( int j = 0; j < outputs.length; ++j ) {
+                if ( contributions[ i ].get( Preconditions.checkElementIndex( outputs[ j ], outputLength ) ) ) {
+                    contribution.set( j );
+                }
+            }
+            if ( contribution.cardinality() > 0 ) {
+                newMonomials.add( monomials[ i ].clone() );
+                newContributions.add( contribution );
             }
         }
 
-        return result;
+        if ( newMonomials.isEmpty() ) {
+            newMonomials.add( Monomial.constantMonomial( getEvaluationLength() ) );
+            newContributions.add( new BitVector( outputs.length ) );
+        }
+
+        return new OptimizedPolynomialFunctionGF2(
+                inputLength,
+                outputs.length,
+                newMonomials.toArray( new Monomial[ newMonomials.size() ] ),
+                newContributions.toArray( new BitVector[ newContributions.size() ] ) );
+    }
+
+    @Override
+    public List<BitVector> applyAll( List<BitVector> inputs ) {
+        return applyAll( inputs, PolynomialExecutionContext.getDefault() );
+    }
+
+    /**
+     * Evaluates the function on each input, splitting the inputs across the threads of the provided context.
+     *
+     * @param inputs Inputs of length {@code inputLength}.
+     * @param context Context to run parallel work on.
+     * @return The outputs of the function, in the same order as the inputs.
+     */
+    public List<BitVector> applyAll( List<BitVector> inputs, PolynomialExecutionContext context ) {
+        return BatchEvaluation.applyAll( this, inputs, context );
+    }
+
+    @Override
+    public void applyAll( Iterator<BitVector> inputs, Consumer<BitVector> consumer ) {
+        BatchEvaluation.applyAll( this, inputs, consumer, PolynomialExecutionContext.getDefault() );
     }
 
     @Override
@@ -205,6 +413,73 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
         return apply( BitVectors.concatenate( lhs, rhs ) );
     }
 
+    @Override
+    public BitVector[] apply( BitVector[] inputs ) {
+        if ( batchEvaluator == null ) {
+            batchEvaluator = new BitSlicedEvaluator( getEvaluationLength(), outputLength, monomials, contributions );
+        }
+        return batchEvaluator.evaluate( inputs );
+    }
+
+    /**
+     * Returns the compiled form of this function, building it on first use. Functions are immutable so the compiled
+     * form is cached for the lifetime of the function.
+     * 
+     * @return The evaluator used by {@link #applyInto(long[], long[])}.
+     */
+    protected PolynomialEvaluator getEvaluator() {
+        if ( evaluator == null ) {
+            evaluator = createEvaluator();
+        }
+        return evaluator;
+    }
+
+    /**
+     * Builds the evaluation engine for this function. Functions with at most {@link #TRUTH_TABLE_MAX_INPUT} inputs are
+     * evaluated by looking up their outputs in a truth table. Functions with monomials of order 3 or more are evaluated
+     * from a prefix trie, so that monomials sharing factors share work, while lower order functions use a flat monomial
+     * table.
+     * 
+     * @return A new evaluator for this function.
+     */
+    protected PolynomialEvaluator createEvaluator() {
+        if ( !isParameterized() && inputLength <= TRUTH_TABLE_MAX_INPUT ) {
+            return new TruthTable( inputLength, outputLength, monomials, contributions );
+        }
+        if ( getMaximumMonomialOrder() > 2 ) {
+            return new MonomialTrie( getEvaluationLength(), outputLength, monomials, contributions );
+        }
+        return new MonomialTable( getEvaluationLength(), outputLength, monomials, contributions );
+    }
+
+    /**
+     * Replaces the evaluator of this function with straight line code generated by {@link PolynomialFunctionCompiler}.
+     * Compilation takes noticeably longer than building the default evaluator, so this is only worthwhile for
+     * functions that are evaluated many times, such as key material. If code generation isn't available the default
+     * evaluator is kept.
+     *
+     * @return This function.
+     */
+    public BasePolynomialFunction compile() {
+        Optional<PolynomialEvaluator> compiled = PolynomialFunctionCompiler.compile(
+                getEvaluationLength(),
+                outputLength,
+                monomials,
+                contributions );
+        if ( compiled.isPresent() ) {
+            evaluator = compiled.get();
+        }
+        return this;
+    }
+
+    /**
+     * @return The length of the vectors monomials are evaluated against, which differs from the input length for
+     *         parameterized functions.
+     */
+    protected int getEvaluationLength() {
+        return monomials.length == 0 ? inputLength : monomials[ 0 ].size();
+    }
+
     @Override
     public SimplePolynomialFunction resolve( BitVector input ) {
         Map<Monomial, BitVector> contributionsMap = Maps.newHashMapWithExpectedSize( monomials.length );
@@ -232,6 +507,17 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
 
     @Override
     public SimplePolynomialFunction optimize() {
+        if ( !isParameterized() ) {
+            int order = getMaximumMonomialOrder();
+            if ( order <= 1 ) {
+                if ( PermutationFunction.isPermutation( this ) ) {
+                    return new PermutationFunction( inputLength, outputLength, monomials, contributions );
+                }
+                return new AffinePolynomialFunction( inputLength, outputLength, monomials, contributions );
+            } else if ( order == 2 ) {
+                return new QuadraticPolynomialFunction( inputLength, outputLength, monomials, contributions );
+            }
+        }
         return new OptimizedPolynomialFunctionGF2( inputLength, outputLength, monomials, contributions );
     }
 
@@ -353,55 +639,17 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
     }
 
     /**
-     * Given contributions of outer and inner polynomials as well as the list of inner monomials, computes the product,
-     * updating the list of monomials, the map of monomials and returning the resultant contributions.
+     * Given contributions of outer and inner polynomials in terms of the monomials of an intern table, computes the
+     * product, interning any new monomials and returning the resultant contributions. Safe to call from several threads
+     * sharing the same table.
      * 
-     * @param lhs
-     * @param rhs
-     * @param monomials
-     * @param indices
-     * @return
+     * @param lhs Set of monomials of the left factor, by index in the table.
+     * @param rhs Set of monomials of the right factor, by index in the table.
+     * @param monomials Table of the monomials of the inner function and their products so far.
+     * @return Set of monomials of the product, by index in the table.
      */
-    public BitVector product(
-            BitVector lhs,
-            BitVector rhs,
-            List<Monomial> monomials,
-            ConcurrentMap<Monomial, Integer> indices ) {
-        BitVector result = new BitVector( monomials.size() );
-        for ( int i = 0; i < lhs.size(); ++i ) {
-            if ( lhs.getQuick( i ) ) {
-                for ( int j = 0; j < rhs.size(); ++j ) {
-                    if ( rhs.getQuick( j ) ) {
-                        Monomial p = monomials.get( i ).product( monomials.get( j ) );
-
-                        Integer indexObj = indices.get( p );
-                        int index;
-                        if ( indexObj == null ) {
-                            productLock.lock();
-                            index = monomials.size();
-                            indexObj = indices.putIfAbsent( p, index );
-                            if ( indexObj == null ) {
-                                monomials.add( p );
-                                result.setSize( index );
-                                indexObj = index;
-                            }
-                            productLock.unlock();
-                        }
-
-                        if ( indexObj >= result.size() ) {
-                            result.setSize( result.size() << 1 );
-                        }
-
-                        if ( result.getQuick( indexObj ) ) {
-                            result.clear( indexObj );
-                        } else {
-                            result.set( indexObj );
-                        }
-                    }
-                }
-            }
-        }
-        return result;
+    public BitVector product( BitVector lhs, BitVector rhs, MonomialInternTable monomials ) {
+        return monomials.product( lhs, rhs );
     }
 
     // TODO: Figure out whether this worth unit testing.
@@ -514,19 +762,52 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
 
     @Override
     public SimplePolynomialFunction compose( SimplePolynomialFunction inner ) {
+        return compose( inner, PolynomialExecutionContext.getDefault() );
+    }
+
+    /**
+     * Composes this function with inner, running any parallel work on the provided context. The strategy is picked by
+     * {@link ComposePlanner}, and compositions it plans as lazy are rejected rather than risk running out of memory. Functions expanded monomial by monomial use a {@link SharedProductPlan} when their order
+     * is greater than 2, so products shared by several monomials are only computed once.
+     *
+     * @param inner The function whose output is the input of this function.
+     * @param context Context to run parallel work on.
+     * @return The composed function.
+     * @throws IllegalStateException If the composition is planned as lazy.
+     */
+    public SimplePolynomialFunction compose( SimplePolynomialFunction inner, PolynomialExecutionContext context ) {
         Preconditions.checkArgument(
                 inputLength == inner.getOutputLength(),
                 "Input length of outer function must match output length of inner function it is being composed with" );
-        if ( ( inner.getMaximumMonomialOrder() == 1 ) && ( getMaximumMonomialOrder() == 2 ) ) {
-            return mvqCompose( inner );
+        ComposePlan plan = ComposePlanner.getDefault().plan( this, inner, context );
+        Preconditions.checkState(
+                plan.getStrategy() != Strategy.LAZY,
+                "Composition is too large to materialize, use ComposePlanner.compose to keep it as a chain: %s",
+                plan );
+        switch ( plan.getMaterializedStrategy() ) {
+            case RELABEL:
+                return ( (PermutationFunction) inner ).relabel( this );
+            case QUADRATIC_AFFINE:
+                return mvqCompose( inner );
+            case RECURSIVE_LINEARIZING:
+                return new RecursiveLinearizingComposer( this ).compose( inner, context );
+            case SPILLING:
+                return new SpillingComposer( this, context.getSpillDirectory(), plan ).compose( inner, context );
+            default:
+                break;
         }
 
         ComposePreProcessResults prereqs = preProcessCompose( inner );
 
         logger.debug( "Expanding outer monomials." );
-        BitVector[] results = expandOuterMonomials( prereqs.monomialsList, prereqs.innerRows, prereqs.indices );
+        BitVector[] results;
+        if ( getMaximumMonomialOrder() > 2 ) {
+            results = new SharedProductPlan( monomials ).evaluate( prereqs.innerRows, prereqs.monomials, context );
+        } else {
+            results = expandOuterMonomials( prereqs.monomials, prereqs.innerRows, context );
+        }
 
-        return postProcessCompose( prereqs.monomialsList, prereqs.indices, results, inner );
+        return postProcessCompose( prereqs.monomials, results, inner );
 
     }
 
@@ -633,6 +914,13 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
         return buckets;
     }
 
+    /**
+     * Composes this quadratic function with an affine function. The result is accumulated densely in the basis {1,
+     * x<sub>i</sub>, x<sub>i</sub>x<sub>j</sub>} of the inner input, since products of affine functions never leave it.
+     * 
+     * @param inner An affine function, which may be parameterized.
+     * @return The composed function.
+     */
     public SimplePolynomialFunction mvqCompose( SimplePolynomialFunction inner ) {
         Preconditions.checkArgument(
                 inner.getOutputLength() == getInputLength(),
@@ -640,21 +928,11 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
         final int innerInputLength = ( inner instanceof ParameterizedPolynomialFunctionGF2 ) ? inner.getMonomials()[ 0 ]
                 .size() : inner.getInputLength();
         final BitVector[][] buckets = bucket();
-        final Map<Monomial, BitVector> mc = Maps.newHashMapWithExpectedSize( 1 + innerInputLength
-                + ( innerInputLength * ( innerInputLength - 1 ) / 2 ) );
+        final QuadraticAccumulator accumulator = new QuadraticAccumulator( innerInputLength, outputLength );
         final EnhancedBitMatrix BT = ( (BasePolynomialFunction) inner ).orderedAffineContributions();
         final EnhancedBitMatrix B = BT.transpose();
 
-        final Monomial[] cache = new Monomial[ innerInputLength + 1 ];
-        // final BitVector[][] rcache = new BitVector[ innerInputLength + 1 ][ innerInputLength + 1 ];
-        for ( int i = 0; i < innerInputLength; ++i ) {
-            cache[ i ] = Monomial.linearMonomial( innerInputLength, i );
-        }
-
-        cache[ innerInputLength ] = Monomial.constantMonomial( innerInputLength );
-
-        mc.put( cache[ innerInputLength ], buckets[ inputLength ][ 0 ] );
-        // Stopwatch w = Stopwatch.createUnstarted();
+        accumulator.addConstant( buckets[ inputLength ][ 0 ] );
         for ( int i = 0; i < buckets.length - 1; ++i ) {
             EnhancedBitMatrix AT = EnhancedBitMatrix.directFromRows( Arrays.asList( buckets[ i ] ) );
             EnhancedBitMatrix coeffMatrix = ( i == 0 ? BT : BT.resizeColumns( BT.cols() - i ) ).multiply( AT );
@@ -664,26 +942,12 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
                 if ( outerRowInTermsOfInner.get( j ) ) {
                     for ( int k = 0; k < ( innerInputLength + 1 ); ++k ) {
                         // inner_i * inner_j
-                        Monomial key = cache[ j ].product( cache[ k ] );
-                        // w.start();
-                        // BitVector c = rcache[j][k];//
-                        BitVector c = mc.get( key );
-                        // logger.debug( "Processing product {} took {} ms" , j , w.elapsed( TimeUnit.MICROSECONDS ) );
-                        // w.reset();
-                        if ( c == null ) {
-                            // c = rcache[j][k] = new BitVector( outputLength );
-                            c = new BitVector( outputLength );
-                            mc.put( key, c );
-                        }
-                        c.xor( coeffMatrix.getRow( k ) );
+                        accumulator.add( j, k, coeffMatrix.getRow( k ).elements() );
                     }
                 }
             }
         }
-        SimplePolynomialFunction base = SimplePolynomialFunctions.fromMonomialContributionMap(
-                innerInputLength,
-                outputLength,
-                mc );
+        SimplePolynomialFunction base = accumulator.toFunction();
         if ( inner instanceof ParameterizedPolynomialFunctionGF2 ) {
             return new ParameterizedPolynomialFunctionGF2(
                     inner.getInputLength(),
@@ -707,64 +971,66 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
         EnhancedBitMatrix contributionRows = new EnhancedBitMatrix( Arrays.asList( inner.getContributions() ) );
         EnhancedBitMatrix.transpose( contributionRows );
 
-        List<Monomial> mList = Lists.newArrayList( inner.getMonomials() );
-        ConcurrentMap<Monomial, Integer> indices = Maps.newConcurrentMap();
-        Map<Monomial, Integer> indicesResults = Maps.newHashMapWithExpectedSize( mList.size() * ( mList.size() - 1 )
-                / 2 );
-        for ( int i = 0; i < mList.size(); ++i ) {
-            indices.put( mList.get( i ), i );
+        Monomial[] innerMonomials = inner.getMonomials();
+        int monomialSize = innerMonomials.length == 0 ? inner.getInputLength() : innerMonomials[ 0 ].size();
+        MonomialInternTable table = new MonomialInternTable( monomialSize, Math.max(
+                innerMonomials.length,
+                monomials.length ) << 2 );
+        int[] positions = new int[ innerMonomials.length ];
+        boolean distinct = true;
+        for ( int i = 0; i < innerMonomials.length; ++i ) {
+            positions[ i ] = table.intern( innerMonomials[ i ] );
+            distinct &= positions[ i ] == i;
         }
 
         if ( this.getMaximumMonomialOrder() == 2 && inner.getMaximumMonomialOrder() == 1 ) {
-            Monomial[] linearMonomials = inner.getMonomials();
-            for ( int i = 0; i < linearMonomials.length; i++ ) {
-                for ( int j = i + 1; j < linearMonomials.length; j++ ) {
-                    Monomial p = mList.get( i ).product( mList.get( j ) );
-                    if ( indices.get( p ) == null ) {
-                        indices.put( p, mList.size() );
-                        mList.add( p );
-                    }
+            for ( int i = 0; i < innerMonomials.length; i++ ) {
+                for ( int j = i + 1; j < innerMonomials.length; j++ ) {
+                    table.intern( innerMonomials[ i ].product( innerMonomials[ j ] ) );
                 }
             }
         }
 
-        Monomial[] linearMonomials = new Monomial[ inputLength ];
         BitVector[] innerRows = new BitVector[ inputLength ];
-
         for ( int i = 0; i < inputLength; ++i ) {
-            Monomial linearMonomial = Monomial.linearMonomial( inputLength, i );
-            linearMonomials[ i ] = linearMonomial;
-            innerRows[ i ] = contributionRows.getRow( i );
-        }
-        for ( int i = 0; i < monomials.length; ++i ) {
-            indicesResults.put( monomials[ i ], i );
+            BitVector row = contributionRows.getRow( i );
+            if ( distinct ) {
+                innerRows[ i ] = row;
+            } else {
+                // Inner monomials that appear more than once share an index, so their contributions are added.
+                innerRows[ i ] = new BitVector( table.size() );
+                for ( int j = 0; j < positions.length; ++j ) {
+                    if ( row.get( j ) ) {
+                        innerRows[ i ].put( positions[ j ], !innerRows[ i ].get( positions[ j ] ) );
+                    }
+                }
+            }
         }
 
         ComposePreProcessResults results = new ComposePreProcessResults();
-        results.indices = indices;
-        results.monomialsList = mList;
+        results.monomials = table;
         results.innerRows = innerRows;
 
         return results;
     }
 
     protected BitVector[] expandOuterMonomials(
-            List<Monomial> mList,
+            MonomialInternTable table,
             BitVector[] innerRows,
-            ConcurrentMap<Monomial, Integer> indices ) {
+            PolynomialExecutionContext context ) {
         BitVector[] results = new BitVector[ monomials.length ];
         for ( int k = 0; k < monomials.length; ++k ) {
             Monomial m = monomials[ k ];
             BitVector lhs = null;
             if ( m.isZero() ) {
-                lhs = new BitVector( mList.size() );
+                lhs = new BitVector( table.size() );
             } else {
                 for ( int i = Long.numberOfTrailingZeros( m.elements()[ 0 ] ); i < inputLength; ++i ) {
                     if ( m.get( i ) ) {
                         if ( lhs == null ) {
                             lhs = innerRows[ i ];
                         } else {
-                            lhs = product( lhs, innerRows[ i ], mList, indices );
+                            lhs = product( lhs, innerRows[ i ], table );
                         }
                     }
                 }
@@ -775,13 +1041,14 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
     }
 
     protected SimplePolynomialFunction postProcessCompose(
-            List<Monomial> mList,
-            Map<Monomial, Integer> indices,
+            MonomialInternTable table,
             BitVector[] results,
             SimplePolynomialFunction inner ) {
+        List<Monomial> mList = table.toList();
+        int constantIndex = table.indexOf( Monomial.constantMonomial( table.getMonomialSize() ) );
         Optional<Integer> constantOuterMonomialIndex = Optional.absent();
-        Optional<Integer> constantInnerMonomialIndex = Optional.fromNullable( indices.get( Monomial
-                .constantMonomial( inner.getInputLength() ) ) );
+        Optional<Integer> constantInnerMonomialIndex = constantIndex < 0 ? Optional.<Integer> absent() : Optional
+                .of( constantIndex );
         // Now lets fix the contributions so they're all the same length.
         for ( int i = 0; i < results.length; ++i ) {
             BitVector contribution = results[ i ];
@@ -830,7 +1097,7 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
             } else {
                 // Don't use the outer monomial directly since it maybe the wrong size.
                 // mList.add( monomials[ constantOuterMonomialIndex.get() ] );
-                mList.add( Monomial.constantMonomial( inner.getMonomials()[ 0 ].size() ) );
+                mList.add( Monomial.constantMonomial( table.getMonomialSize() ) );
                 unfilteredContributions.add( contributions[ constantOuterMonomialIndex.get() ] );
             }
         }
@@ -897,9 +1164,8 @@ public class BasePolynomialFunction extends PolynomialFunctionRepresentationGF2
     }
 
     protected class ComposePreProcessResults {
-        public List<Monomial>                   monomialsList;
-        public ConcurrentMap<Monomial, Integer> indices;
-        public BitVector[]                      innerRows;
+        public MonomialInternTable monomials;
+        public BitVector[]         innerRows;
 
     }
 
@@ -2,6 +2,7 @@ package com.kryptnostic.multivariate.polynomial;
 
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -14,7 +15,13 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.composition.ComposePlanner;
+import com.kryptnostic.multivariate.evaluation.BatchEvaluation;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.evaluation.ScratchBuffers;
 import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
+import com.kryptnostic.multivariate.gf2.Consumer;
+import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.PolynomialFunction;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
 
@@ -81,15 +88,43 @@ public class CompoundPolynomialFunctionGF2 implements CompoundPolynomialFunction
 
     @Override
     public BitVector apply(BitVector input) {
-        BitVector result = input;
-
-        for (PolynomialFunction f : functions) {
-            result = f.apply(result);
+        if (functions.isEmpty()) {
+            return input;
         }
 
+        BitVector result = new BitVector(getOutputLength());
+        applyInto(input, result);
         return result;
     }
 
+    @Override
+    public void applyInto(BitVector input, BitVector output) {
+        Preconditions.checkArgument(input.size() == getInputLength(), "Input length does not match function.");
+        Preconditions.checkArgument(output.size() == getOutputLength(), "Output length does not match function.");
+        applyInto(input.elements(), output.elements());
+    }
+
+    /**
+     * Evaluates each function in turn, holding intermediate results in scratch buffers that are released as soon as the
+     * next stage has consumed them, so that only the final stage writes to output.
+     */
+    @Override
+    public void applyInto(long[] input, long[] output) {
+        long[] current = input;
+        int remaining = functions.size();
+        for (PolynomialFunction f : functions) {
+            long[] next = --remaining == 0 ? output : ScratchBuffers.acquire(BitVectors.wordsFor(f.getOutputLength()));
+            try {
+                f.applyInto(current, next);
+            } finally {
+                if (current != input) {
+                    ScratchBuffers.release(current);
+                }
+            }
+            current = next;
+        }
+    }
+
     @Override
     public BitVector apply(BitVector lhs, BitVector rhs) {
         Preconditions.checkArgument(( lhs.size() + rhs.size() ) == getInputLength(),
@@ -97,6 +132,115 @@ public class CompoundPolynomialFunctionGF2 implements CompoundPolynomialFunction
         return apply(BitVectors.concatenate(lhs, rhs));
     }
 
+    @Override
+    public List<BitVector> applyAll(List<BitVector> inputs) {
+        return BatchEvaluation.applyAll(this, inputs, PolynomialExecutionContext.getDefault());
+    }
+
+    @Override
+    public void applyAll(Iterator<BitVector> inputs, Consumer<BitVector> consumer) {
+        BatchEvaluation.applyAll(this, inputs, consumer, PolynomialExecutionContext.getDefault());
+    }
+
+    /**
+     * Builds an equivalent compound function with fewer stages. Each run of adjacent affine stages is collapsed into a
+     * single affine stage, which is then folded into a neighbouring quadratic stage when that doesn't increase the
+     * number of monomials evaluated. An affine stage that follows a non-parameterized stage is always folded into it,
+     * since multiplying contributions by a matrix never adds monomials. Existing stages are not modified.
+     */
+    @Override
+    public CompoundPolynomialFunctionGF2 optimize() {
+        List<PolynomialFunction> collapsed = Lists.newArrayListWithCapacity(functions.size());
+        List<PolynomialFunction> run = Lists.newArrayList();
+        for (PolynomialFunction f : functions) {
+            if (isAffine(f)) {
+                run.add(f);
+            } else {
+                collapse(run, collapsed);
+                collapsed.add(f);
+            }
+        }
+        collapse(run, collapsed);
+
+        LinkedList<PolynomialFunction> optimized = Lists.newLinkedList();
+        for (int i = 0; i < collapsed.size(); ++i) {
+            PolynomialFunction f = collapsed.get(i);
+            if (isAffine(f)) {
+                SimplePolynomialFunction affine = (SimplePolynomialFunction) f;
+                PolynomialFunction next = i + 1 < collapsed.size() ? collapsed.get(i + 1) : null;
+                if (isQuadratic(next) && affine instanceof BasePolynomialFunction
+                        && fusedMonomialBound((SimplePolynomialFunction) next, affine) <= affine.getTotalMonomialCount()
+                                + ((SimplePolynomialFunction) next).getTotalMonomialCount()) {
+                    collapsed.set(i + 1, ((BasePolynomialFunction) next).mvqCompose(affine));
+                    continue;
+                }
+                if (!optimized.isEmpty() && isFoldable(optimized.getLast())) {
+                    SimplePolynomialFunction previous = (SimplePolynomialFunction) optimized.removeLast();
+                    optimized.addLast(AffinePolynomialFunction.fromFunction(affine).compose(previous));
+                    continue;
+                }
+            }
+            optimized.add(f);
+        }
+
+        CompoundPolynomialFunctionGF2 cpf = new CompoundPolynomialFunctionGF2();
+        cpf.functions.addAll(optimized);
+        return cpf;
+    }
+
+    private static void collapse(List<PolynomialFunction> run, List<PolynomialFunction> collapsed) {
+        if (run.size() == 1) {
+            collapsed.add(run.get(0));
+        } else if (run.size() > 1) {
+            SimplePolynomialFunction stage = (SimplePolynomialFunction) run.get(0);
+            for (int i = 1; i < run.size(); ++i) {
+                stage = AffinePolynomialFunction.fromFunction((SimplePolynomialFunction) run.get(i)).compose(stage);
+            }
+            collapsed.add(stage);
+        }
+        run.clear();
+    }
+
+    private static boolean isFoldable(PolynomialFunction f) {
+        return f instanceof SimplePolynomialFunction && !((SimplePolynomialFunction) f).isParameterized();
+    }
+
+    private static boolean isAffine(PolynomialFunction f) {
+        return isFoldable(f) && AffinePolynomialFunction.isAffine((SimplePolynomialFunction) f);
+    }
+
+    private static boolean isQuadratic(PolynomialFunction f) {
+        return f instanceof BasePolynomialFunction && isFoldable(f)
+                && ((SimplePolynomialFunction) f).getMaximumMonomialOrder() == 2;
+    }
+
+    /**
+     * Upper bound on the number of monomials of quadratic composed with affine, which is the number of products formed
+     * when each input of quadratic is replaced by the terms of the corresponding output of affine.
+     */
+    private static long fusedMonomialBound(SimplePolynomialFunction quadratic, SimplePolynomialFunction affine) {
+        int[] weights = new int[affine.getOutputLength()];
+        for (BitVector contribution : affine.getContributions()) {
+            for (int i = nextSetBit(contribution, 0); i >= 0; i = nextSetBit(contribution, i + 1)) {
+                ++weights[i];
+            }
+        }
+
+        long bound = 0;
+        for (Monomial m : quadratic.getMonomials()) {
+            long products = 1;
+            for (int i = nextSetBit(m, 0); i >= 0; i = nextSetBit(m, i + 1)) {
+                products *= weights[i];
+            }
+            bound += products;
+        }
+        return bound;
+    }
+
+    private static int nextSetBit(BitVector v, int from) {
+        return from < v.size() ? v.indexOfFromTo(from, v.size() - 1, true) : -1;
+    }
+
     @JsonIgnore
     @Override
     public int getInputLength() {
@@ -137,13 +281,19 @@ public class CompoundPolynomialFunctionGF2 implements CompoundPolynomialFunction
 
     /**
      * Performs actual functional composition of the inner function into the first function in the list, rather than
-     * simply appending.
+     * simply appending. If {@link ComposePlanner} plans the composition as lazy the inner function is prepended as a
+     * stage of its own instead.
      */
     @Override
     public void composeHeadDirectly(SimplePolynomialFunction inner) {
-        Preconditions.checkArgument(functions.getFirst() instanceof PolynomialFunction,
+        Preconditions.checkArgument(functions.getFirst() instanceof SimplePolynomialFunction,
                 "Cannot compose function that isn't of type SimplePolynomialFunction.");
         SimplePolynomialFunction outer = (SimplePolynomialFunction) functions.getFirst();
-        functions.set(0, outer.compose(inner));
+        PolynomialFunction composed = ComposePlanner.getDefault().compose(outer, inner);
+        if (composed instanceof SimplePolynomialFunction) {
+            functions.set(0, composed);
+        } else {
+            functions.addFirst(inner);
+        }
     }
 }
@@ -1,31 +1,22 @@
 package com.kryptnostic.multivariate.polynomial;
 
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.Callable;
 
 import cern.colt.bitvector.BitVector;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.base.Preconditions;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.collect.Lists;
+import com.kryptnostic.multivariate.composition.MonomialInternTable;
+import com.kryptnostic.multivariate.evaluation.ForkJoinTableEvaluator;
+import com.kryptnostic.multivariate.evaluation.MonomialTable;
+import com.kryptnostic.multivariate.evaluation.PolynomialEvaluator;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
 import com.kryptnostic.multivariate.gf2.Monomial;
-import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
 
 public class OptimizedPolynomialFunctionGF2 extends BasePolynomialFunction {
-    private static final long                       serialVersionUID  = -3308994228325375229L;
-    private static final Logger                     logger            = LoggerFactory
-                                                                              .getLogger( OptimizedPolynomialFunctionGF2.class );
-    protected static final int                      CONCURRENCY_LEVEL = Math.max( Runtime.getRuntime()
-                                                                              .availableProcessors() - 1, 1 );
-    protected static final ListeningExecutorService executor          = MoreExecutors.listeningDecorator( Executors
-                                                                              .newFixedThreadPool( CONCURRENCY_LEVEL ) );
+    private static final long serialVersionUID = -3308994228325375229L;
 
     @JsonCreator
     public OptimizedPolynomialFunctionGF2(
@@ -40,75 +31,56 @@ public class OptimizedPolynomialFunctionGF2 extends BasePolynomialFunction {
         super();
     }
 
-    public BitVector apply( final BitVector input ) {
-
-        final CountDownLatch latch = new CountDownLatch( CONCURRENCY_LEVEL );
-
-        final BitVector result = new BitVector( outputLength );
-        int blocks = ( monomials.length / CONCURRENCY_LEVEL );
-        int leftover = monomials.length % CONCURRENCY_LEVEL;
-
-        for ( int i = 0; i < CONCURRENCY_LEVEL; i++ ) {
-            final int fromIndex = i * blocks;
-            int targetIndex = fromIndex + blocks;
-            if ( leftover != 0 && i == CONCURRENCY_LEVEL - 1 ) {
-                targetIndex += leftover;
-            }
-            final int toIndex = targetIndex;
-
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    BitVector intermediary = new BitVector( outputLength );
-                    for ( int i = fromIndex; i < toIndex; ++i ) {
-                        Monomial term = monomials[ i ];
-                        if ( term.eval( input ) ) {
-                            intermediary.xor( contributions[ i ] );
-                        }
-                    }
-                    synchronized ( result ) {
-                        result.xor( intermediary );
-                    }
-                    latch.countDown();
-                }
-            };
-            executor.execute( r );
+    /**
+     * Flat monomial tables are evaluated across the fork join pool once they are large enough to be worth splitting,
+     * other evaluators already avoid most of the work of a full scan and are run on the calling thread.
+     */
+    @Override
+    protected PolynomialEvaluator createEvaluator() {
+        PolynomialEvaluator evaluator = super.createEvaluator();
+        if ( evaluator instanceof MonomialTable ) {
+            return new ForkJoinTableEvaluator( (MonomialTable) evaluator );
         }
-        try {
-            latch.await();
-        } catch ( InterruptedException e ) {
-            logger.error( "Concurrent apply() latch interrupted." );
+        return evaluator;
+    }
+
+    @Override
+    public void applyInto( long[] input, long[] output, PolynomialExecutionContext context ) {
+        PolynomialEvaluator evaluator = getEvaluator();
+        if ( evaluator instanceof ForkJoinTableEvaluator ) {
+            ( (ForkJoinTableEvaluator) evaluator ).evaluate( input, output, context );
+        } else {
+            evaluator.evaluate( input, output );
         }
-        return result;
     }
 
     @Override
     protected BitVector[] expandOuterMonomials(
-            final List<Monomial> mList,
+            final MonomialInternTable table,
             final BitVector[] innerRows,
-            final ConcurrentMap<Monomial, Integer> indices ) {
-        final CountDownLatch latch = new CountDownLatch( CONCURRENCY_LEVEL );
+            PolynomialExecutionContext context ) {
         final BitVector[] results = new BitVector[ monomials.length ];
-        int blocks = monomials.length / CONCURRENCY_LEVEL;
-        int leftover = monomials.length % CONCURRENCY_LEVEL;
+        int concurrencyLevel = context.getParallelism();
+        int blocks = monomials.length / concurrencyLevel;
+        int leftover = monomials.length % concurrencyLevel;
+        List<Callable<Void>> tasks = Lists.newArrayListWithCapacity( concurrencyLevel );
 
-        for ( int i = 0; i < CONCURRENCY_LEVEL; i++ ) {
+        for ( int i = 0; i < concurrencyLevel; i++ ) {
             final int fromIndex = i * blocks;
             int targetIndex = fromIndex + blocks;
-            if ( leftover != 0 && i == CONCURRENCY_LEVEL - 1 ) {
+            if ( leftover != 0 && i == concurrencyLevel - 1 ) {
                 targetIndex += leftover;
             }
             final int toIndex = targetIndex;
 
-            executor.execute( new Runnable() {
-
+            tasks.add( new Callable<Void>() {
                 @Override
-                public void run() {
+                public Void call() {
                     for ( int j = fromIndex; j < toIndex; j++ ) {
                         Monomial outerMonomial = monomials[ j ];
                         BitVector newContributions = null;
                         if ( outerMonomial.isZero() ) {
-                            newContributions = new BitVector( mList.size() );
+                            newContributions = new BitVector( table.size() );
                         } else {
                             for ( int i = Long.numberOfTrailingZeros( outerMonomial.elements()[ 0 ] ); i < outerMonomial
                                     .size(); ++i ) {
@@ -116,24 +88,20 @@ public class OptimizedPolynomialFunctionGF2 extends BasePolynomialFunction {
                                     if ( newContributions == null ) {
                                         newContributions = innerRows[ i ];
                                     } else {
-                                        newContributions = product( newContributions, innerRows[ i ], mList, indices );
+                                        newContributions = product( newContributions, innerRows[ i ], table );
                                     }
                                 }
                             }
                         }
                         results[ j ] = newContributions;
                     }
-                    latch.countDown();
+                    return null;
                 }
             } );
-
         }
 
-        try {
-            latch.await();
-        } catch ( InterruptedException e ) {
-            e.printStackTrace();
-        }
+        // The calling thread expands blocks as well, so this can't deadlock when called from a thread of the executor.
+        context.invokeAll( tasks );
         return results;
     }
 }
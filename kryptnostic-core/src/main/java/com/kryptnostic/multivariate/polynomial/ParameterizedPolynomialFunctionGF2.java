@@ -11,9 +11,14 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.evaluation.PipelineEvaluationPlan;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.evaluation.ScratchBuffers;
 import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
 import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.PolynomialFunction;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
 import com.kryptnostic.multivariate.util.ParameterizedPolynomialFunctions;
 
@@ -25,11 +30,12 @@ import com.kryptnostic.multivariate.util.ParameterizedPolynomialFunctions;
  */
 public class ParameterizedPolynomialFunctionGF2 extends OptimizedPolynomialFunctionGF2 implements
         SimplePolynomialFunction {
-    private static final long                      serialVersionUID   = 3192164840103405264L;
+    private static final long                         serialVersionUID   = 3192164840103405264L;
 
-    private static final String                    PIPELINES_PROPERTY = "property";
+    private static final String                       PIPELINES_PROPERTY = "property";
 
-    private final List<CompoundPolynomialFunction> pipelines;
+    private final List<CompoundPolynomialFunction>    pipelines;
+    private transient volatile PipelineEvaluationPlan plan;
 
     public ParameterizedPolynomialFunctionGF2() {
         super();
@@ -60,27 +66,134 @@ public class ParameterizedPolynomialFunctionGF2 extends OptimizedPolynomialFunct
                     "The input length of each pipeline must be the same as the input length to the overall function." );
         }
         this.pipelines = ImmutableList.copyOf( pipelines );
+        this.plan = new PipelineEvaluationPlan( inputLength, this.pipelines );
     }
 
     /**
-     * @see com.kryptnostic.multivariate.polynomial.OptimizedPolynomialFunctionGF2#apply(cern.colt.bitvector.BitVector)
-     * @param input a bitvector apply the input.
+     * Writes the input followed by the output of each pipeline into a scratch buffer, which is then evaluated by the
+     * underlying function. Pipelines are evaluated by a {@link PipelineEvaluationPlan}, which writes their outputs
+     * directly into the scratch buffer and evaluates shared stages only once.
+     * 
+     * @see com.kryptnostic.multivariate.polynomial.OptimizedPolynomialFunctionGF2#applyInto(long[], long[],
+     *      PolynomialExecutionContext)
      */
     @Override
-    public BitVector apply( BitVector input ) {
-        BitVector[] parameters = new BitVector[ pipelines.size() + 1 ];
-        parameters[ 0 ] = input;
-        for ( int i = 0; i < pipelines.size(); ++i ) {
-            CompoundPolynomialFunction pipeline = pipelines.get( i );
-            parameters[ i + 1 ] = pipeline.apply( input );
+    public void applyInto( long[] input, long[] output, PolynomialExecutionContext context ) {
+        long[] parameters = parameterize( input, context );
+        try {
+            super.applyInto( parameters, output, context );
+        } finally {
+            ScratchBuffers.release( parameters );
         }
-        return super.apply( BitVectors.concatenate( parameters ) );
     }
 
+    /**
+     * Extends the input with the outputs of the pipelines before evaluating the selected outputs.
+     * 
+     * @see com.kryptnostic.multivariate.polynomial.BasePolynomialFunction#applyMaskedInto(long[], long[], long[])
+     */
     @Override
-    public SimplePolynomialFunction compose( SimplePolynomialFunction inner ) {
+    protected void applyMaskedInto( long[] input, long[] output, long[] mask ) {
+        long[] parameters = parameterize( input, PolynomialExecutionContext.getDefault() );
+        try {
+            super.applyMaskedInto( parameters, output, mask );
+        } finally {
+            ScratchBuffers.release( parameters );
+        }
+    }
+
+    /**
+     * Extends each input with the outputs of the pipelines before evaluating the batch.
+     * 
+     * @see com.kryptnostic.multivariate.polynomial.BasePolynomialFunction#apply(cern.colt.bitvector.BitVector[])
+     */
+    @Override
+    public BitVector[] apply( BitVector[] inputs ) {
+        PipelineEvaluationPlan plan = getPlan();
+        PolynomialExecutionContext context = PolynomialExecutionContext.getDefault();
+        int parameterizedLength = inputLength + plan.getOutputLength();
+        BitVector[] parameterized = new BitVector[ inputs.length ];
+        for ( int i = 0; i < inputs.length; ++i ) {
+            long[] parameters = new long[ BitVectors.wordsFor( parameterizedLength ) + 1 ];
+            BitVectors.copyBits( inputs[ i ].elements(), inputLength, parameters, 0 );
+            plan.evaluate( inputs[ i ].elements(), parameters, inputLength, context );
+            parameterized[ i ] = new BitVector( parameters, parameterizedLength );
+        }
+        return super.apply( parameterized );
+    }
+
+    /**
+     * Compiles the pipeline stages along with the underlying function, since every evaluation runs both.
+     *
+     * @see com.kryptnostic.multivariate.polynomial.BasePolynomialFunction#compile()
+     */
+    @Override
+    public BasePolynomialFunction compile() {
         for ( CompoundPolynomialFunction pipeline : pipelines ) {
-            pipeline.composeHeadDirectly( inner );
+            for ( PolynomialFunction stage : pipeline.getFunctions() ) {
+                if ( stage instanceof BasePolynomialFunction ) {
+                    ( (BasePolynomialFunction) stage ).compile();
+                }
+            }
+        }
+        return super.compile();
+    }
+
+    /**
+     * Projects the underlying function, keeping the pipelines since the projected monomials are still defined over the
+     * extended input.
+     * 
+     * @see com.kryptnostic.multivariate.polynomial.BasePolynomialFunction#project(int[])
+     */
+    @Override
+    public SimplePolynomialFunction project( int[] outputs ) {
+        SimplePolynomialFunction projected = super.project( outputs );
+        return new ParameterizedPolynomialFunctionGF2(
+                inputLength,
+                outputs.length,
+                projected.getMonomials(),
+                projected.getContributions(),
+                pipelines );
+    }
+
+    /**
+     * @return A scratch buffer holding the input followed by the output of each pipeline, which the caller releases.
+     */
+    private long[] parameterize( long[] input, PolynomialExecutionContext context ) {
+        PipelineEvaluationPlan plan = getPlan();
+        long[] parameters = ScratchBuffers.acquire( BitVectors.wordsFor( inputLength + plan.getOutputLength() ) + 1 );
+        BitVectors.copyBits( input, inputLength, parameters, 0 );
+        plan.evaluate( input, parameters, inputLength, context );
+        return parameters;
+    }
+
+    /**
+     * @return The plan built by the constructor, or a new one for instances restored by Java serialization, which
+     *         doesn't restore transient fields. Pipelines are never changed once the function is built, so the plan
+     *         can't go stale.
+     */
+    private PipelineEvaluationPlan getPlan() {
+        PipelineEvaluationPlan current = plan;
+        if ( current == null ) {
+            current = new PipelineEvaluationPlan( inputLength, pipelines );
+            plan = current;
+        }
+        return current;
+    }
+
+    /**
+     * Composes each pipeline with inner, leaving this function and its pipelines unchanged.
+     *
+     * @see com.kryptnostic.multivariate.polynomial.BasePolynomialFunction#compose(SimplePolynomialFunction,
+     *      PolynomialExecutionContext)
+     */
+    @Override
+    public SimplePolynomialFunction compose( SimplePolynomialFunction inner, PolynomialExecutionContext context ) {
+        List<CompoundPolynomialFunction> composedPipelines = Lists.newArrayListWithCapacity( pipelines.size() );
+        for ( CompoundPolynomialFunction pipeline : pipelines ) {
+            CompoundPolynomialFunction composed = pipeline.copy();
+            composed.composeHeadDirectly( inner );
+            composedPipelines.add( composed );
         }
         SimplePolynomialFunction newBase;
         if ( !inner.isParameterized() ) {
@@ -88,16 +201,16 @@ public class ParameterizedPolynomialFunctionGF2 extends OptimizedPolynomialFunct
                     inner.getInputLength() << 1,
                     inner );
             newBase = super.compose( new OptimizedPolynomialFunctionGF2( inner.getInputLength(), inner
-                    .getOutputLength(), extended.getMonomials(), extended.getContributions() ) );
+                    .getOutputLength(), extended.getMonomials(), extended.getContributions() ), context );
         } else {
-            newBase = super.compose( inner );
+            newBase = super.compose( inner, context );
         }
         return new ParameterizedPolynomialFunctionGF2(
                 inner.getInputLength(),
                 outputLength,
                 newBase.getMonomials(),
                 newBase.getContributions(),
-                pipelines );
+                composedPipelines );
     }
 
     @Override
@@ -126,12 +239,11 @@ public class ParameterizedPolynomialFunctionGF2 extends OptimizedPolynomialFunct
             if ( this.getInputLength() != other.getInputLength() ) {
                 return false;
             }
+            List<BitVector> inputs = Lists.newArrayListWithCapacity( 10000 );
             for ( int i = 0; i < 10000; ++i ) {
-                BitVector input = BitVectors.randomVector( getInputLength() );
-                if ( !this.apply( input ).equals( other.apply( input ) ) ) {
-                    return false;
-                }
+                inputs.add( BitVectors.randomVector( getInputLength() ) );
             }
+            return this.applyAll( inputs ).equals( other.applyAll( inputs ) );
         }
         return true;
     }
@@ -0,0 +1,253 @@
+package com.kryptnostic.multivariate.polynomial;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import cern.colt.bitvector.BitVector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.kryptnostic.multivariate.evaluation.PermutationEvaluator;
+import com.kryptnostic.multivariate.evaluation.PolynomialEvaluator;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+/**
+ * Function that only routes input bits to output bits, such as identities, shifts, truncations and the interleavings
+ * used to concatenate functions. Every output bit is either a single input bit or zero, so the function is described by
+ * the input bit each output takes, which is called its source.
+ *
+ * Evaluation copies runs of consecutive bits with word shifts and masks, composing two permutations composes their
+ * sources, and composing any function that isn't parameterized with a permutation only relabels the variables of its
+ * monomials.
+ *
+ * @see PermutationEvaluator
+ */
+public class PermutationFunction extends AffinePolynomialFunction {
+    private static final long serialVersionUID = -3386427154390275436L;
+
+    private final int[]       sources;
+
+    @JsonCreator
+    public PermutationFunction(
+            @JsonProperty( INPUT_LENGTH_PROPERTY ) int inputLength,
+            @JsonProperty( OUTPUT_LENGTH_PROPERTY ) int outputLength,
+            @JsonProperty( MONOMIALS_PROPERTY ) Monomial[] monomials,
+            @JsonProperty( CONTRIBUTIONS_PROPERTY ) BitVector[] contributions ) {
+        super( inputLength, outputLength, monomials, contributions );
+        this.sources = sourcesOf( outputLength, monomials, contributions );
+        Preconditions.checkArgument(
+                sources != null,
+                "Each output of a permutation function must be a single input bit or zero." );
+    }
+
+    /**
+     * @param inputLength The length of the input.
+     * @param sources The input bit routed to each output bit, or -1 for outputs that are always zero.
+     * @return The function whose i-th output bit is input bit sources[ i ].
+     */
+    public static PermutationFunction fromSources( int inputLength, int[] sources ) {
+        BitVector[] routes = new BitVector[ inputLength ];
+        for ( int i = 0; i < sources.length; ++i ) {
+            int source = sources[ i ];
+            if ( source >= 0 ) {
+                Preconditions.checkArgument( source < inputLength, "Sources must be less than the input length." );
+                if ( routes[ source ] == null ) {
+                    routes[ source ] = new BitVector( sources.length );
+                }
+                routes[ source ].set( i );
+            }
+        }
+
+        List<Monomial> monomials = Lists.newArrayListWithCapacity( inputLength );
+        List<BitVector> contributions = Lists.newArrayListWithCapacity( inputLength );
+        for ( int i = 0; i < inputLength; ++i ) {
+            if ( routes[ i ] != null ) {
+                monomials.add( Monomial.linearMonomial( inputLength, i ) );
+                contributions.add( routes[ i ] );
+            }
+        }
+        if ( monomials.isEmpty() ) {
+            monomials.add( Monomial.constantMonomial( inputLength ) );
+            contributions.add( new BitVector( sources.length ) );
+        }
+        return new PermutationFunction(
+                inputLength,
+                sources.length,
+                monomials.toArray( new Monomial[ monomials.size() ] ),
+                contributions.toArray( new BitVector[ contributions.size() ] ) );
+    }
+
+    /**
+     * Builds the function that moves each input bit to a new index, as {@code BitVectors.extendAndOrder} does.
+     *
+     * @param mapping The output bit each input bit is moved to.
+     * @param outputLength The length of the output.
+     * @return The function whose output bit mapping[ i ] is input bit i, with all other outputs zero.
+     */
+    public static PermutationFunction fromMapping( int[] mapping, int outputLength ) {
+        int[] sources = new int[ outputLength ];
+        Arrays.fill( sources, -1 );
+        for ( int i = 0; i < mapping.length; ++i ) {
+            int index = mapping[ i ];
+            Preconditions.checkArgument( index < outputLength, "Cannot map to index greater than new size." );
+            Preconditions.checkArgument( sources[ index ] < 0, "Cannot map two variables to the same index." );
+            sources[ index ] = i;
+        }
+        return fromSources( mapping.length, sources );
+    }
+
+    /**
+     * @return f if it is already a permutation function, otherwise a permutation function with the same monomials.
+     */
+    public static PermutationFunction fromFunction( SimplePolynomialFunction f ) {
+        Preconditions.checkArgument( isPermutation( f ), "Function must only route input bits to output bits." );
+        if ( f instanceof PermutationFunction ) {
+            return (PermutationFunction) f;
+        }
+        return new PermutationFunction( f.getInputLength(), f.getOutputLength(), f.getMonomials(), f.getContributions() );
+    }
+
+    /**
+     * @return True if f isn't parameterized and each of its output bits is either a single input bit or zero.
+     */
+    public static boolean isPermutation( SimplePolynomialFunction f ) {
+        return f instanceof PermutationFunction
+                || ( isAffine( f ) && sourcesOf( f.getOutputLength(), f.getMonomials(), f.getContributions() ) != null );
+    }
+
+    /**
+     * @return The input bit routed to each output bit, or -1 for outputs that are always zero.
+     */
+    @JsonIgnore
+    public int[] getSources() {
+        return sources.clone();
+    }
+
+    @Override
+    protected PolynomialEvaluator createEvaluator() {
+        return new PermutationEvaluator( inputLength, sources );
+    }
+
+    /**
+     * Composes with other permutations by looking up the source of each output in the sources of the inner function.
+     *
+     * @see com.kryptnostic.multivariate.polynomial.AffinePolynomialFunction#compose(com.kryptnostic.multivariate.gf2.SimplePolynomialFunction,
+     *      com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext)
+     */
+    @Override
+    public SimplePolynomialFunction compose( SimplePolynomialFunction inner, PolynomialExecutionContext context ) {
+        Preconditions.checkArgument(
+                inputLength == inner.getOutputLength(),
+                "Input length of outer function must match output length of inner function it is being composed with" );
+        if ( !( inner instanceof PermutationFunction ) ) {
+            return super.compose( inner, context );
+        }
+        int[] innerSources = ( (PermutationFunction) inner ).sources;
+        int[] composed = new int[ outputLength ];
+        for ( int i = 0; i < outputLength; ++i ) {
+            composed[ i ] = sources[ i ] < 0 ? -1 : innerSources[ sources[ i ] ];
+        }
+        return fromSources( inner.getInputLength(), composed );
+    }
+
+    /**
+     * Computes outer( this( x ) ) by replacing each variable of the monomials of outer with its source. Monomials
+     * containing a variable whose output is always zero vanish, and monomials that become equal have their
+     * contributions added.
+     *
+     * @param outer A function that isn't parameterized, whose input length is the output length of this function.
+     * @return The composition of outer with this function.
+     */
+    public SimplePolynomialFunction relabel( SimplePolynomialFunction outer ) {
+        Preconditions.checkArgument( !outer.isParameterized(), "Cannot relabel the monomials of parameterized functions." );
+        Preconditions.checkArgument(
+                outer.getInputLength() == outputLength,
+                "Input length of outer function must match output length of inner function it is being composed with" );
+        Monomial[] outerMonomials = outer.getMonomials();
+        BitVector[] outerContributions = outer.getContributions();
+        Map<Monomial, BitVector> monomialContributionsMap = Maps.newHashMapWithExpectedSize( outerMonomials.length );
+        for ( int i = 0; i < outerMonomials.length; ++i ) {
+            Monomial relabelled = relabel( outerMonomials[ i ] );
+            if ( relabelled == null ) {
+                continue;
+            }
+            BitVector existing = monomialContributionsMap.get( relabelled );
+            if ( existing == null ) {
+                monomialContributionsMap.put( relabelled, outerContributions[ i ].copy() );
+            } else {
+                existing.xor( outerContributions[ i ] );
+            }
+        }
+        if ( monomialContributionsMap.isEmpty() ) {
+            monomialContributionsMap.put( Monomial.constantMonomial( inputLength ), new BitVector( outer
+                    .getOutputLength() ) );
+        }
+        SimplePolynomialFunction result = SimplePolynomialFunctions.fromMonomialContributionMap(
+                inputLength,
+                outer.getOutputLength(),
+                monomialContributionsMap );
+        return outer instanceof OptimizedPolynomialFunctionGF2 ? result.optimize() : result;
+    }
+
+    /**
+     * @return The monomial over the input of this function, or null if it contains a variable that is always zero.
+     */
+    private Monomial relabel( Monomial m ) {
+        Monomial relabelled = new Monomial( inputLength );
+        long[] words = m.elements();
+        int length = m.size();
+        for ( int i = 0; ( i << 6 ) < length; ++i ) {
+            long word = words[ i ];
+            while ( word != 0L ) {
+                int source = sources[ ( i << 6 ) + Long.numberOfTrailingZeros( word ) ];
+                if ( source < 0 ) {
+                    return null;
+                }
+                relabelled.set( source );
+                word &= word - 1;
+            }
+        }
+        return relabelled;
+    }
+
+    /**
+     * @return The source of each output, or null if an output depends on more than one input or on the constant.
+     */
+    private static int[] sourcesOf( int outputLength, Monomial[] monomials, BitVector[] contributions ) {
+        int[] sources = new int[ outputLength ];
+        Arrays.fill( sources, -1 );
+        for ( int i = 0; i < monomials.length; ++i ) {
+            Monomial m = monomials[ i ];
+            BitVector contribution = contributions[ i ];
+            int order = m.cardinality();
+            if ( order > 1 || ( order == 0 && contribution.cardinality() > 0 ) ) {
+                return null;
+            }
+            if ( order == 0 ) {
+                continue;
+            }
+            int source = m.indexOfFromTo( 0, m.size() - 1, true );
+            long[] words = contribution.elements();
+            for ( int j = 0; ( j << 6 ) < outputLength; ++j ) {
+                long word = words[ j ];
+                while ( word != 0L ) {
+                    int output = ( j << 6 ) + Long.numberOfTrailingZeros( word );
+                    if ( sources[ output ] >= 0 ) {
+                        return null;
+                    }
+                    sources[ output ] = source;
+                    word &= word - 1;
+                }
+            }
+        }
+        return sources;
+    }
+}
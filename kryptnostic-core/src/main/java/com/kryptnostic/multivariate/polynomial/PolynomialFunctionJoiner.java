@@ -1,7 +1,14 @@
 package com.kryptnostic.multivariate.polynomial;
 
+import java.util.Iterator;
+import java.util.List;
+
 import com.google.common.base.Preconditions;
 import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.evaluation.BatchEvaluation;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.evaluation.ScratchBuffers;
+import com.kryptnostic.multivariate.gf2.Consumer;
 import com.kryptnostic.multivariate.gf2.PolynomialFunction;
 import com.kryptnostic.multivariate.util.FunctionUtils;
 
@@ -38,6 +45,42 @@ public class PolynomialFunctionJoiner implements PolynomialFunction {
         return op.apply( lhs.apply( input ) , rhs.apply( input ) );
     }
 
+    @Override
+    public void applyInto( BitVector input, BitVector output ) {
+        Preconditions.checkArgument( input.size() == getInputLength() , "Input length does not match function." );
+        Preconditions.checkArgument( output.size() == getOutputLength() , "Output length does not match function." );
+        applyInto( input.elements() , output.elements() );
+    }
+
+    @Override
+    public void applyInto( long[] input, long[] output ) {
+        long[] lhsOutput = ScratchBuffers.acquire( BitVectors.wordsFor( lhs.getOutputLength() ) );
+        long[] rhsOutput = ScratchBuffers.acquire( BitVectors.wordsFor( rhs.getOutputLength() ) );
+        long[] opInput = ScratchBuffers.acquire( BitVectors.wordsFor( op.getInputLength() ) + 1 );
+        try {
+            lhs.applyInto( input , lhsOutput );
+            rhs.applyInto( input , rhsOutput );
+            
+            BitVectors.copyBits( lhsOutput , lhs.getOutputLength() , opInput , 0 );
+            BitVectors.copyBits( rhsOutput , rhs.getOutputLength() , opInput , lhs.getOutputLength() );
+            op.applyInto( opInput , output );
+        } finally {
+            ScratchBuffers.release( opInput );
+            ScratchBuffers.release( rhsOutput );
+            ScratchBuffers.release( lhsOutput );
+        }
+    }
+
+    @Override
+    public List<BitVector> applyAll( List<BitVector> inputs ) {
+        return BatchEvaluation.applyAll( this , inputs , PolynomialExecutionContext.getDefault() );
+    }
+
+    @Override
+    public void applyAll( Iterator<BitVector> inputs , Consumer<BitVector> consumer ) {
+        BatchEvaluation.applyAll( this , inputs , consumer , PolynomialExecutionContext.getDefault() );
+    }
+
     @Override
     public int getInputLength() {
         return lhs.getInputLength();
@@ -0,0 +1,37 @@
+package com.kryptnostic.multivariate.polynomial;
+
+import cern.colt.bitvector.BitVector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.kryptnostic.multivariate.evaluation.PolynomialEvaluator;
+import com.kryptnostic.multivariate.evaluation.QuadraticEvaluator;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+/**
+ * Multivariate quadratic function over GF(2), evaluated from per variable buckets instead of by scanning every
+ * monomial. This is what {@link BasePolynomialFunction#optimize()} returns for functions of order 2.
+ * 
+ * @see QuadraticEvaluator
+ */
+public class QuadraticPolynomialFunction extends OptimizedPolynomialFunctionGF2 {
+    private static final long serialVersionUID = -8470386237165024932L;
+
+    @JsonCreator
+    public QuadraticPolynomialFunction(
+            @JsonProperty( INPUT_LENGTH_PROPERTY ) int inputLength,
+            @JsonProperty( OUTPUT_LENGTH_PROPERTY ) int outputLength,
+            @JsonProperty( MONOMIALS_PROPERTY ) Monomial[] monomials,
+            @JsonProperty( CONTRIBUTIONS_PROPERTY ) BitVector[] contributions ) {
+        super( inputLength, outputLength, monomials, contributions );
+        Preconditions.checkArgument(
+                getMaximumMonomialOrder() <= 2,
+                "Quadratic functions cannot have monomials of order greater than 2." );
+    }
+
+    @Override
+    protected PolynomialEvaluator createEvaluator() {
+        return new QuadraticEvaluator( getEvaluationLength(), outputLength, monomials, contributions );
+    }
+}
@@ -3,12 +3,15 @@ package com.kryptnostic.multivariate.util;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.commons.lang3.tuple.Pair;
+
 import cern.colt.bitvector.BitVector;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.kryptnostic.bitwise.BitVectors;
 import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
 import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.PolynomialFunction;
@@ -244,6 +247,10 @@ public final class ParameterizedPolynomialFunctions {
         if (rhs.isParameterized() && !lhs.isParameterized()) {
             throw new Exception();
         }
+        if (lhs.isParameterized() && rhs.isParameterized()) {
+            return concatenateParameterized((ParameterizedPolynomialFunctionGF2) lhs,
+                    (ParameterizedPolynomialFunctionGF2) rhs);
+        }
         if (lhs.isParameterized() && !rhs.isParameterized()) {
             int actualLhsInputSize = lhs.getMonomials()[0].size();
             int extendedSize = actualLhsInputSize + ( rhs.getInputLength() << 1 );
@@ -292,6 +299,60 @@ public final class ParameterizedPolynomialFunctions {
         throw new Exception();
     }
 
+    /**
+     * Concatenates two parameterized functions. The extended input of the result is both inputs followed by the
+     * outputs of the lhs pipelines and then those of the rhs pipelines, with each pipeline truncating the combined
+     * input to the input of its own function.
+     */
+    private static SimplePolynomialFunction concatenateParameterized(ParameterizedPolynomialFunctionGF2 lhs,
+            ParameterizedPolynomialFunctionGF2 rhs) {
+        int inputLength = lhs.getInputLength() + rhs.getInputLength();
+        int outputLength = lhs.getOutputLength() + rhs.getOutputLength();
+        int lhsPipelineOutputLength = lhs.getPipelineOutputLength();
+        int extendedSize = inputLength + lhsPipelineOutputLength + rhs.getPipelineOutputLength();
+
+        int[] lhsInputMap = new int[lhs.getInputLength() + lhsPipelineOutputLength];
+        for (int i = 0; i < lhsInputMap.length; ++i) {
+            lhsInputMap[i] = i < lhs.getInputLength() ? i : i + rhs.getInputLength();
+        }
+        int[] rhsInputMap = new int[rhs.getInputLength() + rhs.getPipelineOutputLength()];
+        for (int i = 0; i < rhsInputMap.length; ++i) {
+            rhsInputMap[i] = i < rhs.getInputLength() ? i + lhs.getInputLength() : i + lhs.getInputLength()
+                    + lhsPipelineOutputLength;
+        }
+        Pair<int[], int[]> outputMaps = SimplePolynomialFunctions.getSplitMap(lhs.getOutputLength(),
+                rhs.getOutputLength());
+
+        Monomial[] lhsMonomials = lhs.getMonomials();
+        Monomial[] rhsMonomials = rhs.getMonomials();
+        Monomial[] newMonomials = new Monomial[lhsMonomials.length + rhsMonomials.length];
+        BitVector[] newContributions = new BitVector[newMonomials.length];
+        for (int i = 0; i < lhsMonomials.length; ++i) {
+            newMonomials[i] = new Monomial(extendedSize);
+            newMonomials[i].xor(BitVectors.extendAndOrder(lhsMonomials[i], lhsInputMap, extendedSize));
+            newContributions[i] = BitVectors.extendAndOrder(lhs.getContributions()[i], outputMaps.getLeft(),
+                    outputLength);
+        }
+        for (int i = 0, j = lhsMonomials.length; i < rhsMonomials.length; ++i, ++j) {
+            newMonomials[j] = new Monomial(extendedSize);
+            newMonomials[j].xor(BitVectors.extendAndOrder(rhsMonomials[i], rhsInputMap, extendedSize));
+            newContributions[j] = BitVectors.extendAndOrder(rhs.getContributions()[i], outputMaps.getRight(),
+                    outputLength);
+        }
+
+        List<CompoundPolynomialFunction> pipelines = Lists.newArrayList();
+        for (CompoundPolynomialFunction pipeline : lhs.getPipelines()) {
+            pipelines.add(pipeline.copy().prefix(
+                    SimplePolynomialFunctions.lowerTruncatingIdentity(inputLength, lhs.getInputLength())));
+        }
+        for (CompoundPolynomialFunction pipeline : rhs.getPipelines()) {
+            pipelines.add(pipeline.copy().prefix(
+                    SimplePolynomialFunctions.upperTruncatingIdentity(inputLength, rhs.getInputLength())));
+        }
+        return new ParameterizedPolynomialFunctionGF2(inputLength, outputLength, newMonomials, newContributions,
+                pipelines);
+    }
+
     public static SimplePolynomialFunction extendWithIdentity(SimplePolynomialFunction inner, int desiredLength,
             int outputLength) {
         Monomial[] monomials = inner.getMonomials();
@@ -15,6 +15,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.kryptnostic.bitwise.BitVectors;
@@ -22,8 +23,9 @@ import com.kryptnostic.linear.EnhancedBitMatrix;
 import com.kryptnostic.multivariate.PolynomialFunctionPipelineStage;
 import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
-import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.AffinePolynomialFunction;
 import com.kryptnostic.multivariate.polynomial.OptimizedPolynomialFunctionGF2;
+import com.kryptnostic.multivariate.polynomial.PermutationFunction;
 
 public class SimplePolynomialFunctions {
 
@@ -204,7 +206,7 @@ public class SimplePolynomialFunctions {
             contributions[ adjustedIndex ] = contribution;
         }
 
-        return new OptimizedPolynomialFunctionGF2( monomialOrder, monomialOrder, monomials, contributions );
+        return new PermutationFunction( monomialOrder, monomialOrder, monomials, contributions );
     }
 
     /**
@@ -226,7 +228,7 @@ public class SimplePolynomialFunctions {
             contributions[ adjustedIndex ] = contribution;
         }
 
-        return new OptimizedPolynomialFunctionGF2( inputLength, baseIndex, monomials, contributions );
+        return new PermutationFunction( inputLength, baseIndex, monomials, contributions );
     }
 
     /**
@@ -251,7 +253,7 @@ public class SimplePolynomialFunctions {
         }
 
         // No need to use
-        return new OptimizedPolynomialFunctionGF2( inputLength, inputLength, monomials, contributions );
+        return new PermutationFunction( inputLength, inputLength, monomials, contributions );
     }
 
     /**
@@ -272,7 +274,7 @@ public class SimplePolynomialFunctions {
         }
 
         // No need to use
-        return new OptimizedPolynomialFunctionGF2( inputLength, maxIndex, monomials, contributions );
+        return new PermutationFunction( inputLength, maxIndex, monomials, contributions );
     }
 
     public static SimplePolynomialFunction lowerTruncatingIdentity( int inputLength, int outputLength ) {
@@ -290,7 +292,7 @@ public class SimplePolynomialFunctions {
             }
             contributions[ i ] = contribution;
         }
-        return new BasePolynomialFunction( inputLength, outputLength, monomials, contributions );
+        return new PermutationFunction( inputLength, outputLength, monomials, contributions );
     }
 
     /**
@@ -312,7 +314,7 @@ public class SimplePolynomialFunctions {
             }
             contributions[ i ] = contribution;
         }
-        return new BasePolynomialFunction( inputLength, outputLength, monomials, contributions );
+        return new PermutationFunction( inputLength, outputLength, monomials, contributions );
     }
 
     public static SimplePolynomialFunction identityRange( int start, int end, int inputLength, int outputLength ) {
@@ -328,7 +330,7 @@ public class SimplePolynomialFunctions {
             contributions[ i ] = contribution;
         }
 
-        return new OptimizedPolynomialFunctionGF2( inputLength, outputLength, monomials, contributions );
+        return new PermutationFunction( inputLength, outputLength, monomials, contributions );
     }
 
     /**
@@ -512,9 +514,15 @@ public class SimplePolynomialFunctions {
         return EnhancedBitMatrix.randomMatrix( outputLength, inputLength ).multiply( identity( inputLength ) );
     }
 
+    /**
+     * @return The affine function c1 * x + c2 * y of the concatenated input [ x , y ].
+     */
     public static SimplePolynomialFunction linearCombination( EnhancedBitMatrix c1, EnhancedBitMatrix c2 ) {
-        return c1.multiply( lowerIdentity( c1.cols() << 1 ) ).xor( c2.multiply( upperIdentity( c2.cols() << 1 ) ) );
-
+        Preconditions.checkArgument( c1.rows() == c2.rows(), "Matrices must have the same number of rows." );
+        List<BitVector> rows = Lists.newArrayListWithCapacity( c1.cols() + c2.cols() );
+        rows.addAll( c1.transpose().getRows() );
+        rows.addAll( c2.transpose().getRows() );
+        return AffinePolynomialFunction.fromRows( new EnhancedBitMatrix( rows ), new BitVector( c1.rows() ) );
     }
 
     public static Pair<SimplePolynomialFunction, SimplePolynomialFunction> randomlyPartitionMVQ(
@@ -543,7 +551,7 @@ public class SimplePolynomialFunctions {
             contributions[ i ] = contribution;
         }
 
-        return new OptimizedPolynomialFunctionGF2( monomialCount, monomialCount, monomials, contributions );
+        return new PermutationFunction( monomialCount, monomialCount, monomials, contributions );
     }
     
     /**
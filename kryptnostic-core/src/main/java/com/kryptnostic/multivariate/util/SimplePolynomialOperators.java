@@ -8,6 +8,7 @@ import com.kryptnostic.multivariate.gf2.PolynomialFunction;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
 import com.kryptnostic.multivariate.polynomial.CompoundPolynomialFunctionGF2;
 import com.kryptnostic.multivariate.polynomial.OptimizedPolynomialFunctionGF2;
+import com.kryptnostic.multivariate.polynomial.PermutationFunction;
 
 /**
  * Utility class containing static methods to generate a {@link SimplePolynomialFunction} for the basic boolean and
@@ -37,7 +38,7 @@ public class SimplePolynomialOperators {
             cpf.prefix(halfAdder);
         }
         cpf.suffix(xor);
-        return cpf;
+        return cpf.optimize();
     }
 
     public static SimplePolynomialFunction AND(int andLength) {
@@ -112,7 +113,7 @@ public class SimplePolynomialOperators {
             contribution.set(i + shiftLength);
             contributions[i] = contribution;
         }
-        return new OptimizedPolynomialFunctionGF2(inputLength, inputLength, monomials, contributions);
+        return new PermutationFunction(inputLength, inputLength, monomials, contributions);
     }
 
     public static SimplePolynomialFunction NEG(int inputLength) {
@@ -142,7 +143,7 @@ public class SimplePolynomialOperators {
             contribution.set(index);
             contributions[index] = contribution;
         }
-        return new OptimizedPolynomialFunctionGF2(inputLength, inputLength, monomials, contributions);
+        return new PermutationFunction(inputLength, inputLength, monomials, contributions);
     }
 
     /**
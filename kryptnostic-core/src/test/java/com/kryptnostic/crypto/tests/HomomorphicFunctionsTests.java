@@ -44,6 +44,14 @@ public class HomomorphicFunctionsTests {
 		
 		testHomomorphicFunction(lsh, homomorphicLsh);
 	}
+	@Test
+	public void directHomomorphicAndTest() {
+		SimplePolynomialFunction directHomomorphicAnd = HomomorphicFunctions.DirectHomomorphicAnd(privKey);
+		SimplePolynomialFunction binaryAnd = SimplePolynomialOperators.BINARY_AND(LENGTH);
+		
+		testBinaryHomomorphicFunction(binaryAnd, directHomomorphicAnd);
+	}
+	
 	// TODO Complete binary h-function testing when bug in composeBinaryFunction is fixed.
 //	@Test
 	public void homomorphicBinaryXorTest() {
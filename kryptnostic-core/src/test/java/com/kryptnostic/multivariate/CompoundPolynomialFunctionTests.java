@@ -6,6 +6,7 @@ import org.junit.Test;
 import cern.colt.bitvector.BitVector;
 
 import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.linear.EnhancedBitMatrix;
 import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
 import com.kryptnostic.multivariate.polynomial.CompoundPolynomialFunctionGF2;
@@ -46,4 +47,52 @@ public class CompoundPolynomialFunctionTests {
         
         Assert.assertEquals( h.apply( g.apply( f.apply( v ) ) ) ,  cpf.apply( v ) );
     }
+    
+    @Test
+    public void testApplyIntoReusesOutput() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( 128 , 200 );
+        SimplePolynomialFunction g = SimplePolynomialFunctions.randomFunction( 200 , 100 );
+        CompoundPolynomialFunction cpf = CompoundPolynomialFunctions.fromFunctions( f , g );
+        
+        BitVector output = new BitVector( cpf.getOutputLength() );
+        for( int i = 0 ; i < 10 ; ++i ) {
+            BitVector v = BitVectors.randomVector( cpf.getInputLength() );
+            cpf.applyInto( v , output );
+            Assert.assertEquals( g.apply( f.apply( v ) ) , output );
+        }
+    }
+    
+    @Test
+    public void testOptimizeCollapsesAffineRuns() {
+        SimplePolynomialFunction truncate = SimplePolynomialFunctions.lowerTruncatingIdentity( 256 , 128 );
+        SimplePolynomialFunction a = EnhancedBitMatrix.randomMatrix( 128 , 128 ).multiply( SimplePolynomialFunctions.identity( 128 ) )
+                .xor( SimplePolynomialFunctions.constant( 128 , BitVectors.randomVector( 128 ) ) );
+        SimplePolynomialFunction q = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( 128 , 128 );
+        SimplePolynomialFunction b = EnhancedBitMatrix.randomMatrix( 64 , 128 ).multiply( SimplePolynomialFunctions.identity( 128 ) );
+        SimplePolynomialFunction identity = SimplePolynomialFunctions.identity( 64 );
+        CompoundPolynomialFunction cpf = CompoundPolynomialFunctions.fromFunctions( truncate , a , q , b , identity );
+        
+        CompoundPolynomialFunction optimized = cpf.optimize();
+        Assert.assertEquals( 2 , optimized.count() );
+        Assert.assertEquals( 5 , cpf.count() );
+        for( int i = 0 ; i < 10 ; ++i ) {
+            BitVector v = BitVectors.randomVector( cpf.getInputLength() );
+            Assert.assertEquals( cpf.apply( v ) , optimized.apply( v ) );
+        }
+    }
+    
+    @Test
+    public void testOptimizeFoldsTruncationIntoQuadratic() {
+        SimplePolynomialFunction truncate = SimplePolynomialFunctions.lowerTruncatingIdentity( 256 , 128 );
+        SimplePolynomialFunction q = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( 128 , 128 );
+        CompoundPolynomialFunction cpf = CompoundPolynomialFunctions.fromFunctions( truncate , q );
+        
+        CompoundPolynomialFunction optimized = cpf.optimize();
+        Assert.assertEquals( 1 , optimized.count() );
+        Assert.assertEquals( 256 , optimized.getInputLength() );
+        for( int i = 0 ; i < 10 ; ++i ) {
+            BitVector v = BitVectors.randomVector( cpf.getInputLength() );
+            Assert.assertEquals( cpf.apply( v ) , optimized.apply( v ) );
+        }
+    }
 }
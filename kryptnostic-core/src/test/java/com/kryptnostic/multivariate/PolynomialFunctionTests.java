@@ -5,7 +5,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -27,6 +26,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.kryptnostic.bitwise.BitVectors;
 import com.kryptnostic.linear.EnhancedBitMatrix;
+import com.kryptnostic.multivariate.composition.MonomialInternTable;
 import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
 import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
@@ -576,10 +576,10 @@ public class PolynomialFunctionTests {
         SimplePolynomialFunction f = optimizedLinearFunction();
         Monomial[] monomials = f.getMonomials();
         List<BitVector> contribs = Lists.newArrayList( f.getContributions() );
-        ConcurrentMap<Monomial, Integer> indices = Maps.newConcurrentMap();
+        MonomialInternTable table = new MonomialInternTable( f.getInputLength(), monomials.length );
 
         for ( int i = 0; i < monomials.length; ++i ) {
-            indices.put( monomials[ i ], i );
+            Assert.assertEquals( i, table.intern( monomials[ i ] ) );
         }
 
         EnhancedBitMatrix.transpose( contribs, f.getContributions().length );
@@ -588,17 +588,17 @@ public class PolynomialFunctionTests {
         BitVector rhs = contribs.get( r.nextInt( contribs.size() ) );
         List<Monomial> mList = Lists.newArrayList( monomials );
         OptimizedPolynomialFunctionGF2 function = new OptimizedPolynomialFunctionGF2( 0, 0, null, null );
-        BitVector p = function.product( lhs, rhs, mList, indices );
+        BitVector p = function.product( lhs, rhs, table );
 
         for ( int i = 0; i < lhs.size(); ++i ) {
             if ( lhs.get( i ) ) {
                 for ( int j = 0; j < rhs.size(); j++ ) {
                     if ( rhs.get( j ) ) {
-                        Assert.assertNotNull( indices.get( mList.get( i ).product( mList.get( j ) ) ) );
+                        Assert.assertTrue( table.indexOf( mList.get( i ).product( mList.get( j ) ) ) >= 0 );
                     }
 
                     if ( i != j && lhs.get( i ) && rhs.get( j ) && lhs.get( j ) && rhs.get( i ) ) {
-                        Assert.assertFalse( p.get( indices.get( mList.get( i ).product( mList.get( j ) ) ) ) );
+                        Assert.assertFalse( p.get( table.indexOf( mList.get( i ).product( mList.get( j ) ) ) ) );
                     }
                 }
             }
@@ -6,8 +6,15 @@ import org.junit.Test;
 import cern.colt.bitvector.BitVector;
 
 import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.linear.EnhancedBitMatrix;
+import com.kryptnostic.multivariate.gf2.Monomial;
 import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.AffinePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.PermutationFunction;
+import com.kryptnostic.multivariate.polynomial.QuadraticPolynomialFunction;
 import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+import com.kryptnostic.multivariate.util.SimplePolynomialOperators;
 
 public class PolynomialFunctionsTests {
 
@@ -27,4 +34,144 @@ public class PolynomialFunctionsTests {
         Assert.assertEquals(BitVectors.subVector(input, 1, 2), output);
     }
 
+    @Test
+    public void testBatchApply() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( 128, 192 );
+        BitVector[] inputs = new BitVector[ 150 ];
+        for ( int i = 0; i < inputs.length; ++i ) {
+            inputs[ i ] = BitVectors.randomVector( 128 );
+        }
+        BitVector[] outputs = f.apply( inputs );
+        Assert.assertEquals( inputs.length, outputs.length );
+        for ( int i = 0; i < inputs.length; ++i ) {
+            Assert.assertEquals( f.apply( inputs[ i ] ), outputs[ i ] );
+        }
+    }
+
+    @Test
+    public void testOptimizeQuadratic() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( 100, 70 );
+        SimplePolynomialFunction optimized = f.optimize();
+        Assert.assertTrue( optimized instanceof QuadraticPolynomialFunction );
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( 100 );
+            Assert.assertEquals( f.apply( input ), optimized.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testOptimizeAffine() {
+        SimplePolynomialFunction f = EnhancedBitMatrix.randomMatrix( 70, 100 ).multiply( SimplePolynomialFunctions.identity( 100 ) )
+                .xor( SimplePolynomialFunctions.constant( 100, BitVectors.randomVector( 70 ) ) );
+        SimplePolynomialFunction optimized = f.deoptimize().optimize();
+        Assert.assertTrue( optimized instanceof AffinePolynomialFunction );
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( 100 );
+            Assert.assertEquals( f.apply( input ), optimized.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testAffineComposeAndXor() {
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomManyToOneLinearCombination( 64 )
+                .xor( SimplePolynomialFunctions.constant( 128, BitVectors.randomVector( 64 ) ) );
+        SimplePolynomialFunction inner = EnhancedBitMatrix.randomMatrix( 128, 96 ).multiply( SimplePolynomialFunctions.identity( 96 ) );
+        SimplePolynomialFunction quadratic = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( 96, 128 );
+        SimplePolynomialFunction other = SimplePolynomialFunctions.randomManyToOneLinearCombination( 64 );
+
+        SimplePolynomialFunction composed = outer.compose( inner );
+        SimplePolynomialFunction composedQuadratic = outer.compose( quadratic );
+        SimplePolynomialFunction sum = outer.xor( other );
+        Assert.assertTrue( composed instanceof AffinePolynomialFunction );
+        Assert.assertTrue( sum instanceof AffinePolynomialFunction );
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( 96 );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), composed.apply( input ) );
+            Assert.assertEquals( outer.apply( quadratic.apply( input ) ), composedQuadratic.apply( input ) );
+
+            BitVector pair = BitVectors.randomVector( 128 );
+            BitVector expected = outer.apply( pair );
+            expected.xor( other.apply( pair ) );
+            Assert.assertEquals( expected, sum.apply( pair ) );
+        }
+    }
+
+    @Test
+    public void testApplyMaskedAndProject() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( 128, 192 );
+        int[] outputs = new int[] { 3, 70, 130, 191 };
+        BitVector mask = new BitVector( 192 );
+        mask.replaceFromToWith( 0, 63, true );
+        for ( int output : outputs ) {
+            mask.set( output );
+        }
+        SimplePolynomialFunction projected = f.project( outputs );
+        Assert.assertEquals( outputs.length, projected.getOutputLength() );
+
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( 128 );
+            BitVector expected = f.apply( input );
+            BitVector projectedOutput = projected.apply( input );
+            for ( int j = 0; j < outputs.length; ++j ) {
+                Assert.assertEquals( expected.get( outputs[ j ] ), projectedOutput.get( j ) );
+            }
+            expected.and( mask );
+            Assert.assertEquals( expected, f.applyMasked( input, mask ) );
+        }
+    }
+
+    @Test
+    public void testPermutationFunctions() {
+        SimplePolynomialFunction shift = SimplePolynomialOperators.LSH( 200, 3 );
+        SimplePolynomialFunction truncate = SimplePolynomialFunctions.upperTruncatingIdentity( 200, 130 );
+        int[] mapping = new int[ 130 ];
+        for ( int i = 0; i < mapping.length; ++i ) {
+            mapping[ i ] = ( i * 67 ) % 131;
+        }
+        SimplePolynomialFunction shuffle = PermutationFunction.fromMapping( mapping, 131 );
+        SimplePolynomialFunction quadratic = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( 131, 64 );
+        Assert.assertTrue( shift instanceof PermutationFunction );
+        Assert.assertTrue( SimplePolynomialFunctions.identity( 64 ).deoptimize().optimize() instanceof PermutationFunction );
+
+        SimplePolynomialFunction routed = shuffle.compose( truncate.compose( shift ) );
+        SimplePolynomialFunction composed = quadratic.compose( routed );
+        Assert.assertTrue( routed instanceof PermutationFunction );
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( 200 );
+            BitVector shifted = new BitVector( 200 );
+            BitVector truncated = new BitVector( 130 );
+            BitVector shuffled = new BitVector( 131 );
+            for ( int j = 0; j < 197; ++j ) {
+                shifted.put( j + 3, input.get( j ) );
+            }
+            for ( int j = 0; j < 130; ++j ) {
+                truncated.put( j, shifted.get( j + 70 ) );
+                shuffled.put( mapping[ j ], truncated.get( j ) );
+            }
+            Assert.assertEquals( shifted, shift.apply( input ) );
+            Assert.assertEquals( shifted, shift.deoptimize().apply( input ) );
+            Assert.assertEquals( shuffled, routed.apply( input ) );
+            Assert.assertEquals( quadratic.apply( shuffled ), composed.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testPermutationFactoriesKeepMonomials() {
+        // Truncating identities have always had a monomial for every input, including those that contribute nothing.
+        Monomial[] monomials = new Monomial[ 128 ];
+        BitVector[] contributions = new BitVector[ 128 ];
+        for ( int i = 0; i < 128; ++i ) {
+            monomials[ i ] = Monomial.linearMonomial( 128, i );
+            contributions[ i ] = new BitVector( 64 );
+            if ( i < 64 ) {
+                contributions[ i ].set( i );
+            }
+        }
+        SimplePolynomialFunction expected = new BasePolynomialFunction( 128, 64, monomials, contributions );
+        SimplePolynomialFunction truncate = SimplePolynomialFunctions.lowerTruncatingIdentity( 128, 64 );
+        Assert.assertTrue( truncate instanceof PermutationFunction );
+        Assert.assertEquals( expected, truncate );
+        Assert.assertEquals( expected.hashCode(), truncate.hashCode() );
+        Assert.assertEquals( 197, SimplePolynomialOperators.LSH( 200, 3 ).getMonomials().length );
+    }
 }
@@ -0,0 +1,134 @@
+package com.kryptnostic.multivariate.composition;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.colt.bitvector.BitVector;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.crypto.PrivateKey;
+import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.ParameterizedPolynomialFunctionGF2;
+import com.kryptnostic.multivariate.util.CompoundPolynomialFunctions;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+import com.kryptnostic.multivariate.util.SimplePolynomialOperators;
+
+public class ComposeCacheTests {
+    private static final int LENGTH = 64;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEqualOperandsHit() {
+        MetricRegistry metrics = new MetricRegistry();
+        ComposeCache cache = ComposeCache.builder().name( "cache-tests" ).metrics( metrics ).build();
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH );
+
+        SimplePolynomialFunction first = cache.compose( SimplePolynomialOperators.XOR( LENGTH ), inner );
+        SimplePolynomialFunction second = cache.compose( SimplePolynomialOperators.XOR( LENGTH ), inner );
+        Assert.assertSame( first, second );
+        Assert.assertEquals( 1, cache.getMissCount() );
+        Assert.assertEquals( 1, cache.getHitCount() );
+        Assert.assertEquals( 1, metrics.meter( MetricRegistry.name( "cache-tests", "hits" ) ).getCount() );
+
+        SimplePolynomialFunction sum = cache.xor( inner, inner );
+        Assert.assertNotSame( sum, cache.and( inner, inner ) );
+        Assert.assertSame( sum, cache.xor( inner, inner ) );
+
+        for ( int i = 0; i < 20; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            Assert.assertEquals( SimplePolynomialOperators.XOR( LENGTH ).apply( inner.apply( input ) ), first
+                    .apply( input ) );
+        }
+    }
+
+    @Test
+    public void testEvictedResultsAreReadFromDirectory() throws Exception {
+        ComposeCache cache = ComposeCache.builder().maximumWeight( 1 ).directory( folder.getRoot() ).build();
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH );
+
+        SimplePolynomialFunction first = cache.compose( outer, inner );
+        Assert.assertEquals( 1, cache.getEvictionCount() );
+        for ( File file : folder.getRoot().listFiles() ) {
+            Assert.assertEquals(
+                    PosixFilePermissions.fromString( "rw-------" ),
+                    Files.getPosixFilePermissions( file.toPath() ) );
+        }
+        SimplePolynomialFunction second = cache.compose( outer, inner );
+        Assert.assertEquals( 1, cache.getMissCount() );
+        Assert.assertEquals( 1, cache.getDiskHitCount() );
+
+        for ( int i = 0; i < 20; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            Assert.assertEquals( first.apply( input ), second.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testParameterizedInnerHits() {
+        PrivateKey privateKey = new PrivateKey( 128, 64 );
+        SimplePolynomialFunction decryptor = privateKey.getDecryptor();
+        ComposeCache cache = ComposeCache.builder().build();
+
+        SimplePolynomialFunction first = cache.compose( SimplePolynomialOperators.XOR( LENGTH ), decryptor );
+        SimplePolynomialFunction second = cache.compose( SimplePolynomialOperators.XOR( LENGTH ), decryptor );
+        Assert.assertNotSame( first, second );
+        Assert.assertEquals( 1, cache.getMissCount() );
+        Assert.assertEquals( 1, cache.getHitCount() );
+
+        privateKey.computeHomomorphicFunction( SimplePolynomialOperators.XOR( LENGTH ), cache );
+        Assert.assertEquals( 2, cache.getHitCount() );
+
+        for ( int i = 0; i < 20; ++i ) {
+            BitVector input = BitVectors.randomVector( decryptor.getInputLength() );
+            Assert.assertEquals(
+                    SimplePolynomialOperators.XOR( LENGTH ).apply( decryptor.apply( input ) ),
+                    second.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testComposingParameterizedResultDoesNotAffectLaterHits() {
+        ComposeCache cache = ComposeCache.builder().build();
+        SimplePolynomialFunction stage = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 16, 2 );
+        SimplePolynomialFunction base = SimplePolynomialFunctions.randomFunction( LENGTH << 1, LENGTH, 16, 2 );
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 16, 2 );
+
+        SimplePolynomialFunction first = cache.compose( outer, parameterized( base, stage ) );
+        SimplePolynomialFunction inner = parameterized( base, stage );
+        SimplePolynomialFunction second = cache.compose( outer, inner );
+        Assert.assertNotSame( first, second );
+        Assert.assertEquals( 1, cache.getHitCount() );
+
+        // Pipelines are mutable, so a caller can still change those of a result in place.
+        for ( CompoundPolynomialFunction pipeline : ( (ParameterizedPolynomialFunctionGF2) first ).getPipelines() ) {
+            pipeline.composeHeadDirectly( SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH ) );
+        }
+        for ( int i = 0; i < 20; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), second.apply( input ) );
+        }
+    }
+
+    private static SimplePolynomialFunction parameterized(
+            SimplePolynomialFunction base,
+            SimplePolynomialFunction stage ) {
+        return new ParameterizedPolynomialFunctionGF2(
+                LENGTH,
+                LENGTH,
+                base.getMonomials(),
+                base.getContributions(),
+                ImmutableList.of( CompoundPolynomialFunctions.fromFunctions( stage ) ) );
+    }
+}
@@ -0,0 +1,85 @@
+package com.kryptnostic.multivariate.composition;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.linear.EnhancedBitMatrix;
+import com.kryptnostic.multivariate.composition.ComposePlan.Strategy;
+import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
+import com.kryptnostic.multivariate.gf2.PolynomialFunction;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.CompoundPolynomialFunctions;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class ComposePlannerTests {
+    private static final int LENGTH = 64;
+
+    @Test
+    public void testStrategies() {
+        ComposePlanner planner = ComposePlanner.getDefault();
+        SimplePolynomialFunction quadratic = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        SimplePolynomialFunction affine = EnhancedBitMatrix.randomMatrix( LENGTH, LENGTH ).multiply(
+                SimplePolynomialFunctions.identity( LENGTH ) );
+        SimplePolynomialFunction small = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 4, 3 );
+        SimplePolynomialFunction large = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 64, 3 );
+        SimplePolynomialFunction sparse = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 4, 2 );
+
+        Assert.assertEquals( Strategy.QUADRATIC_AFFINE, planner.plan( quadratic, affine ).getStrategy() );
+        Assert.assertEquals(
+                Strategy.RELABEL,
+                planner.plan( small, SimplePolynomialFunctions.identity( LENGTH ) ).getStrategy() );
+        Assert.assertEquals( Strategy.EXPAND, planner.plan( small, sparse ).getStrategy() );
+        Assert.assertEquals( Strategy.RECURSIVE_LINEARIZING, planner.plan( large, sparse ).getStrategy() );
+        // Every monomial of order up to 6 in 64 variables is about 80 million monomials.
+        Assert.assertEquals( Strategy.LAZY, planner.plan( small, quadratic ).getStrategy() );
+    }
+
+    @Test
+    public void testEstimatesBoundResult() {
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 8, 3 );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 4, 2 );
+        ComposePlan plan = ComposePlanner.getDefault().plan( outer, inner );
+        Assert.assertTrue( plan.getEstimatedMonomials() >= outer.compose( inner ).getMonomials().length );
+        Assert.assertTrue( plan.getEstimatedBytes() > 0 );
+        Assert.assertTrue( plan.getEstimatedWork() > 0 );
+    }
+
+    @Test
+    public void testLazyWhenOverBudget() {
+        ComposePlanner planner = new ComposePlanner( 1 << 10 );
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 8, 3 );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 8, 2 );
+        ComposePlan plan = planner.plan( outer, inner );
+        Assert.assertEquals( Strategy.LAZY, plan.getStrategy() );
+        Assert.assertNotEquals( Strategy.LAZY, plan.getMaterializedStrategy() );
+
+        PolynomialFunction composed = planner.compose( outer, inner );
+        Assert.assertTrue( composed instanceof CompoundPolynomialFunction );
+        for ( int i = 0; i < 20; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), composed.apply( input ) );
+        }
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void testMaterializingLazyCompositionFails() {
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 4, 3 );
+        outer.compose( SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH ) );
+    }
+
+    @Test
+    public void testComposeHeadDirectlyKeepsLazyCompositionAsStage() {
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 4, 3 );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        CompoundPolynomialFunction pipeline = CompoundPolynomialFunctions.fromFunctions( outer );
+        pipeline.composeHeadDirectly( inner );
+        Assert.assertEquals( 2, pipeline.count() );
+        for ( int i = 0; i < 20; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), pipeline.apply( input ) );
+        }
+    }
+}
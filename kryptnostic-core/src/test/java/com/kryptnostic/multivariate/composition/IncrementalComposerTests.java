@@ -0,0 +1,119 @@
+package com.kryptnostic.multivariate.composition;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.crypto.PrivateKey;
+import com.kryptnostic.crypto.PublicKey;
+import com.kryptnostic.multivariate.composition.IncrementalComposer.Composition;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class IncrementalComposerTests {
+    private static final int LENGTH = 64;
+
+    @Test
+    public void testCompose() {
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 6, 2 );
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 16, 3 );
+        IncrementalComposer composer = new IncrementalComposer( inner );
+
+        SimplePolynomialFunction composed = composer.compose( outer );
+        int expansions = composer.getExpansionCount();
+        Assert.assertEquals( outer.compose( inner ).getMonomials().length, composed.getMonomials().length );
+        assertComposed( outer, inner, composed );
+
+        composer.compose( outer );
+        Assert.assertEquals( expansions, composer.getExpansionCount() );
+
+        composer.clear();
+        Assert.assertEquals( 0, composer.getExpansionCount() );
+        assertComposed( outer, inner, composer.compose( outer ) );
+        Assert.assertEquals( expansions, composer.getExpansionCount() );
+    }
+
+    @Test
+    public void testUpdate() {
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 6, 2 );
+        SimplePolynomialFunction first = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 8, 3 );
+        SimplePolynomialFunction delta = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 2, 3 );
+        SimplePolynomialFunction second = first.xor( delta );
+        IncrementalComposer composer = new IncrementalComposer( inner );
+
+        Composition composition = composer.newComposition( first );
+        composition.update( second );
+        assertComposed( second, inner, composition.toFunction() );
+
+        Monomial m = Monomial.linearMonomial( LENGTH, 3 ).product( Monomial.linearMonomial( LENGTH, 17 ) );
+        BitVector contribution = BitVectors.randomVector( LENGTH );
+        composition.add( m, contribution );
+        SimplePolynomialFunction added = second.xor( new BasePolynomialFunction(
+                LENGTH,
+                LENGTH,
+                new Monomial[] { m },
+                new BitVector[] { contribution } ) );
+        assertComposed( added, inner, composition.toFunction() );
+
+        composition.update( first );
+        assertComposed( first, inner, composition.toFunction() );
+    }
+
+    @Test
+    public void testHomomorphicFunction() {
+        PrivateKey privateKey = new PrivateKey( 128, 64 );
+        PublicKey publicKey = new PublicKey( privateKey );
+        SimplePolynomialFunction decryptor = privateKey.getDecryptor();
+        IncrementalComposer composer = privateKey.newHomomorphicComposer();
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 8, 2 );
+
+        assertComposed( outer, decryptor, composer.compose( outer ) );
+        SimplePolynomialFunction homomorphic = privateKey.computeHomomorphicFunction( outer, composer );
+        for ( int i = 0; i < 25; ++i ) {
+            BitVector plaintext = BitVectors.randomVector( LENGTH );
+            BitVector ciphertext = publicKey.getEncrypter().apply( plaintext, BitVectors.randomVector( LENGTH ) );
+            Assert.assertEquals( outer.apply( plaintext ), decryptor.apply( homomorphic.apply( ciphertext ) ) );
+        }
+    }
+
+    @Test
+    public void testBinaryHomomorphicFunction() {
+        PrivateKey privateKey = new PrivateKey( 128, 64 );
+        PublicKey publicKey = new PublicKey( privateKey );
+        SimplePolynomialFunction decryptor = privateKey.getDecryptor();
+        IncrementalComposer composer = privateKey.newBinaryHomomorphicComposer();
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH << 1, LENGTH, 8, 2 );
+
+        SimplePolynomialFunction homomorphic = privateKey.computeBinaryHomomorphicFunction( outer, composer );
+        for ( int i = 0; i < 25; ++i ) {
+            BitVector lhs = BitVectors.randomVector( LENGTH );
+            BitVector rhs = BitVectors.randomVector( LENGTH );
+            BitVector lhsCiphertext = publicKey.getEncrypter().apply( lhs, BitVectors.randomVector( LENGTH ) );
+            BitVector rhsCiphertext = publicKey.getEncrypter().apply( rhs, BitVectors.randomVector( LENGTH ) );
+            Assert.assertEquals(
+                    outer.apply( lhs, rhs ),
+                    decryptor.apply( homomorphic.apply( lhsCiphertext, rhsCiphertext ) ) );
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testBinaryHomomorphicFunctionRequiresBoundComposer() {
+        PrivateKey privateKey = new PrivateKey( 128, 64 );
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH << 1, LENGTH, 8, 2 );
+        privateKey.computeBinaryHomomorphicFunction( outer, privateKey.newHomomorphicComposer() );
+    }
+
+    private static void assertComposed(
+            SimplePolynomialFunction outer,
+            SimplePolynomialFunction inner,
+            SimplePolynomialFunction composed ) {
+        for ( int i = 0; i < 25; ++i ) {
+            BitVector input = BitVectors.randomVector( inner.getInputLength() );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), composed.apply( input ) );
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.kryptnostic.multivariate.composition;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.kryptnostic.multivariate.gf2.Monomial;
+
+public class MonomialInternTableTests {
+    private static final int SIZE    = 150;
+    private static final int THREADS = 8;
+
+    @Test
+    public void testConcurrentIntern() throws Exception {
+        final List<Monomial> monomials = Lists.newArrayListWithCapacity( 20000 );
+        for ( int i = 0; i < 20000; ++i ) {
+            monomials.add( Monomial.randomMonomial( SIZE, 3 ) );
+        }
+        // Sized for far fewer monomials than are interned, so the table and the chunk directory both grow.
+        final MonomialInternTable table = new MonomialInternTable( SIZE, 16 );
+
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        List<Future<int[]>> futures = Lists.newArrayList();
+        try {
+            for ( int t = 0; t < THREADS; ++t ) {
+                final int offset = t * 1000;
+                futures.add( executor.submit( new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        int[] indices = new int[ monomials.size() ];
+                        for ( int i = 0; i < indices.length; ++i ) {
+                            int j = ( i + offset ) % indices.length;
+                            indices[ j ] = table.intern( monomials.get( j ) );
+                        }
+                        return indices;
+                    }
+                } ) );
+            }
+
+            int[] expected = futures.get( 0 ).get();
+            for ( Future<int[]> future : futures ) {
+                Assert.assertArrayEquals( expected, future.get() );
+            }
+            Set<Monomial> distinct = Sets.newHashSet( monomials );
+            Assert.assertEquals( distinct.size(), table.size() );
+            for ( int i = 0; i < monomials.size(); ++i ) {
+                Assert.assertEquals( monomials.get( i ), table.get( expected[ i ] ) );
+                Assert.assertEquals( expected[ i ], table.indexOf( monomials.get( i ) ) );
+            }
+            Assert.assertEquals( -1, table.indexOf( new Monomial( SIZE ).chainSet( 1 ).chainSet( 2 ).chainSet( 3 )
+                    .chainSet( 4 ) ) );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testZeroWidthMonomials() {
+        MonomialInternTable table = new MonomialInternTable( 0, 0 );
+        Assert.assertEquals( -1, table.indexOf( Monomial.constantMonomial( 0 ) ) );
+        Assert.assertEquals( 0, table.intern( Monomial.constantMonomial( 0 ) ) );
+        Assert.assertEquals( 0, table.intern( new Monomial( 0 ) ) );
+        Assert.assertEquals( 1, table.size() );
+        Assert.assertEquals( Monomial.constantMonomial( 0 ), table.get( 0 ) );
+    }
+}
@@ -0,0 +1,49 @@
+package com.kryptnostic.multivariate.composition;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.linear.EnhancedBitMatrix;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class QuadraticAccumulatorTests {
+    @Test
+    public void testIndicesCoverBasis() {
+        int variables = 37;
+        QuadraticAccumulator accumulator = new QuadraticAccumulator( variables, 1 );
+        boolean[] seen = new boolean[ QuadraticAccumulator.size( variables ) ];
+        for ( int j = 0; j <= variables; ++j ) {
+            for ( int k = j; k <= variables; ++k ) {
+                int index = accumulator.index( j, k );
+                Assert.assertEquals( index, accumulator.index( k, j ) );
+                if ( j != k && k != variables ) {
+                    Assert.assertFalse( seen[ index ] );
+                }
+                seen[ index ] = true;
+            }
+        }
+        for ( boolean s : seen ) {
+            Assert.assertTrue( s );
+        }
+    }
+
+    @Test
+    public void testMvqCompose() {
+        BasePolynomialFunction outer = (BasePolynomialFunction) SimplePolynomialFunctions
+                .denseRandomMultivariateQuadratic( 96, 80 );
+        SimplePolynomialFunction inner = EnhancedBitMatrix.randomMatrix( 96, 72 )
+                .multiply( SimplePolynomialFunctions.identity( 72 ) )
+                .xor( SimplePolynomialFunctions.constant( 72, BitVectors.randomVector( 96 ) ) );
+        SimplePolynomialFunction composed = outer.mvqCompose( inner );
+        Assert.assertTrue( composed.getMonomials().length <= QuadraticAccumulator.size( 72 ) );
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( 72 );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), composed.apply( input ) );
+        }
+    }
+}
@@ -42,7 +42,23 @@ public class RecursiveLinearizingComposerTest {
         
         Assert.assertEquals( expected , actual );
     }
-    
+
+    @Test
+    public void testComposeHigherOrder() {
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( 48, 48, 128, 4 );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( 32, 48, 6, 2 );
+
+        RecursiveLinearizingComposer composer = new RecursiveLinearizingComposer( outer );
+        Stopwatch watch = Stopwatch.createStarted();
+        SimplePolynomialFunction composed = composer.compose( inner );
+        logger.info( "Higher order compose time: {} ms", watch.elapsed( TimeUnit.MILLISECONDS ) );
+
+        for ( int i = 0; i < 25; ++i ) {
+            BitVector input = BitVectors.randomVector( inner.getInputLength() );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), composed.apply( input ) );
+        }
+    }
+
     @Before
     public void testStart() {
         logger.debug( "Starting test." );
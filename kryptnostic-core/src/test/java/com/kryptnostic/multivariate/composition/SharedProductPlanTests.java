@@ -0,0 +1,39 @@
+package com.kryptnostic.multivariate.composition;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class SharedProductPlanTests {
+    @Test
+    public void testSharedFactorsAreComputedOnce() {
+        Monomial[] monomials = new Monomial[] {
+                Monomial.fromString( 8, "x1*x2*x5" ),
+                Monomial.fromString( 8, "x1*x2*x7" ),
+                Monomial.fromString( 8, "x2*x7" ),
+                Monomial.constantMonomial( 8 ) };
+        SharedProductPlan plan = new SharedProductPlan( monomials );
+        /*
+         * x2 is the most frequent factor, so the plan computes x2*x1, x2*x7, x2*x1*x5 and x2*x1*x7 instead of the five
+         * products needed to expand each monomial on its own.
+         */
+        Assert.assertEquals( 4, plan.getProductCount() );
+    }
+
+    @Test
+    public void testCompose() {
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( 32, 32, 64, 3 );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( 24, 32, 4, 2 );
+        SimplePolynomialFunction composed = outer.compose( inner );
+        for ( int i = 0; i < 50; ++i ) {
+            BitVector input = BitVectors.randomVector( 24 );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), composed.apply( input ) );
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.kryptnostic.multivariate.composition;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.composition.ComposePlan.Strategy;
+import com.kryptnostic.multivariate.evaluation.PolynomialExecutionContext;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class SpillingComposerTests {
+    private static final int LENGTH = 64;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompose() {
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 16, 3 );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 6, 2 );
+        SimplePolynomialFunction composed = new SpillingComposer( outer, folder.getRoot(), 7 ).compose( inner );
+        ComposePlan plan = ComposePlanner.getDefault().plan( outer, inner );
+        SimplePolynomialFunction planned = new SpillingComposer( outer, folder.getRoot(), plan ).compose( inner );
+
+        Assert.assertEquals( 0, folder.getRoot().listFiles().length );
+        Assert.assertEquals(
+                new RecursiveLinearizingComposer( outer ).compose( inner ).getMonomials().length,
+                composed.getMonomials().length );
+        for ( int i = 0; i < 25; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            Assert.assertEquals( outer.apply( inner.apply( input ) ), composed.apply( input ) );
+            Assert.assertEquals( composed.apply( input ), planned.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testPlannedWhenIntermediatesExceedBudget() {
+        // Dense enough that the records of the composition outweigh the partition and buffers held while spilling.
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 64, 3 );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 32, 2 );
+        ComposePlan inMemory = new ComposePlanner( Long.MAX_VALUE ).plan( outer, inner );
+        Assert.assertEquals( Strategy.RECURSIVE_LINEARIZING, inMemory.getStrategy() );
+
+        ComposePlanner planner = new ComposePlanner( inMemory.getEstimatedBytes() - 1 );
+        try ( PolynomialExecutionContext context = PolynomialExecutionContext.builder()
+                .spillDirectory( folder.getRoot() ).build() ) {
+            ComposePlan spilled = planner.plan( outer, inner, context );
+            Assert.assertEquals( Strategy.SPILLING, spilled.getStrategy() );
+            Assert.assertTrue( spilled.getEstimatedBytes() < inMemory.getEstimatedBytes() );
+        }
+    }
+
+    @Test
+    public void testNotSpilledWithoutDirectory() {
+        SimplePolynomialFunction outer = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 64, 3 );
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 32, 2 );
+        ComposePlan inMemory = new ComposePlanner( Long.MAX_VALUE ).plan( outer, inner );
+
+        ComposePlan plan = new ComposePlanner( inMemory.getEstimatedBytes() - 1 ).plan( outer, inner );
+        Assert.assertEquals( Strategy.LAZY, plan.getStrategy() );
+        Assert.assertEquals( Strategy.RECURSIVE_LINEARIZING, plan.getMaterializedStrategy() );
+    }
+}
@@ -0,0 +1,81 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.collect.Lists;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
+import com.kryptnostic.multivariate.gf2.Consumer;
+import com.kryptnostic.multivariate.gf2.PolynomialFunction;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.CompoundPolynomialFunctions;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class BatchEvaluationTests {
+    private static final int LENGTH = 128;
+
+    @Test
+    public void testApplyAllMatchesApply() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        CompoundPolynomialFunction compound = CompoundPolynomialFunctions.fromFunctions( f, f );
+        List<BitVector> inputs = randomInputs( 1000 );
+
+        assertMatchesApply( f, inputs, f.applyAll( inputs ) );
+        assertMatchesApply( compound, inputs, compound.applyAll( inputs ) );
+    }
+
+    @Test
+    public void testStreamingApplyAll() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 16, 3 );
+        List<BitVector> inputs = randomInputs( 2 * BatchEvaluation.STREAMING_SLICE_SIZE + 3 );
+        final List<BitVector> outputs = Lists.newArrayList();
+        f.applyAll( inputs.iterator(), new Consumer<BitVector>() {
+            @Override
+            public void accept( BitVector value ) {
+                outputs.add( value );
+            }
+        } );
+        assertMatchesApply( f, inputs, outputs );
+    }
+
+    @Test
+    public void testApplyAllFromExecutorThread() throws Exception {
+        final SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 16, 3 );
+        final List<BitVector> inputs = randomInputs( 4 * BatchEvaluation.MINIMUM_SLICE_SIZE );
+        final PolynomialExecutionContext context = PolynomialExecutionContext.builder().parallelism( 1 ).build();
+        try {
+            // The only thread of the executor is busy with the call itself, so no other slice can start.
+            List<BitVector> outputs = context.getExecutor().submit( new Callable<List<BitVector>>() {
+                @Override
+                public List<BitVector> call() {
+                    return BatchEvaluation.applyAll( f, inputs, context );
+                }
+            } ).get( 60, TimeUnit.SECONDS );
+            assertMatchesApply( f, inputs, outputs );
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    private static void assertMatchesApply( PolynomialFunction f, List<BitVector> inputs, List<BitVector> outputs ) {
+        Assert.assertEquals( inputs.size(), outputs.size() );
+        for ( int i = 0; i < inputs.size(); ++i ) {
+            Assert.assertEquals( f.apply( inputs.get( i ) ), outputs.get( i ) );
+        }
+    }
+
+    private static List<BitVector> randomInputs( int count ) {
+        List<BitVector> inputs = Lists.newArrayListWithCapacity( count );
+        for ( int i = 0; i < count; ++i ) {
+            inputs.add( BitVectors.randomVector( LENGTH ) );
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,83 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.collect.Lists;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class ForkJoinTableEvaluatorTests {
+    private static final int                  LENGTH = 256;
+    private static PolynomialExecutionContext context;
+
+    @BeforeClass
+    public static void createContext() {
+        context = PolynomialExecutionContext.builder().name( "fork-join-tests" ).parallelism( 3 ).build();
+    }
+
+    @AfterClass
+    public static void shutdownContext() {
+        context.shutdown();
+    }
+
+    @Test
+    public void testEvaluateMatchesMonomialTable() {
+        final MonomialTable table = denseTable();
+        final ForkJoinTableEvaluator evaluator = new ForkJoinTableEvaluator( table );
+
+        long[] expected = new long[ table.getOutputWords() ];
+        long[] actual = new long[ table.getOutputWords() ];
+        for ( int i = 0; i < 20; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            table.evaluate( input.elements(), expected );
+            evaluator.evaluate( input.elements(), actual, context );
+            Assert.assertArrayEquals( expected, actual );
+        }
+    }
+
+    @Test
+    public void testConcurrentCallers() throws Exception {
+        final MonomialTable table = denseTable();
+        final ForkJoinTableEvaluator evaluator = new ForkJoinTableEvaluator( table );
+        ExecutorService callers = Executors.newFixedThreadPool( 4 );
+        try {
+            List<Future<Boolean>> results = Lists.newArrayList();
+            for ( int i = 0; i < 16; ++i ) {
+                results.add( callers.submit( new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        BitVector input = BitVectors.randomVector( LENGTH );
+                        long[] expected = new long[ table.getOutputWords() ];
+                        long[] actual = new long[ table.getOutputWords() ];
+                        table.evaluate( input.elements(), expected );
+                        evaluator.evaluate( input.elements(), actual, context );
+                        return Arrays.equals( expected, actual );
+                    }
+                } ) );
+            }
+            for ( Future<Boolean> result : results ) {
+                Assert.assertTrue( result.get() );
+            }
+        } finally {
+            callers.shutdown();
+        }
+    }
+
+    private static MonomialTable denseTable() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        return new MonomialTable( LENGTH, LENGTH, f.getMonomials(), f.getContributions() );
+    }
+}
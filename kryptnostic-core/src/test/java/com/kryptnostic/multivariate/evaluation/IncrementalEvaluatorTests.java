@@ -0,0 +1,69 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class IncrementalEvaluatorTests {
+    private static final int    LENGTH = 128;
+    private static final Random r      = new Random();
+
+    @Test
+    public void testFlip() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 64, 3 );
+        IncrementalEvaluator evaluator = ( (BasePolynomialFunction) f ).newIncrementalEvaluator();
+        BitVector input = BitVectors.randomVector( LENGTH );
+        evaluator.reset( input );
+        Assert.assertEquals( f.apply( input ), evaluator.getOutput() );
+
+        for ( int i = 0; i < 50; ++i ) {
+            int a = r.nextInt( LENGTH );
+            int b = r.nextInt( LENGTH );
+            input.put( a, !input.get( a ) );
+            input.put( b, !input.get( b ) );
+            Assert.assertEquals( f.apply( input ), evaluator.flip( a, b ) );
+            Assert.assertEquals( input, evaluator.getInput() );
+        }
+    }
+
+    @Test
+    public void testUpdateRandomHalf() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        IncrementalEvaluator evaluator = ( (BasePolynomialFunction) f ).newIncrementalEvaluator();
+        BitVector fixed = BitVectors.randomVector( LENGTH >>> 1 );
+        BitVector input = BitVectors.concatenate( fixed, BitVectors.randomVector( LENGTH >>> 1 ) );
+        evaluator.reset( input, f.apply( input ) );
+
+        for ( int i = 0; i < 20; ++i ) {
+            input = BitVectors.concatenate( fixed, BitVectors.randomVector( LENGTH >>> 1 ) );
+            Assert.assertEquals( f.apply( input ), evaluator.update( input ) );
+        }
+    }
+
+    @Test
+    public void testOnlyTouchesMonomialsWithFlippedVariables() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 64, 2 );
+        IncrementalEvaluator evaluator = ( (BasePolynomialFunction) f ).newIncrementalEvaluator();
+        BitVector input = BitVectors.randomVector( LENGTH );
+        evaluator.reset( input );
+
+        input.put( 5, !input.get( 5 ) );
+        Assert.assertEquals( f.apply( input ), evaluator.flip( 5 ) );
+        int containing = 0;
+        for ( int i = 0; i < f.getMonomials().length; ++i ) {
+            if ( f.getMonomials()[ i ].get( 5 ) ) {
+                ++containing;
+            }
+        }
+        Assert.assertEquals( containing, evaluator.getTouchedMonomialCount() );
+        Assert.assertTrue( containing < f.getMonomials().length );
+    }
+}
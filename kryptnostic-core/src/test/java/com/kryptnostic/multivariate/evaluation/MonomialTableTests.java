@@ -0,0 +1,57 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.Monomial;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class MonomialTableTests {
+    private static final int INPUT_LENGTH  = 100;
+    private static final int OUTPUT_LENGTH = 70;
+
+    @Test
+    public void testApplyMatchesMonomialEvaluation() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( INPUT_LENGTH, OUTPUT_LENGTH );
+        Monomial[] monomials = f.getMonomials();
+        BitVector[] contributions = f.getContributions();
+        MonomialTable table = new MonomialTable( INPUT_LENGTH, OUTPUT_LENGTH, monomials, contributions );
+
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( INPUT_LENGTH );
+            BitVector expected = new BitVector( OUTPUT_LENGTH );
+            for ( int j = 0; j < monomials.length; ++j ) {
+                if ( monomials[ j ].eval( input ) ) {
+                    expected.xor( contributions[ j ] );
+                }
+            }
+            Assert.assertEquals( expected, table.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testSparseInputsMatchScan() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.denseRandomMultivariateQuadratic(
+                INPUT_LENGTH,
+                OUTPUT_LENGTH );
+        MonomialTable table = new MonomialTable( INPUT_LENGTH, OUTPUT_LENGTH, f.getMonomials(), f.getContributions() );
+
+        long[] expected = new long[ table.getOutputWords() ];
+        long[] actual = new long[ table.getOutputWords() ];
+        for ( int weight = 0; weight < 8; ++weight ) {
+            BitVector input = BitVectors.randomVector( INPUT_LENGTH, weight );
+            Assert.assertTrue( table.isSparse( input.elements() ) );
+            table.evaluate( input.elements(), expected, 0, table.size() );
+            table.evaluate( input.elements(), actual );
+            Assert.assertArrayEquals( expected, actual );
+            Arrays.fill( expected, 0L );
+        }
+        Assert.assertFalse( table.isSparse( BitVectors.randomVector( INPUT_LENGTH, INPUT_LENGTH / 2 ).elements() ) );
+    }
+}
@@ -0,0 +1,32 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class MonomialTrieTests {
+    private static final int INPUT_LENGTH  = 100;
+    private static final int OUTPUT_LENGTH = 70;
+
+    @Test
+    public void testEvaluateMatchesMonomialTable() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( INPUT_LENGTH, OUTPUT_LENGTH, 32, 5 );
+        f = f.xor( SimplePolynomialFunctions.constant( INPUT_LENGTH, BitVectors.randomVector( OUTPUT_LENGTH ) ) );
+        MonomialTable table = new MonomialTable( INPUT_LENGTH, OUTPUT_LENGTH, f.getMonomials(), f.getContributions() );
+        MonomialTrie trie = new MonomialTrie( INPUT_LENGTH, OUTPUT_LENGTH, f.getMonomials(), f.getContributions() );
+
+        long[] expected = new long[ 2 ];
+        long[] actual = new long[ 2 ];
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( INPUT_LENGTH );
+            table.evaluate( input.elements(), expected );
+            trie.evaluate( input.elements(), actual );
+            Assert.assertArrayEquals( expected, actual );
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.CompoundPolynomialFunction;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.ParameterizedPolynomialFunctionGF2;
+import com.kryptnostic.multivariate.util.CompoundPolynomialFunctions;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class PipelineEvaluationPlanTests {
+    private static final int LENGTH = 128;
+
+    @Test
+    public void testSharedStagesAreEvaluatedOnce() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 16, 3 );
+        SimplePolynomialFunction g = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 16, 3 );
+        CompoundPolynomialFunction fg = CompoundPolynomialFunctions.fromFunctions( f, g );
+        List<CompoundPolynomialFunction> pipelines = ImmutableList.of(
+                fg,
+                fg,
+                CompoundPolynomialFunctions.fromFunctions( f ),
+                CompoundPolynomialFunctions.fromFunctions( g ) );
+
+        PipelineEvaluationPlan plan = new PipelineEvaluationPlan( LENGTH, pipelines );
+        Assert.assertEquals( 3, plan.getStageCount() );
+        Assert.assertEquals( 4 * LENGTH, plan.getOutputLength() );
+        assertMatchesPipelines( plan, pipelines );
+    }
+
+    @Test
+    public void testConcurrentEvaluation() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        SimplePolynomialFunction g = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        List<CompoundPolynomialFunction> pipelines = ImmutableList.of(
+                CompoundPolynomialFunctions.fromFunctions( f ),
+                CompoundPolynomialFunctions.fromFunctions( g, f ),
+                CompoundPolynomialFunctions.fromFunctions( f ) );
+
+        PipelineEvaluationPlan plan = new PipelineEvaluationPlan( LENGTH, pipelines );
+        Assert.assertTrue( f.getTotalMonomialCount() + g.getTotalMonomialCount() >= PipelineEvaluationPlan.PARALLEL_THRESHOLD );
+        assertMatchesPipelines( plan, pipelines );
+
+        SimplePolynomialFunction base = SimplePolynomialFunctions.randomFunction( 4 * LENGTH, LENGTH, 16, 2 );
+        ParameterizedPolynomialFunctionGF2 parameterized = new ParameterizedPolynomialFunctionGF2(
+                LENGTH,
+                LENGTH,
+                base.getMonomials(),
+                base.getContributions(),
+                pipelines );
+        for ( int i = 0; i < 10; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            BitVector extended = BitVectors.concatenate( input, f.apply( input ), f.apply( g.apply( input ) ), f.apply( input ) );
+            Assert.assertEquals( base.apply( extended ), parameterized.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testApplyAllOnSingleThreadContext() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        SimplePolynomialFunction g = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( LENGTH, LENGTH );
+        SimplePolynomialFunction base = SimplePolynomialFunctions.randomFunction( 3 * LENGTH, LENGTH, 16, 2 );
+        ParameterizedPolynomialFunctionGF2 parameterized = new ParameterizedPolynomialFunctionGF2(
+                LENGTH,
+                LENGTH,
+                base.getMonomials(),
+                base.getContributions(),
+                ImmutableList.of(
+                        CompoundPolynomialFunctions.fromFunctions( f ),
+                        CompoundPolynomialFunctions.fromFunctions( g ) ) );
+
+        List<BitVector> inputs = Lists.newArrayList();
+        for ( int i = 0; i < 4 * BatchEvaluation.MINIMUM_SLICE_SIZE; ++i ) {
+            inputs.add( BitVectors.randomVector( LENGTH ) );
+        }
+
+        PolynomialExecutionContext previous = PolynomialExecutionContext.getDefault();
+        PolynomialExecutionContext context = PolynomialExecutionContext.builder().name( "single" ).parallelism( 1 )
+                .build();
+        PolynomialExecutionContext.setDefault( context );
+        try {
+            List<BitVector> outputs = parameterized.applyAll( inputs, context );
+            for ( int i = 0; i < inputs.size(); ++i ) {
+                BitVector input = inputs.get( i );
+                BitVector extended = BitVectors.concatenate( input, f.apply( input ), g.apply( input ) );
+                Assert.assertEquals( base.apply( extended ), outputs.get( i ) );
+            }
+        } finally {
+            PolynomialExecutionContext.setDefault( previous );
+            context.shutdown();
+        }
+    }
+
+    private static void assertMatchesPipelines( PipelineEvaluationPlan plan, List<CompoundPolynomialFunction> pipelines ) {
+        for ( int i = 0; i < 10; ++i ) {
+            BitVector input = BitVectors.randomVector( LENGTH );
+            long[] destination = new long[ BitVectors.wordsFor( LENGTH + plan.getOutputLength() ) + 1 ];
+            BitVectors.copyBits( input.elements(), LENGTH, destination, 0 );
+            plan.evaluate( input.elements(), destination, LENGTH, PolynomialExecutionContext.getDefault() );
+
+            BitVector[] expected = new BitVector[ pipelines.size() + 1 ];
+            expected[ 0 ] = input;
+            for ( int j = 0; j < pipelines.size(); ++j ) {
+                expected[ j + 1 ] = pipelines.get( j ).apply( input );
+            }
+            Assert.assertEquals(
+                    BitVectors.concatenate( expected ),
+                    new BitVector( destination, LENGTH + plan.getOutputLength() ) );
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.OptimizedPolynomialFunctionGF2;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class PolynomialExecutionContextTests {
+    private static final int LENGTH = 64;
+
+    @Test
+    public void testOperationsUseContext() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        PolynomialExecutionContext context = PolynomialExecutionContext.builder().name( "context-tests" )
+                .parallelism( 2 ).metrics( metrics ).build();
+        try {
+            BasePolynomialFunction outer = (BasePolynomialFunction) SimplePolynomialFunctions.randomFunction(
+                    LENGTH,
+                    LENGTH,
+                    2,
+                    2 ).optimize();
+            SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 2, 2 );
+            SimplePolynomialFunction composed = outer.compose( inner, context );
+
+            BasePolynomialFunction lhs = (BasePolynomialFunction) SimplePolynomialFunctions.randomFunction(
+                    LENGTH,
+                    LENGTH,
+                    4,
+                    2 );
+            SimplePolynomialFunction rhs = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 2, 1 );
+            SimplePolynomialFunction product = lhs.and( rhs, context );
+
+            for ( int i = 0; i < 20; ++i ) {
+                BitVector input = BitVectors.randomVector( LENGTH );
+                Assert.assertEquals( outer.apply( inner.apply( input ) ), composed.apply( input ) );
+
+                BitVector expected = lhs.apply( input );
+                expected.and( rhs.apply( input ) );
+                Assert.assertEquals( expected, product.apply( input ) );
+                Assert.assertEquals( lhs.apply( input ), lhs.apply( input, context ) );
+            }
+        } finally {
+            context.shutdown();
+        }
+        Assert.assertTrue( context.isShutdown() );
+        // The calling thread may have run every block itself, but the executor was still asked to help.
+        Assert.assertTrue( context.getExecutor().awaitTermination( 60, TimeUnit.SECONDS ) );
+        Assert.assertTrue( metrics.timer( MetricRegistry.name( "context-tests", "tasks" ) ).getCount() > 0 );
+    }
+
+    @Test
+    public void testOperationsFromExecutorThreads() throws Exception {
+        final PolynomialExecutionContext context = PolynomialExecutionContext.builder().parallelism( 2 ).build();
+        try {
+            final BasePolynomialFunction outer = (BasePolynomialFunction) SimplePolynomialFunctions.randomFunction(
+                    LENGTH,
+                    LENGTH,
+                    2,
+                    2 ).optimize();
+            final SimplePolynomialFunction inner = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 2, 2 );
+            final BasePolynomialFunction lhs = (BasePolynomialFunction) SimplePolynomialFunctions.randomFunction(
+                    LENGTH,
+                    LENGTH,
+                    4,
+                    2 );
+            final SimplePolynomialFunction rhs = SimplePolynomialFunctions.randomFunction( LENGTH, LENGTH, 2, 1 );
+
+            // Every thread of the executor waits on work split across the same executor.
+            List<Future<SimplePolynomialFunction[]>> results = Lists.newArrayList();
+            for ( int i = 0; i < context.getParallelism(); ++i ) {
+                results.add( context.getExecutor().submit( new Callable<SimplePolynomialFunction[]>() {
+                    @Override
+                    public SimplePolynomialFunction[] call() {
+                        return new SimplePolynomialFunction[] { outer.compose( inner, context ),
+                                lhs.and( rhs, context ) };
+                    }
+                } ) );
+            }
+            for ( Future<SimplePolynomialFunction[]> result : results ) {
+                SimplePolynomialFunction[] functions = result.get( 60, TimeUnit.SECONDS );
+                for ( int i = 0; i < 20; ++i ) {
+                    BitVector input = BitVectors.randomVector( LENGTH );
+                    Assert.assertEquals( outer.apply( inner.apply( input ) ), functions[ 0 ].apply( input ) );
+
+                    BitVector expected = lhs.apply( input );
+                    expected.and( rhs.apply( input ) );
+                    Assert.assertEquals( expected, functions[ 1 ].apply( input ) );
+                }
+            }
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testThreadPerTask() throws Exception {
+        PolynomialExecutionContext context = PolynomialExecutionContext.builder().threadPerTask( true )
+                .daemon( false ).build();
+        try {
+            Thread thread = context.getExecutor().submit( new Callable<Thread>() {
+                @Override
+                public Thread call() {
+                    return Thread.currentThread();
+                }
+            } ).get();
+            Assert.assertFalse( thread.isDaemon() );
+
+            OptimizedPolynomialFunctionGF2 f = (OptimizedPolynomialFunctionGF2) SimplePolynomialFunctions
+                    .randomFunction( LENGTH, LENGTH, 4, 3 ).optimize();
+            BitVector input = BitVectors.randomVector( LENGTH );
+            Assert.assertEquals( f.apply( input ), f.apply( input, context ) );
+        } finally {
+            context.shutdown();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.google.common.base.Optional;
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.polynomial.BasePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class PolynomialFunctionCompilerTests {
+    private static final int INPUT_LENGTH  = 100;
+    private static final int OUTPUT_LENGTH = 70;
+
+    @Before
+    public void requireCompiler() {
+        Assume.assumeTrue( PolynomialFunctionCompiler.isAvailable() );
+    }
+
+    @Test
+    public void testEvaluateMatchesMonomialTable() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( INPUT_LENGTH, OUTPUT_LENGTH, 32, 5 );
+        f = f.xor( SimplePolynomialFunctions.constant( INPUT_LENGTH, BitVectors.randomVector( OUTPUT_LENGTH ) ) );
+        assertMatchesMonomialTable( f, INPUT_LENGTH, OUTPUT_LENGTH );
+    }
+
+    @Test
+    public void testLargeFunctionIsSplit() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.denseRandomMultivariateQuadratic( 128, 128 );
+        Assert.assertTrue( PolynomialFunctionCompiler.generate( 128, 128, f.getMonomials(), f.getContributions() )
+                .size() > 1 );
+        assertMatchesMonomialTable( f, 128, 128 );
+    }
+
+    @Test
+    public void testCompiledFunction() {
+        BasePolynomialFunction f = (BasePolynomialFunction) SimplePolynomialFunctions.randomFunction(
+                INPUT_LENGTH,
+                OUTPUT_LENGTH,
+                32,
+                3 );
+        BasePolynomialFunction compiled = new BasePolynomialFunction(
+                INPUT_LENGTH,
+                OUTPUT_LENGTH,
+                f.getMonomials(),
+                f.getContributions() ).compile();
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( INPUT_LENGTH );
+            Assert.assertEquals( f.apply( input ), compiled.apply( input ) );
+        }
+    }
+
+    private void assertMatchesMonomialTable( SimplePolynomialFunction f, int inputLength, int outputLength ) {
+        MonomialTable table = new MonomialTable( inputLength, outputLength, f.getMonomials(), f.getContributions() );
+        Optional<PolynomialEvaluator> compiled = PolynomialFunctionCompiler.compile(
+                inputLength,
+                outputLength,
+                f.getMonomials(),
+                f.getContributions() );
+        Assert.assertTrue( compiled.isPresent() );
+
+        long[] expected = new long[ BitVectors.wordsFor( outputLength ) ];
+        long[] actual = new long[ BitVectors.wordsFor( outputLength ) ];
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( inputLength );
+            table.evaluate( input.elements(), expected );
+            compiled.get().evaluate( input.elements(), actual );
+            Assert.assertArrayEquals( expected, actual );
+        }
+    }
+}
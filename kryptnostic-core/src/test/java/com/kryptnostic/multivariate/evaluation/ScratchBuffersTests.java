@@ -0,0 +1,59 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class ScratchBuffersTests {
+
+    @Test
+    public void testAcquiredBuffersAreDistinctUntilReleased() {
+        long[] first = ScratchBuffers.acquire( 5 );
+        long[] second = ScratchBuffers.acquire( 7 );
+        Assert.assertTrue( first.length >= 5 );
+        Assert.assertTrue( second.length >= 7 );
+        Assert.assertNotSame( first, second );
+
+        ScratchBuffers.release( first );
+        Assert.assertSame( first, ScratchBuffers.acquire( 6 ) );
+        ScratchBuffers.release( first );
+        ScratchBuffers.release( second );
+    }
+
+    @Test
+    public void testRetainedBuffersAreBounded() {
+        long[][] acquired = new long[ ScratchBuffers.MAX_POOLED_PER_SIZE * 2 ][];
+        for ( int i = 0; i < acquired.length; ++i ) {
+            acquired[ i ] = ScratchBuffers.acquire( 3 );
+        }
+        for ( long[] buffer : acquired ) {
+            ScratchBuffers.release( buffer );
+        }
+
+        Set<long[]> reused = Sets.newIdentityHashSet();
+        long[][] reacquired = new long[ acquired.length ][];
+        for ( int i = 0; i < reacquired.length; ++i ) {
+            reacquired[ i ] = ScratchBuffers.acquire( 3 );
+            for ( long[] buffer : acquired ) {
+                if ( buffer == reacquired[ i ] ) {
+                    reused.add( buffer );
+                }
+            }
+        }
+        Assert.assertEquals( ScratchBuffers.MAX_POOLED_PER_SIZE, reused.size() );
+        for ( long[] buffer : reacquired ) {
+            ScratchBuffers.release( buffer );
+        }
+    }
+
+    @Test
+    public void testLargeBuffersAreNotPooled() {
+        long[] large = ScratchBuffers.acquire( ScratchBuffers.MAX_POOLED_WORDS + 1 );
+        Assert.assertEquals( ScratchBuffers.MAX_POOLED_WORDS + 1, large.length );
+        ScratchBuffers.release( large );
+        Assert.assertNotSame( large, ScratchBuffers.acquire( ScratchBuffers.MAX_POOLED_WORDS + 1 ) );
+    }
+}
@@ -0,0 +1,52 @@
+package com.kryptnostic.multivariate.evaluation;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cern.colt.bitvector.BitVector;
+
+import com.kryptnostic.bitwise.BitVectors;
+import com.kryptnostic.multivariate.gf2.SimplePolynomialFunction;
+import com.kryptnostic.multivariate.util.SimplePolynomialFunctions;
+
+public class TruthTableTests {
+    private static final int INPUT_LENGTH  = 12;
+    private static final int OUTPUT_LENGTH = 70;
+
+    @Test
+    public void testEvaluate() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( INPUT_LENGTH, OUTPUT_LENGTH, 16, 4 );
+        TruthTable table = TruthTable.fromFunction( f );
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( INPUT_LENGTH );
+            Assert.assertEquals( f.apply( input ), table.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( INPUT_LENGTH, OUTPUT_LENGTH, 16, 4 );
+        SimplePolynomialFunction recovered = TruthTable.fromFunction( f ).toFunction();
+        Assert.assertEquals( TruthTable.fromFunction( recovered ).toFunction().getMonomials().length, recovered
+                .getMonomials().length );
+        for ( int i = 0; i < 100; ++i ) {
+            BitVector input = BitVectors.randomVector( INPUT_LENGTH );
+            Assert.assertEquals( f.apply( input ), recovered.apply( input ) );
+        }
+    }
+
+    @Test
+    public void testFromOutputs() {
+        SimplePolynomialFunction f = SimplePolynomialFunctions.randomFunction( INPUT_LENGTH, OUTPUT_LENGTH, 16, 4 );
+        List<BitVector> inputs = TruthTable.allInputs( INPUT_LENGTH );
+        TruthTable table = TruthTable.fromOutputs( INPUT_LENGTH, OUTPUT_LENGTH, f.applyAll( inputs ) );
+        Assert.assertEquals(
+                TruthTable.fromFunction( f ).toFunction().getMonomials().length,
+                table.toFunction().getMonomials().length );
+        for ( BitVector input : inputs ) {
+            Assert.assertEquals( f.apply( input ), table.apply( input ) );
+        }
+    }
+}
@@ -59,6 +59,23 @@ public class MultivariateLearningTests {
         Assert.assertEquals( function.apply( input ) , learned.apply( input ) );
     }
 	
+	@Test
+    public void learnExhaustivelyTest() {
+        Integer testPolynomialInputLength = 10;
+        Integer testPolynomialOutputLength = 16;
+        
+        // Cubic, so learning with an order of 2 wouldn't recover it.
+        PolynomialFunction function =  SimplePolynomialFunctions.randomFunction(testPolynomialInputLength, testPolynomialOutputLength, 8, 3);
+        Pair<SimplePolynomialFunction, List<BitVector>> learnedInfo = MultivariateLearning.learnFunctionExhaustively( function );
+        SimplePolynomialFunction learned = learnedInfo.getLeft();
+        List<BitVector> inputs = learnedInfo.getRight();
+        
+        Assert.assertEquals( 1 << testPolynomialInputLength, inputs.size() );
+        for ( BitVector input : inputs ) {
+            Assert.assertEquals( function.apply( input ) , learned.apply( input ) );
+        }
+    }
+	
 	/**
 	 * STATISTICAL TESTING
 	 */
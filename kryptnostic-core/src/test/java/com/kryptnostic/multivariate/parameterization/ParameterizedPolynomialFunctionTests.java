@@ -68,6 +68,20 @@ public class ParameterizedPolynomialFunctionTests {
         Assert.assertEquals(expected, actual);
     }
 
+    @Test
+    public void testComposeLeavesOuterUnchanged() {
+        SimplePolynomialFunction inner = SimplePolynomialFunctions.lightRandomFunction(64, 64);
+        SimplePolynomialFunction outer = ParameterizedPolynomialFunctions.randomParameterizedFunction(64, 64);
+
+        BitVector input = BitVectors.randomVector(64);
+        BitVector expected = outer.apply(input);
+        SimplePolynomialFunction composed = outer.compose(inner);
+
+        Assert.assertEquals(expected, outer.apply(input));
+        Assert.assertEquals(outer.apply(inner.apply(input)), composed.apply(input));
+        Assert.assertEquals(outer.apply(inner.apply(input)), outer.compose(inner).apply(input));
+    }
+
     // TODO fix bug when inputs and outputs not same length. is caused by pipelines not matching correctly (both sized
     // by input)
     @Test
@@ -117,4 +131,28 @@ public class ParameterizedPolynomialFunctionTests {
         expected.and(g.apply(input));
 
     }
+
+    @Test
+    public void testBatchApply() {
+        SimplePolynomialFunction f = ParameterizedPolynomialFunctions.randomParameterizedFunction(128, 128);
+        BitVector[] inputs = new BitVector[ 100 ];
+        for ( int i = 0; i < inputs.length; ++i ) {
+            inputs[ i ] = BitVectors.randomVector( 128 );
+        }
+        BitVector[] outputs = f.apply( inputs );
+        for ( int i = 0; i < inputs.length; ++i ) {
+            Assert.assertEquals( f.apply( inputs[ i ] ), outputs[ i ] );
+        }
+    }
+
+    @Test
+    public void testApplyInto() {
+        SimplePolynomialFunction f = ParameterizedPolynomialFunctions.randomParameterizedFunction(128, 128);
+        BitVector output = new BitVector( 128 );
+        for ( int i = 0; i < 10; ++i ) {
+            BitVector input = BitVectors.randomVector( 128 );
+            f.applyInto( input, output );
+            Assert.assertEquals( f.apply( input ), output );
+        }
+    }
 }